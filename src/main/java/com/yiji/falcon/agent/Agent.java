@@ -4,7 +4,10 @@
  */
 package com.yiji.falcon.agent;
 
+import com.yiji.falcon.agent.common.AgentJobHelper;
+import com.yiji.falcon.agent.common.AgentSelfMetrics;
 import com.yiji.falcon.agent.config.AgentConfiguration;
+import com.yiji.falcon.agent.falcon.ReportPushQueue;
 import com.yiji.falcon.agent.jmx.JMXConnection;
 import com.yiji.falcon.agent.plugins.metrics.SNMPV3MetricsValue;
 import com.yiji.falcon.agent.plugins.util.PluginExecute;
@@ -220,6 +223,12 @@ public class Agent extends Thread{
         }
         log.info("调度器关闭成功");
 
+        log.info("关闭push队列");
+        ReportPushQueue.shutdown();
+
+        log.info("关闭HTTP连接池");
+        HttpClientPool.shutdown();
+
         log.info("关闭JMX连接");
         JMXConnection.close();
         log.info("关闭SNMP连接");
@@ -261,6 +270,15 @@ public class Agent extends Thread{
      */
     private void work(){
         try {
+            //HTTP连接池配置
+            HttpClientPool.configure(AgentConfiguration.INSTANCE.getHttpPoolMaxTotal(),
+                    AgentConfiguration.INSTANCE.getHttpPoolMaxPerRoute(),
+                    AgentConfiguration.INSTANCE.getHttpPoolKeepAliveMs());
+            //启动push队列
+            ReportPushQueue.start();
+            //Agent自身监控数据上报
+            AgentSelfMetrics.registerInbuilt();
+            AgentJobHelper.agentSelfMetrics();
             //注册插件
             new PluginLibraryHelper().register();
             //运行插件
@@ -80,6 +80,21 @@ public class AgentJobHelper {
         }
     }
 
+    /**
+     * Agent自身监控数据的上报
+     * @throws SchedulerException
+     */
+    public static void agentSelfMetrics() throws SchedulerException {
+        String agentSelfMetrics = "AgentSelfMetrics";
+        if(!isHasWorked(agentSelfMetrics)){
+            JobDetail job = getJobDetail(AgentSelfMetricsJob.class,agentSelfMetrics,"Agent自身监控数据上报Job",new JobDataMap());
+
+            Trigger trigger = getTrigger(AgentConfiguration.INSTANCE.getSelfMetricsStep(),agentSelfMetrics,"Agent自身监控数据push调度任务");
+            ScheduleJobResult scheduleJobResult = SchedulerUtil.executeScheduleJob(job,trigger);
+            workResult(scheduleJobResult,agentSelfMetrics);
+        }
+    }
+
     /**
      * JMX服务的监控启动
      * @param pluginName
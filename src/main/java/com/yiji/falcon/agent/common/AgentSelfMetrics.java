@@ -0,0 +1,168 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.common;
+
+import com.yiji.falcon.agent.falcon.ChangeSuppressor;
+import com.yiji.falcon.agent.falcon.CircuitBreaker;
+import com.yiji.falcon.agent.falcon.CounterRate;
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.falcon.FalconReportObject;
+import com.yiji.falcon.agent.falcon.HttpPushSink;
+import com.yiji.falcon.agent.falcon.PushCompressor;
+import com.yiji.falcon.agent.falcon.ReportMetrics;
+import com.yiji.falcon.agent.falcon.ReportPushQueue;
+import com.yiji.falcon.agent.falcon.ReportSpoolReplayer;
+import com.yiji.falcon.agent.jmx.JMXConnectorPool;
+import com.yiji.falcon.agent.jmx.TimeoutMBeanServerConnection;
+import com.yiji.falcon.agent.plugins.metrics.MetricsCommon;
+import com.yiji.falcon.agent.util.HttpClientPool;
+import com.yiji.falcon.agent.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Agent自身的监控数据
+ * 各组件注册监控项的取值方法,由 {@link AgentSelfMetricsJob} 按 agent.self.metrics.step 周期上报
+ */
+public class AgentSelfMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(AgentSelfMetrics.class);
+
+    /**
+     * 所有Agent自身监控数据共有的tag
+     */
+    public static final String TAGS = "service=falcon-agent,service.type=agent";
+
+    private static final Map<String,Metric> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * 注册GAUGE类型的监控项
+     * @param metric
+     * 监控项名称
+     * @param supplier
+     * 取值方法
+     */
+    public static void registerGauge(String metric,Supplier<Number> supplier){
+        register(metric,null,CounterType.GAUGE,supplier);
+    }
+
+    /**
+     * 注册COUNTER类型的监控项,取值应为累计值
+     * @param metric
+     * 监控项名称
+     * @param supplier
+     * 取值方法
+     */
+    public static void registerCounter(String metric,Supplier<Number> supplier){
+        register(metric,null,CounterType.COUNTER,supplier);
+    }
+
+    /**
+     * 注册监控项,相同名称及tag的监控项将被覆盖
+     * @param metric
+     * 监控项名称
+     * @param tags
+     * 附加的tag,可为空
+     * @param counterType
+     * @param supplier
+     * 取值方法
+     */
+    public static void register(String metric,String tags,CounterType counterType,Supplier<Number> supplier){
+        String key = StringUtils.isEmpty(tags) ? metric : metric + "/" + tags;
+        metrics.put(key,new Metric(metric,tags,counterType,supplier));
+    }
+
+    /**
+     * 注册Agent内置组件的监控项
+     */
+    public static void registerInbuilt(){
+        registerGauge("agent.http.pool.leased",HttpClientPool::getLeasedConnections);
+        registerGauge("agent.http.pool.available",HttpClientPool::getAvailableConnections);
+        registerGauge("agent.http.pool.pending",HttpClientPool::getPendingRequests);
+        registerGauge("agent.http.pool.reuseRatio",HttpClientPool::getReuseRatio);
+        registerCounter("agent.http.pool.requests",HttpClientPool::getRequestCount);
+        registerCounter("agent.http.pool.connections.created",HttpClientPool::getCreatedConnectionCount);
+        registerCounter("agent.http.pool.lease.count",HttpClientPool::getLeaseCount);
+        registerCounter("agent.http.pool.lease.waitTime",HttpClientPool::getLeaseWaitMillis);
+
+        registerGauge("agent.push.queue.size",ReportPushQueue::size);
+        registerGauge("agent.push.spool.pending",ReportSpoolReplayer::pendingPoints);
+        registerCounter("agent.push.dropped",ReportMetrics::getDroppedCount);
+        registerCounter("agent.push.suppressed",ChangeSuppressor::getSuppressedCount);
+        registerGauge("agent.push.rate.series",ReportMetrics::getRateSeriesCount);
+        registerCounter("agent.push.rate.resets",CounterRate::getResetCount);
+        registerCounter("agent.push.rate.wraps",CounterRate::getWrapCount);
+        registerGauge("agent.push.nodes.healthy",ReportMetrics::getHealthyNodeCount);
+        registerGauge("agent.push.breaker.broken",ReportMetrics::getBrokenNodeCount);
+        registerCounter("agent.push.breaker.opened",CircuitBreaker::getOpenedCount);
+        registerCounter("agent.push.breaker.halfOpened",CircuitBreaker::getHalfOpenedCount);
+        registerCounter("agent.push.breaker.closed",CircuitBreaker::getClosedCount);
+
+        registerGauge("agent.push.compress.ratio",PushCompressor::getCompressRatio);
+        registerCounter("agent.push.compress.batches",PushCompressor::getBatchCount);
+        registerCounter("agent.push.compress.rawBytes",PushCompressor::getRawBytes);
+        registerCounter("agent.push.compress.compressedBytes",PushCompressor::getCompressedBytes);
+        registerCounter("agent.push.compress.cpuTime",PushCompressor::getCpuTimeMicros);
+        registerCounter("agent.push.compress.fallback",HttpPushSink::getCompressFallbackCount);
+
+        registerGauge("agent.jmx.pool.size",JMXConnectorPool::size);
+        registerGauge("agent.jmx.pool.leaked",JMXConnectorPool::getLeakedCount);
+        registerCounter("agent.jmx.pool.reconnects",JMXConnectorPool::getReconnectCount);
+        registerCounter("agent.jmx.pool.evictions",JMXConnectorPool::getEvictionCount);
+        registerCounter("agent.jmx.pool.connectFailures",JMXConnectorPool::getConnectFailCount);
+        registerCounter("agent.jmx.call.timeouts",TimeoutMBeanServerConnection::getTimeoutCount);
+    }
+
+    /**
+     * 获取所有监控项的当前值
+     * @param step
+     * @return
+     */
+    public static List<FalconReportObject> collect(int step){
+        List<FalconReportObject> result = new ArrayList<>();
+        long timestamp = System.currentTimeMillis() / 1000;
+        for (Metric metric : metrics.values()) {
+            Number value;
+            try {
+                value = metric.supplier.get();
+            } catch (Exception e) {
+                log.warn("Agent监控项 {} 取值异常",metric.metric,e);
+                continue;
+            }
+            if(value == null){
+                continue;
+            }
+            FalconReportObject falconReportObject = new FalconReportObject();
+            MetricsCommon.setReportCommonValue(falconReportObject,step);
+            falconReportObject.setMetric(metric.metric);
+            falconReportObject.setValue(String.valueOf(value));
+            falconReportObject.setCounterType(metric.counterType);
+            falconReportObject.setTimestamp(timestamp);
+            falconReportObject.appendTags(TAGS).appendTags(metric.tags);
+            result.add(falconReportObject);
+        }
+        return result;
+    }
+
+    private static class Metric {
+        final String metric;
+        final String tags;
+        final CounterType counterType;
+        final Supplier<Number> supplier;
+
+        Metric(String metric, String tags, CounterType counterType, Supplier<Number> supplier) {
+            this.metric = metric;
+            this.tags = tags;
+            this.counterType = counterType;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.common;
+
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import com.yiji.falcon.agent.falcon.ReportMetrics;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Agent自身监控数据上报JOB
+ */
+public class AgentSelfMetricsJob implements Job{
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            ReportMetrics.push(AgentSelfMetrics.collect(AgentConfiguration.INSTANCE.getSelfMetricsStep()));
+        } catch (Exception e) {
+            log.error("Agent自身监控数据上报异常",e);
+        }
+    }
+}
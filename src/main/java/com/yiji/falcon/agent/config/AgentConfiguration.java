@@ -97,6 +97,182 @@ public enum  AgentConfiguration {
      */
     private boolean agentJMXLocalConnect = false;
 
+    /**
+     * push队列的最大容量(监控值个数)
+     */
+    private int pushQueueCapacity = 100000;
+
+    /**
+     * push队列的flush线程数
+     */
+    private int pushFlusherThreads = 1;
+
+    /**
+     * 一次push的最大监控值个数
+     */
+    private int pushBatchMaxPoints = 2000;
+
+    /**
+     * 一次push的最大字节数
+     */
+    private int pushBatchMaxBytes = 1024 * 1024;
+
+    /**
+     * 批次的最大等待时间(毫秒),批次中第一个监控值入队后,最多等待此时间即进行push
+     */
+    private int pushBatchLingerMs = 1000;
+
+    /**
+     * 是否开启push失败数据的磁盘缓冲
+     */
+    private boolean pushSpoolEnable = true;
+
+    /**
+     * 磁盘缓冲的分段文件大小(字节)
+     */
+    private int pushSpoolSegmentBytes = 16 * 1024 * 1024;
+
+    /**
+     * 磁盘缓冲占用磁盘的最大字节数,超出后淘汰最旧的分段
+     */
+    private int pushSpoolMaxBytes = 256 * 1024 * 1024;
+
+    /**
+     * 磁盘缓冲重放的速率(每秒监控值个数)
+     */
+    private int pushSpoolReplayPointsPerSecond = 2000;
+
+    /**
+     * HTTP连接池的最大连接数
+     */
+    private int httpPoolMaxTotal = 100;
+
+    /**
+     * HTTP连接池每个目标主机的最大连接数
+     */
+    private int httpPoolMaxPerRoute = 10;
+
+    /**
+     * HTTP连接的默认保持时间(毫秒),服务端未返回Keep-Alive时使用
+     */
+    private int httpPoolKeepAliveMs = 30000;
+
+    /**
+     * Agent自身监控数据的上报周期(秒)
+     */
+    private int selfMetricsStep = 60;
+
+    /**
+     * push数据的压缩方式:none、gzip或deflate
+     */
+    private String pushCompress = "none";
+
+    /**
+     * push数据进行压缩的最小字节数,小于此值的批次不压缩
+     */
+    private int pushCompressMinBytes = 1024;
+
+    /**
+     * push数据的发送方式:http(通过falcon-agent)或transfer(直连transfer的RPC接口)
+     */
+    private String pushSink = "http";
+
+    /**
+     * transfer的RPC地址(host:port),push方式为transfer时使用
+     */
+    private String transferAddr = null;
+
+
+    /**
+     * push熔断的连续失败次数
+     */
+    private int pushBreakerFailureThreshold = 3;
+
+    /**
+     * push熔断的最小退避时间(毫秒)
+     */
+    private int pushBreakerBackoffMinMs = 1000;
+
+    /**
+     * push熔断的最大退避时间(毫秒)
+     */
+    private int pushBreakerBackoffMaxMs = 60000;
+
+    /**
+     * 是否不上报未变化的GAUGE监控值
+     */
+    private boolean pushSuppressEnable = false;
+
+    /**
+     * 未变化的GAUGE监控值强制上报的周期(step的倍数)
+     */
+    private int pushSuppressHeartbeatSteps = 10;
+
+    /**
+     * 是否将累计值类型的监控值转换为速率后上报
+     */
+    private boolean pushRateEnable = false;
+
+    /**
+     * 速率计算中监控序列超过多少个step未出现时清理
+     */
+    private int pushRateEvictSteps = 5;
+
+    /**
+     * JMX是否获取所有MBean的所有属性值
+     */
+    private boolean jmxFullScan = false;
+
+    /**
+     * JMX并行取值的线程数
+     */
+    private int jmxCollectThreads = 10;
+
+    /**
+     * 一次JMX取值的超时时间(秒)
+     */
+    private int jmxCollectTimeout = 30;
+
+    /**
+     * 无法编译的监控值转换表达式(valueExpress)是否使用js脚本引擎执行
+     */
+    private boolean valueExpressJsCompatible = true;
+
+    /**
+     * 是否订阅JMX连接的GC及内存阈值通知,汇总上报GC停顿
+     */
+    private boolean jmxGcNotification = true;
+
+    /**
+     * 对未设置收集后使用量阈值的堆内存池,按最大值的此百分比设置阈值,0为不设置
+     */
+    private int jmxCollectionThresholdPercent = 0;
+
+    /**
+     * 本地JVM发现的扫描间隔(秒)
+     */
+    private int jmxDiscoveryInterval = 10;
+
+    /**
+     * JMX连接池的健康检查间隔(秒)
+     */
+    private int jmxHealthCheckInterval = 30;
+
+    /**
+     * 內建JVM监控是否获取死锁线程数(每个JVM每个周期调用一次findDeadlockedThreads)
+     */
+    private boolean jmxDeadlockDetection = true;
+
+    /**
+     * JMX每一次调用(getAttribute、queryMBeans等)的超时时间(秒)
+     */
+    private int jmxCallTimeout = 10;
+
+    /**
+     * JMX连接连续调用超时多少次后关闭并重新连接
+     */
+    private int jmxCallEvictAfterTimeouts = 3;
+
 
     private static final String CONF_AGENT_ENDPOINT = "agent.endpoint";
     private static final String CONF_AGENT_FLUSH_TIME = "agent.flush.time";
@@ -110,6 +286,41 @@ public enum  AgentConfiguration {
     private static final String FALCON_DIR_PATH = "agent.falcon.dir";
     private static final String FALCON_CONF_DIR_PATH = "agent.falcon.conf.dir";
     private static final String CONF_AGENT_JMX_LOCAL_CONNECT = "agent.jmx.localConnectSupport";
+    private static final String CONF_AGENT_PUSH_QUEUE_CAPACITY = "agent.falcon.push.queue.capacity";
+    private static final String CONF_AGENT_PUSH_FLUSHER_THREADS = "agent.falcon.push.flusher.threads";
+    private static final String CONF_AGENT_PUSH_BATCH_MAX_POINTS = "agent.falcon.push.batch.maxPoints";
+    private static final String CONF_AGENT_PUSH_BATCH_MAX_BYTES = "agent.falcon.push.batch.maxBytes";
+    private static final String CONF_AGENT_PUSH_BATCH_LINGER_MS = "agent.falcon.push.batch.lingerMs";
+    private static final String CONF_AGENT_PUSH_SPOOL_ENABLE = "agent.falcon.push.spool.enable";
+    private static final String CONF_AGENT_PUSH_SPOOL_SEGMENT_BYTES = "agent.falcon.push.spool.segmentBytes";
+    private static final String CONF_AGENT_PUSH_SPOOL_MAX_BYTES = "agent.falcon.push.spool.maxBytes";
+    private static final String CONF_AGENT_PUSH_SPOOL_REPLAY_RATE = "agent.falcon.push.spool.replayPointsPerSecond";
+    private static final String CONF_AGENT_HTTP_POOL_MAX_TOTAL = "agent.http.pool.maxTotal";
+    private static final String CONF_AGENT_HTTP_POOL_MAX_PER_ROUTE = "agent.http.pool.maxPerRoute";
+    private static final String CONF_AGENT_HTTP_POOL_KEEP_ALIVE_MS = "agent.http.pool.keepAliveMs";
+    private static final String CONF_AGENT_SELF_METRICS_STEP = "agent.self.metrics.step";
+    private static final String CONF_AGENT_PUSH_COMPRESS = "agent.falcon.push.compress";
+    private static final String CONF_AGENT_PUSH_COMPRESS_MIN_BYTES = "agent.falcon.push.compress.minBytes";
+    private static final String CONF_AGENT_PUSH_SINK = "agent.falcon.push.sink";
+    private static final String CONF_AGENT_TRANSFER_ADDR = "agent.falcon.transfer.addr";
+    private static final String CONF_AGENT_PUSH_BREAKER_FAILURE_THRESHOLD = "agent.falcon.push.breaker.failureThreshold";
+    private static final String CONF_AGENT_PUSH_BREAKER_BACKOFF_MIN_MS = "agent.falcon.push.breaker.backoffMinMs";
+    private static final String CONF_AGENT_PUSH_BREAKER_BACKOFF_MAX_MS = "agent.falcon.push.breaker.backoffMaxMs";
+    private static final String CONF_AGENT_PUSH_SUPPRESS_ENABLE = "agent.falcon.push.suppress.enable";
+    private static final String CONF_AGENT_PUSH_SUPPRESS_HEARTBEAT_STEPS = "agent.falcon.push.suppress.heartbeatSteps";
+    private static final String CONF_AGENT_PUSH_RATE_ENABLE = "agent.falcon.push.rate.enable";
+    private static final String CONF_AGENT_PUSH_RATE_EVICT_STEPS = "agent.falcon.push.rate.evictSteps";
+    private static final String CONF_AGENT_JMX_FULL_SCAN = "agent.jmx.fullScan";
+    private static final String CONF_AGENT_JMX_COLLECT_THREADS = "agent.jmx.collect.threads";
+    private static final String CONF_AGENT_JMX_COLLECT_TIMEOUT = "agent.jmx.collect.timeout";
+    private static final String CONF_AGENT_VALUE_EXPRESS_JS_COMPATIBLE = "agent.valueExpress.jsCompatible";
+    private static final String CONF_AGENT_JMX_GC_NOTIFICATION = "agent.jmx.gc.notification";
+    private static final String CONF_AGENT_JMX_COLLECTION_THRESHOLD_PERCENT = "agent.jmx.memory.collectionThresholdPercent";
+    private static final String CONF_AGENT_JMX_DISCOVERY_INTERVAL = "agent.jmx.discovery.interval";
+    private static final String CONF_AGENT_JMX_HEALTH_CHECK_INTERVAL = "agent.jmx.healthCheck.interval";
+    private static final String CONF_AGENT_JMX_DEADLOCK_DETECTION = "agent.jmx.deadlockDetection";
+    private static final String CONF_AGENT_JMX_CALL_TIMEOUT = "agent.jmx.call.timeout";
+    private static final String CONF_AGENT_JMX_CALL_EVICT_AFTER_TIMEOUTS = "agent.jmx.call.evictAfterTimeouts";
 
     private Properties agentConf = null;
 
@@ -232,6 +443,98 @@ public enum  AgentConfiguration {
             System.exit(0);
         }
 
+        this.pushQueueCapacity = getPositiveIntConf(CONF_AGENT_PUSH_QUEUE_CAPACITY,this.pushQueueCapacity);
+        this.pushFlusherThreads = getPositiveIntConf(CONF_AGENT_PUSH_FLUSHER_THREADS,this.pushFlusherThreads);
+        this.pushBatchMaxPoints = getPositiveIntConf(CONF_AGENT_PUSH_BATCH_MAX_POINTS,this.pushBatchMaxPoints);
+        this.pushBatchMaxBytes = getPositiveIntConf(CONF_AGENT_PUSH_BATCH_MAX_BYTES,this.pushBatchMaxBytes);
+        this.pushBatchLingerMs = getPositiveIntConf(CONF_AGENT_PUSH_BATCH_LINGER_MS,this.pushBatchLingerMs);
+
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_PUSH_SPOOL_ENABLE))){
+            this.pushSpoolEnable = "true".equals(agentConf.getProperty(CONF_AGENT_PUSH_SPOOL_ENABLE).trim());
+        }
+        this.pushSpoolSegmentBytes = getPositiveIntConf(CONF_AGENT_PUSH_SPOOL_SEGMENT_BYTES,this.pushSpoolSegmentBytes);
+        this.pushSpoolMaxBytes = getPositiveIntConf(CONF_AGENT_PUSH_SPOOL_MAX_BYTES,this.pushSpoolMaxBytes);
+        this.pushSpoolReplayPointsPerSecond = getPositiveIntConf(CONF_AGENT_PUSH_SPOOL_REPLAY_RATE,this.pushSpoolReplayPointsPerSecond);
+        this.httpPoolMaxTotal = getPositiveIntConf(CONF_AGENT_HTTP_POOL_MAX_TOTAL,this.httpPoolMaxTotal);
+        this.httpPoolMaxPerRoute = getPositiveIntConf(CONF_AGENT_HTTP_POOL_MAX_PER_ROUTE,this.httpPoolMaxPerRoute);
+        this.httpPoolKeepAliveMs = getPositiveIntConf(CONF_AGENT_HTTP_POOL_KEEP_ALIVE_MS,this.httpPoolKeepAliveMs);
+        this.selfMetricsStep = getPositiveIntConf(CONF_AGENT_SELF_METRICS_STEP,this.selfMetricsStep);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_PUSH_COMPRESS))){
+            this.pushCompress = agentConf.getProperty(CONF_AGENT_PUSH_COMPRESS).trim().toLowerCase();
+            if(!"none".equals(this.pushCompress) && !"gzip".equals(this.pushCompress) && !"deflate".equals(this.pushCompress)){
+                log.error("Agent启动失败,配置 {} 只能为none、gzip或deflate: {}",CONF_AGENT_PUSH_COMPRESS,this.pushCompress);
+                System.exit(0);
+            }
+        }
+        this.pushCompressMinBytes = getPositiveIntConf(CONF_AGENT_PUSH_COMPRESS_MIN_BYTES,this.pushCompressMinBytes);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_PUSH_SINK))){
+            this.pushSink = agentConf.getProperty(CONF_AGENT_PUSH_SINK).trim().toLowerCase();
+            if(!"http".equals(this.pushSink) && !"transfer".equals(this.pushSink)){
+                log.error("Agent启动失败,配置 {} 只能为http或transfer: {}",CONF_AGENT_PUSH_SINK,this.pushSink);
+                System.exit(0);
+            }
+        }
+        this.transferAddr = agentConf.getProperty(CONF_AGENT_TRANSFER_ADDR);
+        if("transfer".equals(this.pushSink) && StringUtils.isEmpty(this.transferAddr)){
+            log.error("Agent启动失败,push方式为transfer时必须配置 {}",CONF_AGENT_TRANSFER_ADDR);
+            System.exit(0);
+        }
+        this.pushBreakerFailureThreshold = getPositiveIntConf(CONF_AGENT_PUSH_BREAKER_FAILURE_THRESHOLD,this.pushBreakerFailureThreshold);
+        this.pushBreakerBackoffMinMs = getPositiveIntConf(CONF_AGENT_PUSH_BREAKER_BACKOFF_MIN_MS,this.pushBreakerBackoffMinMs);
+        this.pushBreakerBackoffMaxMs = getPositiveIntConf(CONF_AGENT_PUSH_BREAKER_BACKOFF_MAX_MS,this.pushBreakerBackoffMaxMs);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_PUSH_SUPPRESS_ENABLE))){
+            this.pushSuppressEnable = "true".equals(agentConf.getProperty(CONF_AGENT_PUSH_SUPPRESS_ENABLE).trim());
+        }
+        this.pushSuppressHeartbeatSteps = getPositiveIntConf(CONF_AGENT_PUSH_SUPPRESS_HEARTBEAT_STEPS,this.pushSuppressHeartbeatSteps);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_PUSH_RATE_ENABLE))){
+            this.pushRateEnable = "true".equals(agentConf.getProperty(CONF_AGENT_PUSH_RATE_ENABLE).trim());
+        }
+        this.pushRateEvictSteps = getPositiveIntConf(CONF_AGENT_PUSH_RATE_EVICT_STEPS,this.pushRateEvictSteps);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_JMX_FULL_SCAN))){
+            this.jmxFullScan = "true".equals(agentConf.getProperty(CONF_AGENT_JMX_FULL_SCAN).trim());
+        }
+        this.jmxCollectThreads = getPositiveIntConf(CONF_AGENT_JMX_COLLECT_THREADS,this.jmxCollectThreads);
+        this.jmxCollectTimeout = getPositiveIntConf(CONF_AGENT_JMX_COLLECT_TIMEOUT,this.jmxCollectTimeout);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_VALUE_EXPRESS_JS_COMPATIBLE))){
+            this.valueExpressJsCompatible = "true".equals(agentConf.getProperty(CONF_AGENT_VALUE_EXPRESS_JS_COMPATIBLE).trim());
+        }
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_JMX_GC_NOTIFICATION))){
+            this.jmxGcNotification = "true".equals(agentConf.getProperty(CONF_AGENT_JMX_GC_NOTIFICATION).trim());
+        }
+        this.jmxCollectionThresholdPercent = getPositiveIntConf(CONF_AGENT_JMX_COLLECTION_THRESHOLD_PERCENT,this.jmxCollectionThresholdPercent);
+        this.jmxDiscoveryInterval = getPositiveIntConf(CONF_AGENT_JMX_DISCOVERY_INTERVAL,this.jmxDiscoveryInterval);
+        this.jmxHealthCheckInterval = getPositiveIntConf(CONF_AGENT_JMX_HEALTH_CHECK_INTERVAL,this.jmxHealthCheckInterval);
+        if(!StringUtils.isEmpty(agentConf.getProperty(CONF_AGENT_JMX_DEADLOCK_DETECTION))){
+            this.jmxDeadlockDetection = "true".equals(agentConf.getProperty(CONF_AGENT_JMX_DEADLOCK_DETECTION).trim());
+        }
+        this.jmxCallTimeout = getPositiveIntConf(CONF_AGENT_JMX_CALL_TIMEOUT,this.jmxCallTimeout);
+        this.jmxCallEvictAfterTimeouts = getPositiveIntConf(CONF_AGENT_JMX_CALL_EVICT_AFTER_TIMEOUTS,this.jmxCallEvictAfterTimeouts);
+
+    }
+
+    /**
+     * 读取必须大于0的整数配置,未配置时返回默认值
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    private int getPositiveIntConf(String key,int defaultValue){
+        String value = agentConf.getProperty(key);
+        if(StringUtils.isEmpty(value)){
+            return defaultValue;
+        }
+        try {
+            int conf = Integer.parseInt(value.trim());
+            if(conf <= 0){
+                log.error("Agent启动失败,配置 {} 必须大于0: {}",key,value);
+                System.exit(0);
+            }
+            return conf;
+        } catch (NumberFormatException e) {
+            log.error("Agent启动失败,配置 {} 无效: {}",key,value);
+            System.exit(0);
+        }
+        return defaultValue;
     }
 
     private void initJMXCommon(){
@@ -302,4 +605,144 @@ public enum  AgentConfiguration {
     public int getMockValidTime() {
         return mockValidTime;
     }
+
+    public int getPushQueueCapacity() {
+        return pushQueueCapacity;
+    }
+
+    public int getPushFlusherThreads() {
+        return pushFlusherThreads;
+    }
+
+    public int getPushBatchMaxPoints() {
+        return pushBatchMaxPoints;
+    }
+
+    public int getPushBatchMaxBytes() {
+        return pushBatchMaxBytes;
+    }
+
+    public int getPushBatchLingerMs() {
+        return pushBatchLingerMs;
+    }
+
+    public boolean isPushSpoolEnable() {
+        return pushSpoolEnable;
+    }
+
+    public int getPushSpoolSegmentBytes() {
+        return pushSpoolSegmentBytes;
+    }
+
+    public int getPushSpoolMaxBytes() {
+        return pushSpoolMaxBytes;
+    }
+
+    public int getPushSpoolReplayPointsPerSecond() {
+        return pushSpoolReplayPointsPerSecond;
+    }
+
+    public int getHttpPoolMaxTotal() {
+        return httpPoolMaxTotal;
+    }
+
+    public int getHttpPoolMaxPerRoute() {
+        return httpPoolMaxPerRoute;
+    }
+
+    public int getHttpPoolKeepAliveMs() {
+        return httpPoolKeepAliveMs;
+    }
+
+    public int getSelfMetricsStep() {
+        return selfMetricsStep;
+    }
+
+    public String getPushCompress() {
+        return pushCompress;
+    }
+
+    public int getPushCompressMinBytes() {
+        return pushCompressMinBytes;
+    }
+
+    public String getPushSink() {
+        return pushSink;
+    }
+
+    public String getTransferAddr() {
+        return transferAddr;
+    }
+
+    public int getPushBreakerFailureThreshold() {
+        return pushBreakerFailureThreshold;
+    }
+
+    public int getPushBreakerBackoffMinMs() {
+        return pushBreakerBackoffMinMs;
+    }
+
+    public int getPushBreakerBackoffMaxMs() {
+        return pushBreakerBackoffMaxMs;
+    }
+
+    public boolean isPushSuppressEnable() {
+        return pushSuppressEnable;
+    }
+
+    public int getPushSuppressHeartbeatSteps() {
+        return pushSuppressHeartbeatSteps;
+    }
+
+    public boolean isPushRateEnable() {
+        return pushRateEnable;
+    }
+
+    public int getPushRateEvictSteps() {
+        return pushRateEvictSteps;
+    }
+
+    public boolean isJmxFullScan() {
+        return jmxFullScan;
+    }
+
+    public int getJmxCollectThreads() {
+        return jmxCollectThreads;
+    }
+
+    public int getJmxCollectTimeout() {
+        return jmxCollectTimeout;
+    }
+
+    public boolean isValueExpressJsCompatible() {
+        return valueExpressJsCompatible;
+    }
+
+    public boolean isJmxGcNotification() {
+        return jmxGcNotification;
+    }
+
+    public int getJmxCollectionThresholdPercent() {
+        return jmxCollectionThresholdPercent;
+    }
+
+    public int getJmxDiscoveryInterval() {
+        return jmxDiscoveryInterval;
+    }
+
+    public int getJmxHealthCheckInterval() {
+        return jmxHealthCheckInterval;
+    }
+
+    public boolean isJmxDeadlockDetection() {
+        return jmxDeadlockDetection;
+    }
+
+    public int getJmxCallTimeout() {
+        return jmxCallTimeout;
+    }
+
+    public int getJmxCallEvictAfterTimeouts() {
+        return jmxCallEvictAfterTimeouts;
+    }
 }
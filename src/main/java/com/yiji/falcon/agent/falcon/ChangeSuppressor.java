@@ -0,0 +1,118 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 未变化的GAUGE监控值的抑制
+ * 以 endpoint + metric + tags 标识一个监控序列,值与上一次上报的值相同时不再上报,
+ * 但距上一次上报超过 heartbeatSteps 个step时强制上报一次,避免触发Falcon的nodata报警
+ * 长时间未出现的监控序列将被清理
+ */
+public class ChangeSuppressor {
+
+    private static final AtomicLong suppressedCount = new AtomicLong();
+
+    private final int heartbeatSteps;
+    private final Map<String,Series> series = new ConcurrentHashMap<>();
+    private volatile long lastPurgeTime = System.currentTimeMillis();
+
+    /**
+     * @param heartbeatSteps
+     * 未变化的监控值强制上报的周期(step的倍数)
+     */
+    public ChangeSuppressor(int heartbeatSteps) {
+        this.heartbeatSteps = heartbeatSteps;
+    }
+
+    /**
+     * 监控值是否应被抑制(不上报)
+     * 只对GAUGE类型的监控值进行抑制,其他类型总是上报
+     * @param falconReportObject
+     * @return
+     */
+    public boolean suppress(FalconReportObject falconReportObject){
+        if(falconReportObject.getCounterType() != CounterType.GAUGE || falconReportObject.getValue() == null){
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        purge(now);
+        String key = falconReportObject.getEndpoint() + "/" + falconReportObject.getMetric() + "/" + falconReportObject.getTags();
+        String value = falconReportObject.getValue();
+        long timestamp = falconReportObject.getTimestamp();
+        long heartbeat = (long) heartbeatSteps * Math.max(falconReportObject.getStep(),1);
+        Series s = series.get(key);
+        if(s == null){
+            s = series.putIfAbsent(key,new Series(value,timestamp,now));
+            if(s == null){
+                return false;
+            }
+        }
+        synchronized (s){
+            s.lastSeenTime = now;
+            if(value.equals(s.value) && timestamp >= s.sentTimestamp && timestamp - s.sentTimestamp < heartbeat){
+                suppressedCount.incrementAndGet();
+                return true;
+            }
+            s.value = value;
+            s.sentTimestamp = timestamp;
+            return false;
+        }
+    }
+
+    /**
+     * 当前记录的监控序列个数
+     * @return
+     */
+    public int size(){
+        return series.size();
+    }
+
+    /**
+     * 累计被抑制的监控值个数
+     * @return
+     */
+    public static long getSuppressedCount(){
+        return suppressedCount.get();
+    }
+
+    /**
+     * 清理长时间未出现的监控序列,每分钟最多检查一次
+     * @param now
+     */
+    private void purge(long now){
+        if(now - lastPurgeTime < 60000){
+            return;
+        }
+        lastPurgeTime = now;
+        //未出现超过1小时(或两个心跳周期,按step为60秒计算)的监控序列已不再采集
+        long expire = Math.max(heartbeatSteps * 2L * 60000,3600000);
+        Iterator<Series> iterator = series.values().iterator();
+        while (iterator.hasNext()){
+            if(now - iterator.next().lastSeenTime > expire){
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Series {
+        String value;
+        /**
+         * 最近一次上报的监控值时间戳(秒)
+         */
+        long sentTimestamp;
+        volatile long lastSeenTime;
+
+        Series(String value, long sentTimestamp, long lastSeenTime) {
+            this.value = value;
+            this.sentTimestamp = sentTimestamp;
+            this.lastSeenTime = lastSeenTime;
+        }
+    }
+}
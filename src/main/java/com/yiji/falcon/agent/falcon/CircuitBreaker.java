@@ -0,0 +1,177 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * push发送端的熔断器
+ * closed : 正常发送,连续失败达到阈值后进入open
+ * open : 不进行发送,等待退避时间(指数增长并加入随机抖动)后进入half-open
+ * half-open : 只允许一个探测请求,成功则恢复closed,失败则重新进入open并加倍退避时间
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final AtomicLong openedCount = new AtomicLong();
+    private static final AtomicLong halfOpenedCount = new AtomicLong();
+    private static final AtomicLong closedCount = new AtomicLong();
+
+    private final String name;
+    private final int failureThreshold;
+    private final long backoffMinMs;
+    private final long backoffMaxMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    /**
+     * 连续进入open的次数,用于计算退避时间
+     */
+    private int openTimes = 0;
+    private long openUntil = 0;
+
+    /**
+     * @param name
+     * 熔断器名称
+     * @param failureThreshold
+     * 进入open的连续失败次数
+     * @param backoffMinMs
+     * 最小退避时间(毫秒)
+     * @param backoffMaxMs
+     * 最大退避时间(毫秒)
+     */
+    public CircuitBreaker(String name, int failureThreshold, long backoffMinMs, long backoffMaxMs) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.backoffMinMs = backoffMinMs;
+        this.backoffMaxMs = Math.max(backoffMinMs,backoffMaxMs);
+    }
+
+    /**
+     * 是否允许发送
+     * open状态的退避时间结束后进入half-open,并只允许一个探测请求
+     * @return
+     */
+    public synchronized boolean allowRequest(){
+        switch (state){
+            case CLOSED:
+                return true;
+            case OPEN:
+                if(System.currentTimeMillis() >= openUntil){
+                    transition(State.HALF_OPEN);
+                    return true;
+                }
+                return false;
+            default:
+                //half-open状态下已有探测请求
+                return false;
+        }
+    }
+
+    /**
+     * 是否可以分配请求:closed状态,或open状态且退避时间已结束(下一个请求即为half-open的探测请求)
+     * 与 {@link #allowRequest()} 不同,不改变熔断器状态
+     * @return
+     */
+    public synchronized boolean isAvailable(){
+        return state == State.CLOSED || (state == State.OPEN && System.currentTimeMillis() >= openUntil);
+    }
+
+    /**
+     * 记录发送成功
+     */
+    public synchronized void onSuccess(){
+        consecutiveFailures = 0;
+        openTimes = 0;
+        if(state != State.CLOSED){
+            transition(State.CLOSED);
+        }
+    }
+
+    /**
+     * 记录发送失败
+     */
+    public synchronized void onFailure(){
+        consecutiveFailures++;
+        if(state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)){
+            openTimes++;
+            long backoff = backoff(openTimes);
+            openUntil = System.currentTimeMillis() + backoff;
+            transition(State.OPEN);
+            log.warn("{} 连续 {} 次push失败,{}ms内暂停push",name,consecutiveFailures,backoff);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 计算退避时间: min * 2^(n-1),不超过max,并在[1/2,1]范围内随机抖动,避免多个Agent同时重试
+     * @param times
+     * @return
+     */
+    long backoff(int times){
+        long backoff = backoffMinMs << Math.min(times - 1,30);
+        if(backoff <= 0 || backoff > backoffMaxMs){
+            backoff = backoffMaxMs;
+        }
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    private void transition(State target){
+        log.info("{} 熔断器状态 {} -> {}",name,state,target);
+        state = target;
+        switch (target){
+            case OPEN:
+                openedCount.incrementAndGet();
+                break;
+            case HALF_OPEN:
+                halfOpenedCount.incrementAndGet();
+                break;
+            default:
+                closedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 所有熔断器累计进入open的次数
+     * @return
+     */
+    public static long getOpenedCount(){
+        return openedCount.get();
+    }
+
+    /**
+     * 所有熔断器累计进入half-open的次数
+     * @return
+     */
+    public static long getHalfOpenedCount(){
+        return halfOpenedCount.get();
+    }
+
+    /**
+     * 所有熔断器累计恢复closed的次数
+     * @return
+     */
+    public static long getClosedCount(){
+        return closedCount.get();
+    }
+}
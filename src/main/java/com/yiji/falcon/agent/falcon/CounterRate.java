@@ -0,0 +1,212 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 累计值监控项的速率计算
+ * 对标记为 {@link FalconReportObject#isRate()} 的监控值,记录每个监控序列(endpoint + metric + tags)上一次的值和时间戳,
+ * 将上报的值转换为每秒的速率
+ *
+ * 累计值变小时:
+ * 上一次的值接近32位或64位计数器的上限时,按计数器回绕计算;否则认为计数器已被重置,以当前值为新的起点,本次不上报
+ *
+ * 监控序列保存在以64位hash为key的开放寻址表中,超过 evictSteps 个step未出现的监控序列将被清理
+ */
+public class CounterRate {
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private static final long WRAP32 = 1L << 32;
+    /**
+     * 上一次的值超过此值时,累计值变小按32位计数器回绕处理
+     */
+    private static final long WRAP32_THRESHOLD = WRAP32 / 4 * 3;
+    /**
+     * 上一次的值(无符号)超过此值时,累计值变小按64位计数器回绕处理
+     */
+    private static final long WRAP64_THRESHOLD = 0xC000000000000000L;
+
+    private static final AtomicLong resetCount = new AtomicLong();
+    private static final AtomicLong wrapCount = new AtomicLong();
+
+    private final int evictSteps;
+
+    private long[] keys;
+    private long[] values;
+    /**
+     * 上一次的时间戳(秒)
+     */
+    private long[] times;
+    private int[] steps;
+    private int size;
+    private long lastEvictTime = System.currentTimeMillis();
+
+    /**
+     * @param evictSteps
+     * 监控序列超过多少个step未出现时清理
+     */
+    public CounterRate(int evictSteps) {
+        this.evictSteps = evictSteps;
+        allocate(1024);
+    }
+
+    /**
+     * 将累计值转换为每秒的速率
+     * @param falconReportObject
+     * @return
+     * 监控值是否应上报,监控序列第一次出现、计数器重置或时间戳未增加时返回false
+     */
+    public synchronized boolean rate(FalconReportObject falconReportObject){
+        long value;
+        try {
+            value = Long.parseUnsignedLong(falconReportObject.getValue().trim());
+        } catch (Exception e) {
+            //非整数的值不进行转换
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if(now - lastEvictTime >= 60000){
+            lastEvictTime = now;
+            evict(now / 1000);
+        }
+        long timestamp = falconReportObject.getTimestamp();
+        long key = hash(falconReportObject.getEndpoint() + "/" + falconReportObject.getMetric() + "/" + falconReportObject.getTags());
+        int index = indexOf(key);
+        if(keys[index] == 0){
+            keys[index] = key;
+            put(index,value,timestamp,falconReportObject.getStep());
+            if(++size > keys.length * 3 / 5){
+                resize(keys.length << 1);
+            }
+            return false;
+        }
+
+        long prevValue = values[index];
+        long elapsed = timestamp - times[index];
+        if(elapsed <= 0){
+            return false;
+        }
+        put(index,value,timestamp,falconReportObject.getStep());
+
+        long delta;
+        if(Long.compareUnsigned(value,prevValue) >= 0){
+            delta = value - prevValue;
+        }else if(Long.compareUnsigned(prevValue,WRAP64_THRESHOLD) >= 0){
+            //无符号运算,结果即为回绕后的差值
+            delta = value - prevValue;
+            wrapCount.incrementAndGet();
+        }else if(prevValue < WRAP32 && prevValue >= WRAP32_THRESHOLD){
+            delta = value + WRAP32 - prevValue;
+            wrapCount.incrementAndGet();
+        }else{
+            resetCount.incrementAndGet();
+            return false;
+        }
+        double rate = (delta < 0 ? unsignedToDouble(delta) : delta) / (double) elapsed;
+        falconReportObject.setValue(BigDecimal.valueOf(rate).setScale(2,RoundingMode.HALF_UP).stripTrailingZeros().toPlainString());
+        return true;
+    }
+
+    /**
+     * 当前记录的监控序列个数
+     * @return
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * 累计的计数器重置次数
+     * @return
+     */
+    public static long getResetCount(){
+        return resetCount.get();
+    }
+
+    /**
+     * 累计的计数器回绕次数
+     * @return
+     */
+    public static long getWrapCount(){
+        return wrapCount.get();
+    }
+
+    private void put(int index,long value,long timestamp,int step){
+        values[index] = value;
+        times[index] = timestamp;
+        steps[index] = step;
+    }
+
+    private int indexOf(long key){
+        int mask = keys.length - 1;
+        int index = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[index] != 0 && keys[index] != key){
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * 清理超过 evictSteps 个step未出现的监控序列,剩余的监控序列重新放入新表
+     * @param nowSeconds
+     */
+    private void evict(long nowSeconds){
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        long[] oldTimes = times;
+        int[] oldSteps = steps;
+        int capacity = keys.length;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < capacity; i++) {
+            if(oldKeys[i] != 0 && nowSeconds - oldTimes[i] <= (long) evictSteps * Math.max(oldSteps[i],1)){
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                put(index,oldValues[i],oldTimes[i],oldSteps[i]);
+                size++;
+            }
+        }
+    }
+
+    private void resize(int capacity){
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        long[] oldTimes = times;
+        int[] oldSteps = steps;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != 0){
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                put(index,oldValues[i],oldTimes[i],oldSteps[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity){
+        keys = new long[capacity];
+        values = new long[capacity];
+        times = new long[capacity];
+        steps = new int[capacity];
+    }
+
+    private static long hash(String key){
+        long hash = hashFunction.hashString(key,StandardCharsets.UTF_8).asLong();
+        //0 表示空位
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static double unsignedToDouble(long value){
+        return (double) (value >>> 1) * 2 + (value & 1);
+    }
+}
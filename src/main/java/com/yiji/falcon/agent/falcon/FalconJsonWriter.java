@@ -0,0 +1,250 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * push数据的流式JSON序列化
+ * 直接将FalconReportObject的字段以UTF-8编码写入可复用的字节缓冲区,不创建中间的JSON对象和字符串
+ * 输出格式与 {@link RequestJson} 一致
+ *
+ * 非线程安全,每个线程应使用独立的实例
+ */
+public class FalconJsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_ENDPOINT = "\"endpoint\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_METRIC = "\"metric\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_TIMESTAMP = "\"timestamp\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_STEP = "\"step\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_VALUE = "\"value\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_COUNTER_TYPE = "\"counterType\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_TAGS = "\"tags\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int count;
+
+    public FalconJsonWriter() {
+        this(8192);
+    }
+
+    /**
+     * @param initialCapacity
+     * 缓冲区的初始大小
+     */
+    public FalconJsonWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    /**
+     * 清空已写入的数据,缓冲区将被复用
+     * @return
+     */
+    public FalconJsonWriter reset(){
+        count = 0;
+        return this;
+    }
+
+    /**
+     * 写入监控值集合的JSON数组
+     * @param falconReportObjects
+     * @return
+     */
+    public FalconJsonWriter writeArray(Collection<FalconReportObject> falconReportObjects){
+        writeByte('[');
+        boolean first = true;
+        for (FalconReportObject falconReportObject : falconReportObjects) {
+            if(falconReportObject == null){
+                continue;
+            }
+            if(!first){
+                writeByte(',');
+            }
+            write(falconReportObject);
+            first = false;
+        }
+        writeByte(']');
+        return this;
+    }
+
+    /**
+     * 写入一个监控值的JSON对象
+     * null值的字段将不会写入,tags为null时写入空字符串
+     * @param falconReportObject
+     * @return
+     */
+    public FalconJsonWriter write(FalconReportObject falconReportObject){
+        writeByte('{');
+        boolean comma = writeStringField(KEY_ENDPOINT,falconReportObject.getEndpoint(),false);
+        comma = writeStringField(KEY_METRIC,falconReportObject.getMetric(),comma);
+        if(comma){
+            writeByte(',');
+        }
+        writeBytes(KEY_TIMESTAMP);
+        writeLong(falconReportObject.getTimestamp());
+        writeByte(',');
+        writeBytes(KEY_STEP);
+        writeLong(falconReportObject.getStep());
+        writeStringField(KEY_VALUE,falconReportObject.getValue(),true);
+        CounterType counterType = falconReportObject.getCounterType();
+        writeStringField(KEY_COUNTER_TYPE,counterType == null ? null : counterType.name(),true);
+        writeStringField(KEY_TAGS,falconReportObject.getTags() == null ? "" : falconReportObject.getTags(),true);
+        writeByte('}');
+        return this;
+    }
+
+    /**
+     * 已写入的字节数
+     * @return
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * 内部缓冲区,有效数据为 [0,size())
+     * 缓冲区将在下一次写入时被复用,调用方不应持有
+     * @return
+     */
+    public byte[] buffer(){
+        return buf;
+    }
+
+    /**
+     * 已写入数据的副本
+     * @return
+     */
+    public byte[] toByteArray(){
+        return Arrays.copyOf(buf,count);
+    }
+
+    /**
+     * 将已写入的数据写到输出流
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf,0,count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf,0,count,StandardCharsets.UTF_8);
+    }
+
+    private boolean writeStringField(byte[] key,String value,boolean comma){
+        if(value == null){
+            return comma;
+        }
+        if(comma){
+            writeByte(',');
+        }
+        writeBytes(key);
+        writeString(value);
+        return true;
+    }
+
+    /**
+     * 写入JSON字符串(含引号),进行转义及UTF-8编码
+     * @param str
+     */
+    private void writeString(String str){
+        int length = str.length();
+        //UTF-8编码最多为字符数的3倍(代理对为2个字符4字节),转义最多为6倍
+        ensureCapacity(count + length * 6 + 2);
+        byte[] b = buf;
+        int c = count;
+        b[c++] = '"';
+        for (int i = 0; i < length; i++) {
+            char ch = str.charAt(i);
+            if(ch < 0x80){
+                if(ch >= 0x20 && ch != '"' && ch != '\\'){
+                    b[c++] = (byte) ch;
+                    continue;
+                }
+                b[c++] = '\\';
+                switch (ch){
+                    case '"': b[c++] = '"'; break;
+                    case '\\': b[c++] = '\\'; break;
+                    case '\b': b[c++] = 'b'; break;
+                    case '\f': b[c++] = 'f'; break;
+                    case '\n': b[c++] = 'n'; break;
+                    case '\r': b[c++] = 'r'; break;
+                    case '\t': b[c++] = 't'; break;
+                    default:
+                        b[c++] = 'u';
+                        b[c++] = '0';
+                        b[c++] = '0';
+                        b[c++] = HEX[(ch >> 4) & 0xF];
+                        b[c++] = HEX[ch & 0xF];
+                }
+            }else if(ch < 0x800){
+                b[c++] = (byte) (0xC0 | (ch >> 6));
+                b[c++] = (byte) (0x80 | (ch & 0x3F));
+            }else if(Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(ch,str.charAt(++i));
+                b[c++] = (byte) (0xF0 | (codePoint >> 18));
+                b[c++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[c++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[c++] = (byte) (0x80 | (codePoint & 0x3F));
+            }else if(Character.isSurrogate(ch)){
+                //不成对的代理字符,与String.getBytes的处理方式一致
+                b[c++] = '?';
+            }else{
+                b[c++] = (byte) (0xE0 | (ch >> 12));
+                b[c++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                b[c++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+        b[c++] = '"';
+        count = c;
+    }
+
+    private void writeLong(long value){
+        if(value == Long.MIN_VALUE){
+            writeBytes(MIN_LONG);
+            return;
+        }
+        ensureCapacity(count + 20);
+        if(value < 0){
+            buf[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buf[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        //反转数字
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+    }
+
+    private void writeByte(char b){
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes){
+        ensureCapacity(count + bytes.length);
+        System.arraycopy(bytes,0,buf,count,bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureCapacity(int capacity){
+        if(capacity > buf.length){
+            buf = Arrays.copyOf(buf,Math.max(buf.length << 1,capacity));
+        }
+    }
+}
@@ -57,6 +57,12 @@ public class FalconReportObject implements Cloneable{
      */
     private ObjectName objectName;
 
+    /**
+     * 仅供系统使用
+     * 值是否为累计值,为true时上报前将转换为每秒的速率(见 {@link CounterRate})
+     */
+    private boolean rate;
+
     @Override
     public FalconReportObject clone() {
         try {
@@ -77,6 +83,7 @@ public class FalconReportObject implements Cloneable{
                 ", counterType=" + counterType +
                 ", tags='" + tags + '\'' +
                 ", objectName=" + objectName +
+                ", rate=" + rate +
                 '}';
     }
 
@@ -138,6 +145,14 @@ public class FalconReportObject implements Cloneable{
         this.objectName = objectName;
     }
 
+    public boolean isRate() {
+        return rate;
+    }
+
+    public void setRate(boolean rate) {
+        this.rate = rate;
+    }
+
     public String getEndpoint() {
         return endpoint;
     }
@@ -0,0 +1,124 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import com.yiji.falcon.agent.util.HttpUtil;
+import com.yiji.falcon.agent.vo.HttpResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通过falcon-agent的HTTP接口(/v1/push)发送push数据
+ * 可选的gzip/deflate压缩,接收端拒绝压缩数据时自动回退为不压缩
+ */
+public class HttpPushSink implements PushSink {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpPushSink.class);
+
+    /**
+     * 接收端不支持压缩时,停止压缩的时长,之后将重新尝试压缩
+     */
+    private static final long COMPRESS_REPROBE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final AtomicLong compressFallbackCount = new AtomicLong();
+
+    /**
+     * 每个线程复用的压缩器
+     */
+    private static final ThreadLocal<PushCompressor> pushCompressor = ThreadLocal.withInitial(PushCompressor::new);
+
+    private final String url;
+    private final String compress;
+    private final int compressMinBytes;
+    private volatile long compressDisabledUntil = 0;
+
+    /**
+     * @param url
+     * push地址
+     * @param compress
+     * 压缩方式:none、gzip或deflate
+     * @param compressMinBytes
+     * 进行压缩的最小字节数
+     */
+    public HttpPushSink(String url, String compress, int compressMinBytes) {
+        this.url = url;
+        this.compress = compress;
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    @Override
+    public boolean push(byte[] json, int length, int points) throws IOException {
+        HttpResult result;
+        String encoding = getCompressEncoding(length);
+        if(encoding != null){
+            PushCompressor compressor = pushCompressor.get().compress(json,length,encoding);
+            result = HttpUtil.postJSON(url,compressor.buffer(),compressor.size(),encoding,10000,10000);
+            if(isCompressRejected(result.getStatus())){
+                //接收端可能不支持压缩数据,使用未压缩的数据重试
+                result = HttpUtil.postJSON(url,json,length,10000,10000);
+                if(result.getStatus() == 200){
+                    compressDisabledUntil = System.currentTimeMillis() + COMPRESS_REPROBE_INTERVAL;
+                    compressFallbackCount.incrementAndGet();
+                    log.warn("push接收端不支持 {} 压缩的数据,{}分钟内将不进行压缩",encoding,TimeUnit.MILLISECONDS.toMinutes(COMPRESS_REPROBE_INTERVAL));
+                }
+            }
+        }else{
+            result = HttpUtil.postJSON(url,json,length,10000,10000);
+        }
+        if(result.getStatus() != 200){
+            log.error("metrics push失败,检查Falcon组件是否运行正常: {}",result);
+            return false;
+        }
+        log.info("push回执({}个监控值): {}" ,points, result);
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 因接收端不支持压缩而回退为不压缩的次数
+     * @return
+     */
+    public static long getCompressFallbackCount(){
+        return compressFallbackCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+    /**
+     * 获取本次push数据的压缩方式
+     * @param length
+     * 数据字节数
+     * @return
+     * 不进行压缩返回null
+     */
+    private String getCompressEncoding(int length){
+        if("none".equals(compress) || length < compressMinBytes){
+            return null;
+        }
+        if(compressDisabledUntil > System.currentTimeMillis()){
+            return null;
+        }
+        return compress;
+    }
+
+    /**
+     * 接收端是否拒绝了压缩的数据
+     * falcon-agent无法解析压缩数据时返回400,其他HTTP服务可能返回415
+     * @param status
+     * @return
+     */
+    private static boolean isCompressRejected(int status){
+        return status == 400 || status == 415;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 多个push节点的一致性hash分片
+ * 按 endpoint + metric + tags 将监控值分配到固定的节点,每个节点在hash环上有多个虚拟节点
+ * 节点的可用状态由节点的熔断器决定:熔断器进入open的节点暂时移出(仅其负责的部分转移到hash环上的下一个健康节点),
+ * 退避时间结束后重新分配到该节点的批次即为half-open的探测请求,探测成功则恢复,失败则继续移出并加倍退避时间
+ */
+public class PushCluster {
+
+    private static final int VIRTUAL_NODES = 160;
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final List<Node> nodes;
+    private final TreeMap<Long,Node> ring = new TreeMap<>();
+
+    /**
+     * push节点
+     */
+    public static class Node {
+        private final String address;
+        private final PushSink sink;
+        private final CircuitBreaker breaker;
+
+        /**
+         * @param address
+         * 节点地址,作为节点在hash环上的标识
+         * @param sink
+         * 节点的发送端
+         */
+        public Node(String address, PushSink sink) {
+            this(address,sink,new CircuitBreaker(address,3,1000,60000));
+        }
+
+        /**
+         * @param address
+         * 节点地址,作为节点在hash环上的标识
+         * @param sink
+         * 节点的发送端
+         * @param breaker
+         * 节点的熔断器
+         */
+        public Node(String address, PushSink sink, CircuitBreaker breaker) {
+            this.address = address;
+            this.sink = sink;
+            this.breaker = breaker;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public PushSink getSink() {
+            return sink;
+        }
+
+        public CircuitBreaker getBreaker() {
+            return breaker;
+        }
+
+        /**
+         * 节点是否可以接收监控值(熔断器为closed,或open的退避时间已结束)
+         * @return
+         */
+        public boolean isHealthy() {
+            return breaker.isAvailable();
+        }
+
+        @Override
+        public String toString() {
+            return address;
+        }
+    }
+
+    public PushCluster(List<Node> nodes) {
+        if(nodes == null || nodes.isEmpty()){
+            throw new IllegalArgumentException("push节点不能为空");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        for (Node node : this.nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(node.address + "#" + i),node);
+            }
+        }
+    }
+
+    /**
+     * 节点个数
+     * @return
+     */
+    public int size(){
+        return nodes.size();
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 健康的节点个数
+     * @return
+     */
+    public int getHealthyCount(){
+        int count = 0;
+        for (Node node : nodes) {
+            if(node.isHealthy()){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 熔断器未处于closed状态的节点个数
+     * @return
+     */
+    public int getBrokenCount(){
+        int count = 0;
+        for (Node node : nodes) {
+            if(node.breaker.getState() != CircuitBreaker.State.CLOSED){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 获取监控值所在的节点
+     * @param endpoint
+     * @param metric
+     * @param tags
+     * @return
+     */
+    public Node getNode(String endpoint,String metric,String tags){
+        if(nodes.size() == 1){
+            return nodes.get(0);
+        }
+        long hash = hash(endpoint + "/" + metric + "/" + tags);
+        Node primary = null;
+        Map.Entry<Long,Node> entry = ring.ceilingEntry(hash);
+        //顺时针查找第一个健康的节点
+        for (int i = 0; i < ring.size(); i++) {
+            if(entry == null){
+                entry = ring.firstEntry();
+            }
+            Node node = entry.getValue();
+            if(primary == null){
+                primary = node;
+            }
+            if(node.isHealthy()){
+                return node;
+            }
+            entry = ring.higherEntry(entry.getKey());
+        }
+        //所有节点均不可用
+        return primary;
+    }
+
+    /**
+     * 按节点对监控值进行分片
+     * @param falconReportObjects
+     * @return
+     */
+    public Map<Node,List<FalconReportObject>> shard(Collection<FalconReportObject> falconReportObjects){
+        Map<Node,List<FalconReportObject>> result = new LinkedHashMap<>();
+        for (FalconReportObject falconReportObject : falconReportObjects) {
+            Node node = getNode(falconReportObject.getEndpoint(),falconReportObject.getMetric(),falconReportObject.getTags());
+            result.computeIfAbsent(node,k -> new ArrayList<>()).add(falconReportObject);
+        }
+        return result;
+    }
+
+    /**
+     * 关闭所有节点的发送端
+     */
+    public void close(){
+        for (Node node : nodes) {
+            node.sink.close();
+        }
+    }
+
+    private static long hash(String key){
+        return hashFunction.hashString(key,StandardCharsets.UTF_8).asLong();
+    }
+}
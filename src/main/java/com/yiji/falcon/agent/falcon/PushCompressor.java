@@ -0,0 +1,201 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * push数据的压缩
+ * 复用Deflater及输出缓冲区,支持gzip和deflate(zlib格式)两种Content-Encoding
+ *
+ * 非线程安全,每个线程应使用独立的实例
+ */
+public class PushCompressor {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private static final AtomicLong batchCount = new AtomicLong();
+    private static final AtomicLong rawBytes = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+    private static final AtomicLong cpuTimeNanos = new AtomicLong();
+
+    private final int level;
+    private Deflater gzipDeflater;
+    private Deflater zlibDeflater;
+    private final CRC32 crc = new CRC32();
+    private byte[] buf = new byte[8192];
+    private int count;
+
+    public PushCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level
+     * 压缩级别
+     */
+    public PushCompressor(int level) {
+        this.level = level;
+    }
+
+    /**
+     * 压缩数据,结果保存在内部缓冲区中
+     * @param data
+     * @param length
+     * 有效数据的字节数
+     * @param encoding
+     * gzip 或 deflate
+     * @return
+     */
+    public PushCompressor compress(byte[] data,int length,String encoding){
+        long start = cpuTime();
+        count = 0;
+        if(GZIP.equals(encoding)){
+            write(GZIP_HEADER,GZIP_HEADER.length);
+            deflate(gzipDeflater(),data,length);
+            crc.reset();
+            crc.update(data,0,length);
+            writeIntLE((int) crc.getValue());
+            writeIntLE(length);
+        }else if(DEFLATE.equals(encoding)){
+            deflate(zlibDeflater(),data,length);
+        }else{
+            throw new IllegalArgumentException("不支持的压缩方式:" + encoding);
+        }
+        cpuTimeNanos.addAndGet(cpuTime() - start);
+        batchCount.incrementAndGet();
+        rawBytes.addAndGet(length);
+        compressedBytes.addAndGet(count);
+        return this;
+    }
+
+    /**
+     * 压缩后的字节数
+     * @return
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * 内部缓冲区,有效数据为 [0,size())
+     * @return
+     */
+    public byte[] buffer(){
+        return buf;
+    }
+
+    /**
+     * 释放Deflater占用的本地内存
+     */
+    public void end(){
+        if(gzipDeflater != null){
+            gzipDeflater.end();
+        }
+        if(zlibDeflater != null){
+            zlibDeflater.end();
+        }
+    }
+
+    /**
+     * 累计压缩的批次数
+     * @return
+     */
+    public static long getBatchCount(){
+        return batchCount.get();
+    }
+
+    /**
+     * 累计的压缩率(压缩后字节数/原始字节数)
+     * @return
+     */
+    public static double getCompressRatio(){
+        long raw = rawBytes.get();
+        return raw == 0 ? 0 : (double) compressedBytes.get() / raw;
+    }
+
+    /**
+     * 累计压缩前的字节数
+     * @return
+     */
+    public static long getRawBytes(){
+        return rawBytes.get();
+    }
+
+    /**
+     * 累计压缩后的字节数
+     * @return
+     */
+    public static long getCompressedBytes(){
+        return compressedBytes.get();
+    }
+
+    /**
+     * 累计压缩消耗的CPU时间(微秒)
+     * @return
+     */
+    public static long getCpuTimeMicros(){
+        return cpuTimeNanos.get() / 1000;
+    }
+
+    private Deflater gzipDeflater(){
+        if(gzipDeflater == null){
+            gzipDeflater = new Deflater(level,true);
+        }
+        return gzipDeflater;
+    }
+
+    private Deflater zlibDeflater(){
+        if(zlibDeflater == null){
+            zlibDeflater = new Deflater(level,false);
+        }
+        return zlibDeflater;
+    }
+
+    private void deflate(Deflater deflater,byte[] data,int length){
+        deflater.reset();
+        deflater.setInput(data,0,length);
+        deflater.finish();
+        while (!deflater.finished()){
+            if(count == buf.length){
+                buf = Arrays.copyOf(buf,buf.length << 1);
+            }
+            count += deflater.deflate(buf,count,buf.length - count);
+        }
+    }
+
+    private void write(byte[] bytes,int length){
+        ensureCapacity(count + length);
+        System.arraycopy(bytes,0,buf,count,length);
+        count += length;
+    }
+
+    private void writeIntLE(int value){
+        ensureCapacity(count + 4);
+        buf[count++] = (byte) value;
+        buf[count++] = (byte) (value >> 8);
+        buf[count++] = (byte) (value >> 16);
+        buf[count++] = (byte) (value >> 24);
+    }
+
+    private void ensureCapacity(int capacity){
+        if(capacity > buf.length){
+            buf = Arrays.copyOf(buf,Math.max(buf.length << 1,capacity));
+        }
+    }
+
+    private static long cpuTime(){
+        return threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled() ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
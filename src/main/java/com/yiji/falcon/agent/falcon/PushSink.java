@@ -0,0 +1,33 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import java.io.IOException;
+
+/**
+ * push数据的发送端
+ */
+public interface PushSink {
+
+    /**
+     * 发送一个批次的数据
+     * @param json
+     * UTF-8编码的JSON数组数据所在的缓冲区
+     * @param length
+     * 有效数据的字节数
+     * @param points
+     * 数据中的监控值个数
+     * @return
+     * 接收端是否接收成功
+     * @throws IOException
+     * 连接或通讯异常
+     */
+    boolean push(byte[] json,int length,int points) throws IOException;
+
+    /**
+     * 关闭发送端,释放连接
+     */
+    void close();
+}
@@ -4,16 +4,17 @@
  */
 package com.yiji.falcon.agent.falcon;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.yiji.falcon.agent.config.AgentConfiguration;
-import com.yiji.falcon.agent.util.HttpUtil;
 import com.yiji.falcon.agent.util.StringUtils;
-import com.yiji.falcon.agent.vo.HttpResult;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * 修订记录:
@@ -27,37 +28,65 @@ public class ReportMetrics {
 
     private static final Logger log = LoggerFactory.getLogger(ReportMetrics.class);
 
+    /**
+     * 最近一次push是否成功
+     */
+    private static volatile boolean pushAvailable = true;
+
+    /**
+     * 因队列已满且无法写入磁盘缓冲而被丢弃的监控值数量
+     */
+    private static final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * 每个线程复用的JSON序列化缓冲区
+     */
+    private static final ThreadLocal<FalconJsonWriter> jsonWriter = ThreadLocal.withInitial(FalconJsonWriter::new);
+
+    private static volatile PushCluster cluster;
+
+    /**
+     * 累计值的速率计算,未开启时为null
+     */
+    private static final CounterRate counterRate = AgentConfiguration.INSTANCE.isPushRateEnable() ?
+            new CounterRate(AgentConfiguration.INSTANCE.getPushRateEvictSteps()) : null;
+
+    /**
+     * 未变化的GAUGE监控值的抑制,未开启时为null
+     */
+    private static final ChangeSuppressor suppressor = AgentConfiguration.INSTANCE.isPushSuppressEnable() ?
+            new ChangeSuppressor(AgentConfiguration.INSTANCE.getPushSuppressHeartbeatSteps()) : null;
+
     /**
      * 推送数据到falcon
+     * 监控值只进行入队,由push队列的flush线程进行批量推送
+     * 队列已满或已关闭时,积压的监控值将写入磁盘缓冲
      * @param falconReportObjectList
      */
     public static void push(Collection<FalconReportObject> falconReportObjectList){
         if(falconReportObjectList != null){
-            JSONArray jsonArray = new JSONArray();
+            List<FalconReportObject> backlog = null;
             for (FalconReportObject falconReportObject : falconReportObjectList) {
                 if(!isValidTag(falconReportObject)){
-                    log.error("报告对象的tag为空,此metrics将不允上报:{}",falconReportObject.toString());
+                    log.error("报告对象的tag为空,此metrics将不允上报:{}",falconReportObject);
+                    continue;
+                }
+                if(falconReportObject.isRate() && counterRate != null && !counterRate.rate(falconReportObject)){
+                    continue;
+                }
+                if(suppressor != null && suppressor.suppress(falconReportObject)){
                     continue;
                 }
-                JSONObject jsonObject = new JSONObject();
-                jsonObject.put("endpoint",falconReportObject.getEndpoint());
-                jsonObject.put("metric",falconReportObject.getMetric());
-                jsonObject.put("timestamp",falconReportObject.getTimestamp());
-                jsonObject.put("step",falconReportObject.getStep());
-                jsonObject.put("value",falconReportObject.getValue());
-                jsonObject.put("counterType",falconReportObject.getCounterType());
-                jsonObject.put("tags",falconReportObject.getTags() == null ? "" : falconReportObject.getTags());
-                jsonArray.put(jsonObject);
+                if(!ReportPushQueue.offer(falconReportObject)){
+                    if(backlog == null){
+                        backlog = new ArrayList<>();
+                    }
+                    backlog.add(falconReportObject);
+                }
             }
-            log.debug("报告Falcon : [{}]",jsonArray.toString());
-            HttpResult result;
-            try {
-                result = HttpUtil.postJSON(AgentConfiguration.INSTANCE.getAgentPushUrl(),jsonArray.toString());
-            } catch (Exception e) {
-                log.error("metrics push异常,检查Falcon组件是否运行正常",e);
-                return;
+            if(backlog != null){
+                backlog(backlog,"push队列已满或已关闭");
             }
-            log.info("push回执: {}" , result);
         }else {
             log.info("push对象为null");
         }
@@ -65,33 +94,240 @@ public class ReportMetrics {
 
     /**
      * 推送数据到falcon
+     * 监控值只进行入队,由push队列的flush线程进行批量推送
      * @param falconReportObject
      */
     public static void push(FalconReportObject falconReportObject){
-        if(!isValidTag(falconReportObject)){
-            log.error("报告对象的tag为空,此metrics将不允上报:{}",falconReportObject.toString());
+        push(Collections.singletonList(falconReportObject));
+    }
+
+    /**
+     * 同步推送一个批次的数据到falcon,推送失败的批次将写入磁盘缓冲
+     * 配置了多个push节点时,按一致性hash分片后分别推送到对应的节点
+     * @param falconReportObjectList
+     */
+    static void send(Collection<FalconReportObject> falconReportObjectList){
+        if(falconReportObjectList == null || falconReportObjectList.isEmpty()){
             return;
         }
+        PushCluster cluster = getCluster();
+        FalconJsonWriter writer = jsonWriter.get();
+        if(cluster.size() == 1){
+            writer.reset().writeArray(falconReportObjectList);
+            if(!transfer(cluster.getNodes().get(0),writer.buffer(),writer.size(),falconReportObjectList.size())){
+                spool(writer,falconReportObjectList.size(),"push失败");
+            }
+            return;
+        }
+        for (Map.Entry<PushCluster.Node, List<FalconReportObject>> entry : cluster.shard(falconReportObjectList).entrySet()) {
+            List<FalconReportObject> shard = entry.getValue();
+            writer.reset().writeArray(shard);
+            if(!transfer(entry.getKey(),writer.buffer(),writer.size(),shard.size())){
+                spool(writer,shard.size(),"push失败");
+            }
+        }
+    }
 
-        JSONArray jsonArray = new JSONArray();
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("endpoint",falconReportObject.getEndpoint());
-        jsonObject.put("metric",falconReportObject.getMetric());
-        jsonObject.put("timestamp",falconReportObject.getTimestamp());
-        jsonObject.put("step",falconReportObject.getStep());
-        jsonObject.put("value",falconReportObject.getValue());
-        jsonObject.put("counterType",falconReportObject.getCounterType());
-        jsonObject.put("tags",falconReportObject.getTags() == null ? "" : falconReportObject.getTags());
-        jsonArray.put(jsonObject);
-        log.debug("报告Falcon : [{}]",jsonArray.toString());
-        HttpResult result;
+    /**
+     * 推送JSON数据到falcon(磁盘缓冲的重放)
+     * 配置了多个push节点时,数据将被解析并按一致性hash重新分片,
+     * 部分分片推送失败时,只将失败的分片重新写入磁盘缓冲,已成功的分片不再重复推送
+     * @param json
+     * UTF-8编码的JSON数据所在的缓冲区
+     * @param length
+     * 有效数据的字节数
+     * @param points
+     * 数据中的监控值个数
+     * @return
+     * 数据是否已处理(全部推送成功,或失败的分片已重新写入磁盘缓冲),所有分片均推送失败时返回false
+     */
+    static boolean transfer(byte[] json,int length,int points){
+        PushCluster cluster = getCluster();
+        if(cluster.size() == 1){
+            return transfer(cluster.getNodes().get(0),json,length,points);
+        }
+        Map<PushCluster.Node,JSONArray> shards = new LinkedHashMap<>();
+        for (Object o : JSON.parseArray(new String(json,0,length,StandardCharsets.UTF_8))) {
+            JSONObject jsonObject = (JSONObject) o;
+            PushCluster.Node node = cluster.getNode(jsonObject.getString("endpoint"),jsonObject.getString("metric"),jsonObject.getString("tags"));
+            shards.computeIfAbsent(node,k -> new JSONArray()).add(jsonObject);
+        }
+        List<JSONArray> failed = new ArrayList<>();
+        for (Map.Entry<PushCluster.Node, JSONArray> entry : shards.entrySet()) {
+            byte[] shard = JSON.toJSONBytes(entry.getValue());
+            if(!transfer(entry.getKey(),shard,shard.length,entry.getValue().size())){
+                failed.add(entry.getValue());
+            }
+        }
+        if(failed.size() == shards.size()){
+            return false;
+        }
+        for (JSONArray shard : failed) {
+            byte[] data = JSON.toJSONBytes(shard);
+            if(ReportSpoolReplayer.spool(data,0,data.length,shard.size())){
+                log.warn("重放时push失败,{}个监控值已重新写入磁盘缓冲",shard.size());
+            }else{
+                long dropped = droppedCount.addAndGet(shard.size());
+                log.error("重放时push失败,丢弃{}个监控值,已累计丢弃{}个",shard.size(),dropped);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 推送JSON数据到指定的节点
+     * @param node
+     * @param json
+     * @param length
+     * @param points
+     * @return
+     */
+    private static boolean transfer(PushCluster.Node node,byte[] json,int length,int points){
+        if(log.isDebugEnabled()){
+            log.debug("报告Falcon({}) : [{}]",node,new String(json,0,length,StandardCharsets.UTF_8));
+        }
+        CircuitBreaker breaker = node.getBreaker();
+        if(!breaker.allowRequest()){
+            //熔断期间不进行发送,批次由调用方写入磁盘缓冲
+            log.debug("push节点 {} 熔断中,跳过发送",node);
+            pushAvailable = false;
+            return false;
+        }
+        boolean success;
         try {
-            result = HttpUtil.postJSON(AgentConfiguration.INSTANCE.getAgentPushUrl(),jsonArray.toString());
+            success = node.getSink().push(json,length,points);
         } catch (Exception e) {
-            log.error("metrics push异常,检查Falcon组件是否运行正常",e);
-            return;
+            log.error("metrics push异常,检查Falcon组件({})是否运行正常",node,e);
+            success = false;
+        }
+        if(success){
+            breaker.onSuccess();
+        }else{
+            //多个节点时,熔断器进入open即移出该节点,half-open探测成功后恢复
+            breaker.onFailure();
+        }
+        pushAvailable = success;
+        return success;
+    }
+
+    /**
+     * 获取配置的push节点
+     * agent.falcon.push.url 或 agent.falcon.transfer.addr 可配置多个地址,以逗号分隔
+     * @return
+     */
+    private static PushCluster getCluster(){
+        if(cluster == null){
+            synchronized (ReportMetrics.class){
+                if(cluster == null){
+                    List<PushCluster.Node> nodes = new ArrayList<>();
+                    if("transfer".equals(AgentConfiguration.INSTANCE.getPushSink())){
+                        for (String address : AgentConfiguration.INSTANCE.getTransferAddr().split(",")) {
+                            address = address.trim();
+                            if(!address.isEmpty()){
+                                nodes.add(new PushCluster.Node(address,
+                                        new TransferRpcSink(address,10000,10000),newBreaker(address)));
+                            }
+                        }
+                    }else{
+                        for (String url : AgentConfiguration.INSTANCE.getAgentPushUrl().split(",")) {
+                            url = url.trim();
+                            if(!url.isEmpty()){
+                                nodes.add(new PushCluster.Node(url,
+                                        new HttpPushSink(url,
+                                                AgentConfiguration.INSTANCE.getPushCompress(),
+                                                AgentConfiguration.INSTANCE.getPushCompressMinBytes()),newBreaker(url)));
+                            }
+                        }
+                    }
+                    PushCluster pushCluster = new PushCluster(nodes);
+                    log.info("push节点: {}",nodes);
+                    cluster = pushCluster;
+                }
+            }
+        }
+        return cluster;
+    }
+
+    private static CircuitBreaker newBreaker(String address){
+        return new CircuitBreaker(address,
+                AgentConfiguration.INSTANCE.getPushBreakerFailureThreshold(),
+                AgentConfiguration.INSTANCE.getPushBreakerBackoffMinMs(),
+                AgentConfiguration.INSTANCE.getPushBreakerBackoffMaxMs());
+    }
+
+    /**
+     * 关闭push节点的发送端
+     */
+    static synchronized void closeSink(){
+        if(cluster != null){
+            cluster.close();
+            cluster = null;
+        }
+    }
+
+    /**
+     * 健康的push节点个数
+     * @return
+     */
+    public static int getHealthyNodeCount(){
+        return getCluster().getHealthyCount();
+    }
+
+    /**
+     * 速率计算中记录的监控序列个数
+     * @return
+     */
+    public static int getRateSeriesCount(){
+        return counterRate == null ? 0 : counterRate.size();
+    }
+
+    /**
+     * 熔断中(open或half-open)的push节点个数
+     * @return
+     */
+    public static int getBrokenNodeCount(){
+        return getCluster().getBrokenCount();
+    }
+
+    /**
+     * 最近一次push是否成功
+     * @return
+     */
+    static boolean isPushAvailable(){
+        return pushAvailable;
+    }
+
+    /**
+     * 被丢弃的监控值数量
+     * @return
+     */
+    public static long getDroppedCount(){
+        return droppedCount.get();
+    }
+
+    /**
+     * 积压的监控值写入磁盘缓冲,缓冲不可用时丢弃
+     * @param falconReportObjectList
+     * @param reason
+     */
+    static void backlog(Collection<FalconReportObject> falconReportObjectList,String reason){
+        spool(jsonWriter.get().reset().writeArray(falconReportObjectList),falconReportObjectList.size(),reason);
+    }
+
+    /**
+     * 写入磁盘缓冲,缓冲不可用时丢弃
+     * @param writer
+     * 已写入JSON数据的writer
+     * @param points
+     * @param reason
+     */
+    private static void spool(FalconJsonWriter writer,int points,String reason){
+        if(ReportSpoolReplayer.spool(writer.buffer(),0,writer.size(),points)){
+            log.warn("{},{}个监控值已写入磁盘缓冲",reason,points);
+        }else{
+            long dropped = droppedCount.addAndGet(points);
+            log.error("{},丢弃{}个监控值,已累计丢弃{}个",reason,points,dropped);
         }
-        log.info("push回执: {}" , result);
     }
 
     /**
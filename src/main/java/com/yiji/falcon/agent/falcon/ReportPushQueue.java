@@ -0,0 +1,191 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监控值的异步push队列
+ * 采集线程只进行入队操作,由flush线程将所有插件的监控值合并为批次(按个数、字节数和等待时间限制)后进行push
+ * push失败的批次将写入磁盘缓冲 {@link ReportSpool}
+ */
+public class ReportPushQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportPushQueue.class);
+
+    private static final BlockingQueue<FalconReportObject> queue = new LinkedBlockingQueue<>(AgentConfiguration.INSTANCE.getPushQueueCapacity());
+    private static final List<Flusher> flushers = new ArrayList<>();
+    private static volatile boolean running = false;
+    /**
+     * 是否已关闭,关闭后不再启动
+     */
+    private static volatile boolean closed = false;
+
+    /**
+     * 启动flush线程,由Agent启动时调用一次
+     */
+    public synchronized static void start(){
+        if(running || closed){
+            return;
+        }
+        running = true;
+        ReportSpoolReplayer.open();
+        int threads = AgentConfiguration.INSTANCE.getPushFlusherThreads();
+        for (int i = 0; i < threads; i++) {
+            Flusher flusher = new Flusher();
+            flusher.setName("reportPushFlusher-" + i);
+            flusher.setDaemon(true);
+            flusher.start();
+            flushers.add(flusher);
+        }
+        log.info("push队列已启动,flush线程数:{},批次最大监控值数:{},批次最大字节数:{},批次最大等待时间:{}ms",
+                threads,
+                AgentConfiguration.INSTANCE.getPushBatchMaxPoints(),
+                AgentConfiguration.INSTANCE.getPushBatchMaxBytes(),
+                AgentConfiguration.INSTANCE.getPushBatchLingerMs());
+    }
+
+    /**
+     * 关闭push队列,队列中剩余的监控值将会在flush线程退出前push完成
+     * 关闭后入队的监控值直接写入磁盘缓冲(缓冲已关闭时丢弃),不再重新启动flush线程
+     */
+    public synchronized static void shutdown(){
+        closed = true;
+        if(!running){
+            return;
+        }
+        running = false;
+        for (Flusher flusher : flushers) {
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        flushers.clear();
+        if(!queue.isEmpty()){
+            List<FalconReportObject> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            ReportMetrics.backlog(rest,"push队列关闭时仍有未push的监控值");
+        }
+        ReportSpoolReplayer.shutdown();
+        ReportMetrics.closeSink();
+    }
+
+    /**
+     * 监控值入队,不会阻塞调用线程
+     * @param falconReportObject
+     * @return
+     * 是否入队成功,队列未启动、已关闭或已满时返回false
+     */
+    static boolean offer(FalconReportObject falconReportObject){
+        return running && queue.offer(falconReportObject);
+    }
+
+    /**
+     * 当前队列中等待push的监控值数量
+     * @return
+     */
+    public static int size(){
+        return queue.size();
+    }
+
+    /**
+     * 估算监控值序列化为JSON后的字节数
+     * @param falconReportObject
+     * @return
+     */
+    static int estimateSize(FalconReportObject falconReportObject){
+        //JSON的key及分隔符等固定部分约为90字节
+        int size = 90;
+        size += length(falconReportObject.getEndpoint());
+        size += length(falconReportObject.getMetric());
+        size += length(falconReportObject.getValue());
+        size += length(falconReportObject.getTags());
+        //timestamp + step
+        size += 20;
+        return size;
+    }
+
+    private static int length(String str){
+        return str == null ? 0 : str.length();
+    }
+
+    /**
+     * 批次的flush线程
+     */
+    private static class Flusher extends Thread {
+
+        private final int maxPoints = AgentConfiguration.INSTANCE.getPushBatchMaxPoints();
+        private final int maxBytes = AgentConfiguration.INSTANCE.getPushBatchMaxBytes();
+        private final long lingerNanos = TimeUnit.MILLISECONDS.toNanos(AgentConfiguration.INSTANCE.getPushBatchLingerMs());
+
+        /**
+         * 超出上一批次字节数限制,需放入下一批次的监控值
+         */
+        private FalconReportObject carry;
+
+        @Override
+        public void run() {
+            List<FalconReportObject> batch = new ArrayList<>();
+            while (running || carry != null || !queue.isEmpty()){
+                try {
+                    FalconReportObject first = carry != null ? carry : queue.poll(500,TimeUnit.MILLISECONDS);
+                    carry = null;
+                    if(first == null){
+                        continue;
+                    }
+                    batch.add(first);
+                    long bytes = estimateSize(first);
+                    long deadline = System.nanoTime() + lingerNanos;
+                    while (batch.size() < maxPoints){
+                        FalconReportObject next = queue.poll();
+                        if(next == null){
+                            long remain = deadline - System.nanoTime();
+                            if(remain <= 0 || !running){
+                                break;
+                            }
+                            next = queue.poll(remain,TimeUnit.NANOSECONDS);
+                            if(next == null){
+                                break;
+                            }
+                        }
+                        int size = estimateSize(next);
+                        if(bytes + size > maxBytes){
+                            carry = next;
+                            break;
+                        }
+                        batch.add(next);
+                        bytes += size;
+                    }
+                    ReportMetrics.send(batch);
+                } catch (InterruptedException e) {
+                    log.warn("push flush线程被中断");
+                    if(carry != null){
+                        batch.add(carry);
+                        carry = null;
+                    }
+                    if(!batch.isEmpty()){
+                        ReportMetrics.send(batch);
+                    }
+                    break;
+                } catch (Throwable t) {
+                    log.error("push flush线程异常",t);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * push失败或积压的监控数据的磁盘缓冲(write-ahead spool)
+ * 数据以批次为单位,顺序追加写入分段的内存映射文件中,重放时按最旧优先的顺序读取
+ *
+ * 分段文件格式:
+ * 文件头(16字节): magic(int) + version(int) + 已重放的读偏移(int) + 保留(int)
+ * 记录: 批次字节数(int) + 批次监控值个数(int) + 批次数据,批次字节数为0代表写入结束
+ */
+public class ReportSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportSpool.class);
+
+    private static final int MAGIC = 0x46535031;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int READ_OFFSET_POSITION = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File dir;
+    private final int segmentBytes;
+    private final long maxBytes;
+
+    /**
+     * 分段文件,按序号从旧到新排列
+     */
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private long nextSequence = 0;
+    private long evictedPoints = 0;
+
+    /**
+     * 一个批次的缓冲数据
+     */
+    public static class Record {
+        private final byte[] data;
+        private final int points;
+
+        Record(byte[] data, int points) {
+            this.data = data;
+            this.points = points;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getPoints() {
+            return points;
+        }
+    }
+
+    /**
+     * 打开(或创建)指定目录的缓冲,已存在的分段文件将会被恢复
+     * @param dir
+     * 缓冲目录
+     * @param segmentBytes
+     * 每个分段文件的大小
+     * @param maxBytes
+     * 缓冲占用磁盘的最大字节数,超出后将淘汰最旧的分段
+     * @throws IOException
+     */
+    public ReportSpool(File dir, int segmentBytes, long maxBytes) throws IOException {
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("缓冲目录创建失败:" + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        recover();
+    }
+
+    /**
+     * 追加一个批次到缓冲
+     * @param data
+     * 批次数据
+     * @param points
+     * 批次中的监控值个数
+     * @return
+     * 是否写入成功
+     */
+    public boolean append(byte[] data, int points){
+        return data != null && append(data, 0, data.length, points);
+    }
+
+    /**
+     * 追加一个批次到缓冲
+     * @param data
+     * 批次数据所在的缓冲区
+     * @param offset
+     * 批次数据的起始位置
+     * @param length
+     * 批次数据的字节数
+     * @param points
+     * 批次中的监控值个数
+     * @return
+     * 是否写入成功
+     */
+    public synchronized boolean append(byte[] data, int offset, int length, int points){
+        if(data == null || length <= 0){
+            return false;
+        }
+        try {
+            int recordSize = RECORD_HEADER_SIZE + length;
+            Segment tail = segments.peekLast();
+            if(tail == null || tail.writePosition + recordSize + 4 > tail.capacity){
+                tail = createSegment(Math.max(segmentBytes, HEADER_SIZE + recordSize + 4));
+            }
+            MappedByteBuffer buffer = tail.buffer;
+            buffer.putInt(tail.writePosition + 4, points);
+            buffer.position(tail.writePosition + RECORD_HEADER_SIZE);
+            buffer.put(data, offset, length);
+            //最后写入记录长度,保证记录完整后才对读取可见
+            buffer.putInt(tail.writePosition, length);
+            tail.writePosition += recordSize;
+            tail.pendingPoints += points;
+            buffer.force();
+            evict();
+            return true;
+        } catch (IOException e) {
+            log.error("监控数据写入缓冲失败",e);
+            return false;
+        }
+    }
+
+    /**
+     * 获取最旧的一个未重放的批次,不会移动读偏移
+     * @return
+     * 无数据返回null
+     */
+    public synchronized Record peek(){
+        while (!segments.isEmpty()){
+            Segment head = segments.peekFirst();
+            if(head.readPosition < head.writePosition){
+                MappedByteBuffer buffer = head.buffer;
+                int length = buffer.getInt(head.readPosition);
+                int points = buffer.getInt(head.readPosition + 4);
+                byte[] data = new byte[length];
+                buffer.position(head.readPosition + RECORD_HEADER_SIZE);
+                buffer.get(data);
+                return new Record(data, points);
+            }
+            if(head == segments.peekLast()){
+                return null;
+            }
+            //已重放完毕的旧分段
+            removeHead();
+        }
+        return null;
+    }
+
+    /**
+     * 确认最旧的批次已重放成功,移动读偏移
+     */
+    public synchronized void commit(){
+        Segment head = segments.peekFirst();
+        if(head == null || head.readPosition >= head.writePosition){
+            return;
+        }
+        MappedByteBuffer buffer = head.buffer;
+        int length = buffer.getInt(head.readPosition);
+        head.pendingPoints -= buffer.getInt(head.readPosition + 4);
+        head.readPosition += RECORD_HEADER_SIZE + length;
+        buffer.putInt(READ_OFFSET_POSITION, head.readPosition);
+        buffer.force();
+        if(head.readPosition >= head.writePosition && head != segments.peekLast()){
+            removeHead();
+        }
+    }
+
+    /**
+     * 缓冲是否为空
+     * @return
+     */
+    public synchronized boolean isEmpty(){
+        for (Segment segment : segments) {
+            if(segment.readPosition < segment.writePosition){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 缓冲中等待重放的监控值个数
+     * @return
+     */
+    public synchronized long pendingPoints(){
+        long points = 0;
+        for (Segment segment : segments) {
+            points += segment.pendingPoints;
+        }
+        return points;
+    }
+
+    /**
+     * 缓冲当前占用的磁盘字节数
+     * @return
+     */
+    public synchronized long diskBytes(){
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.capacity;
+        }
+        return bytes;
+    }
+
+    /**
+     * 因超出磁盘限制被淘汰的监控值个数
+     * @return
+     */
+    public synchronized long getEvictedPoints(){
+        return evictedPoints;
+    }
+
+    /**
+     * 关闭缓冲
+     */
+    public synchronized void close(){
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * 超出磁盘限制时,淘汰最旧的分段(当前写入的分段不会被淘汰)
+     */
+    private void evict(){
+        while (segments.size() > 1 && diskBytes() > maxBytes){
+            Segment head = segments.peekFirst();
+            evictedPoints += head.pendingPoints;
+            log.warn("监控数据缓冲超出磁盘限制 {} 字节,淘汰最旧的分段 {} ,丢弃 {} 个监控值",maxBytes,head.file.getName(),head.pendingPoints);
+            removeHead();
+        }
+    }
+
+    private void removeHead(){
+        Segment head = segments.pollFirst();
+        if(head != null){
+            head.close();
+            if(!head.file.delete()){
+                log.warn("缓冲分段文件 {} 删除失败",head.file.getAbsolutePath());
+            }
+        }
+    }
+
+    private Segment createSegment(int capacity) throws IOException {
+        File file = new File(dir, String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, capacity);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putInt(READ_OFFSET_POSITION, HEADER_SIZE);
+        segment.buffer.putInt(HEADER_SIZE, 0);
+        segment.readPosition = HEADER_SIZE;
+        segment.writePosition = HEADER_SIZE;
+        segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * 恢复目录中已存在的分段文件
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if(files == null){
+            return;
+        }
+        Arrays.sort(files);
+        List<Segment> recovered = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            } catch (NumberFormatException e) {
+                log.warn("忽略无效的缓冲分段文件:{}",file.getAbsolutePath());
+                continue;
+            }
+            if(file.length() < HEADER_SIZE + 4 || file.length() > Integer.MAX_VALUE){
+                log.warn("删除无效的缓冲分段文件:{}",file.getAbsolutePath());
+                file.delete();
+                continue;
+            }
+            Segment segment = new Segment(file, (int) file.length());
+            MappedByteBuffer buffer = segment.buffer;
+            if(buffer.getInt(0) != MAGIC){
+                log.warn("删除无效的缓冲分段文件:{}",file.getAbsolutePath());
+                segment.close();
+                file.delete();
+                continue;
+            }
+            //扫描已写入的完整记录
+            int position = HEADER_SIZE;
+            int readPosition = buffer.getInt(READ_OFFSET_POSITION);
+            long pendingPoints = 0;
+            while (position + RECORD_HEADER_SIZE <= segment.capacity){
+                int length = buffer.getInt(position);
+                if(length <= 0 || position + RECORD_HEADER_SIZE + length > segment.capacity){
+                    break;
+                }
+                if(position >= readPosition){
+                    pendingPoints += buffer.getInt(position + 4);
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+            segment.writePosition = position;
+            segment.readPosition = Math.max(HEADER_SIZE, Math.min(readPosition, position));
+            segment.pendingPoints = pendingPoints;
+            recovered.add(segment);
+        }
+        segments.addAll(recovered);
+        if(!recovered.isEmpty()){
+            log.info("已恢复监控数据缓冲,分段数:{},待重放监控值:{}",recovered.size(),pendingPoints());
+        }
+    }
+
+    /**
+     * 缓冲分段
+     */
+    private static class Segment {
+        final File file;
+        final int capacity;
+        final RandomAccessFile randomAccessFile;
+        final MappedByteBuffer buffer;
+        int readPosition;
+        int writePosition;
+        long pendingPoints;
+
+        Segment(File file, int capacity) throws IOException {
+            this.file = file;
+            this.capacity = capacity;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        void close(){
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                log.warn("缓冲分段文件关闭失败",e);
+            }
+        }
+    }
+}
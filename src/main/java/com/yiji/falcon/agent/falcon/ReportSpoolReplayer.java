@@ -0,0 +1,135 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监控数据磁盘缓冲的管理及重放线程
+ * 在Falcon恢复可用后,按最旧优先的顺序进行限速重放
+ */
+public class ReportSpoolReplayer extends Thread {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportSpoolReplayer.class);
+
+    private static ReportSpool spool;
+    private static ReportSpoolReplayer replayer;
+    private static volatile boolean running = false;
+
+    private final int pointsPerSecond;
+
+    private ReportSpoolReplayer(int pointsPerSecond) {
+        this.pointsPerSecond = pointsPerSecond;
+    }
+
+    /**
+     * 打开磁盘缓冲,并启动重放线程
+     */
+    public synchronized static void open(){
+        if(running || !AgentConfiguration.INSTANCE.isPushSpoolEnable()){
+            return;
+        }
+        File dir = new File(AgentConfiguration.INSTANCE.getFalconDir() + File.separator + "spool");
+        try {
+            spool = new ReportSpool(dir,
+                    AgentConfiguration.INSTANCE.getPushSpoolSegmentBytes(),
+                    AgentConfiguration.INSTANCE.getPushSpoolMaxBytes());
+        } catch (IOException e) {
+            log.error("监控数据磁盘缓冲打开失败,push失败的数据将被丢弃",e);
+            return;
+        }
+        running = true;
+        replayer = new ReportSpoolReplayer(AgentConfiguration.INSTANCE.getPushSpoolReplayPointsPerSecond());
+        replayer.setName("reportSpoolReplayer");
+        replayer.setDaemon(true);
+        replayer.start();
+        log.info("监控数据磁盘缓冲已启动,目录:{}",dir.getAbsolutePath());
+    }
+
+    /**
+     * 关闭重放线程及磁盘缓冲
+     */
+    public synchronized static void shutdown(){
+        if(!running){
+            return;
+        }
+        running = false;
+        replayer.interrupt();
+        try {
+            replayer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    /**
+     * 写入磁盘缓冲
+     * @param data
+     * @param points
+     * @return
+     * 缓冲未开启或写入失败返回false
+     */
+    static boolean spool(byte[] data,int points){
+        return running && spool.append(data,points);
+    }
+
+    /**
+     * 写入磁盘缓冲
+     * @param data
+     * @param offset
+     * @param length
+     * @param points
+     * @return
+     * 缓冲未开启或写入失败返回false
+     */
+    static boolean spool(byte[] data,int offset,int length,int points){
+        return running && spool.append(data,offset,length,points);
+    }
+
+    /**
+     * 磁盘缓冲中等待重放的监控值个数
+     * @return
+     */
+    public static long pendingPoints(){
+        return running ? spool.pendingPoints() : 0;
+    }
+
+    @Override
+    public void run() {
+        while (running){
+            try {
+                if(!ReportMetrics.isPushAvailable()){
+                    TimeUnit.SECONDS.sleep(5);
+                    continue;
+                }
+                ReportSpool.Record record = spool.peek();
+                if(record == null){
+                    TimeUnit.SECONDS.sleep(1);
+                    continue;
+                }
+                byte[] data = record.getData();
+                if(ReportMetrics.transfer(data,data.length,record.getPoints())){
+                    spool.commit();
+                    log.info("已重放缓冲中的 {} 个监控值,剩余 {} 个",record.getPoints(),spool.pendingPoints());
+                    //按配置的速率进行限速
+                    TimeUnit.MILLISECONDS.sleep(Math.max(1,record.getPoints() * 1000L / pointsPerSecond));
+                }else{
+                    TimeUnit.SECONDS.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                log.error("缓冲数据重放异常",t);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.falcon;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接通过transfer的JSON-RPC接口(Transfer.Update)发送push数据,不经过本机的falcon-agent
+ * 使用一个长连接,多个请求可同时发出(pipelining),按请求id匹配响应;连接异常或超时后关闭连接,下一次发送时重新连接
+ *
+ * 请求格式: {"method":"Transfer.Update","params":[[监控值...]],"id":1}
+ * 响应格式: {"id":1,"result":{"Message":"ok","Total":1,"Invalid":0,"Latency":0},"error":null}
+ * 请求及响应均以换行分隔
+ */
+public class TransferRpcSink implements PushSink {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferRpcSink.class);
+
+    private static final byte[] REQUEST_PREFIX = "{\"method\":\"Transfer.Update\",\"params\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REQUEST_ID = "],\"id\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REQUEST_SUFFIX = "}\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final String host;
+    private final int port;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final AtomicLong requestId = new AtomicLong();
+    private Connection connection;
+
+    /**
+     * @param address
+     * transfer的RPC地址,格式为 host:port
+     * @param connectTimeout
+     * 连接超时时间(毫秒)
+     * @param readTimeout
+     * 等待响应的超时时间(毫秒)
+     */
+    public TransferRpcSink(String address, int connectTimeout, int readTimeout) {
+        int index = address.lastIndexOf(':');
+        if(index <= 0){
+            throw new IllegalArgumentException("transfer地址格式应为 host:port : " + address);
+        }
+        this.host = address.substring(0,index).trim();
+        this.port = Integer.parseInt(address.substring(index + 1).trim());
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public boolean push(byte[] json, int length, int points) throws IOException {
+        Connection conn = getConnection();
+        long id = requestId.incrementAndGet();
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        conn.pending.put(id,future);
+        try {
+            conn.write(json,length,id);
+        } catch (IOException e) {
+            conn.close(e);
+            throw e;
+        }
+        JSONObject response;
+        try {
+            response = future.get(readTimeout,TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //未响应的连接可能已经挂起,关闭后重新连接
+            conn.close(new IOException("transfer响应超时"));
+            throw new IOException("transfer " + this + " 响应超时(" + readTimeout + "ms)");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            conn.pending.remove(id);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待transfer响应时被中断");
+        }
+        Object error = response.get("error");
+        if(error != null){
+            log.error("metrics push失败,transfer {} 返回错误: {}",this,error);
+            return false;
+        }
+        log.info("push回执({}个监控值): {}",points,response.get("result"));
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if(connection != null){
+            connection.close(new IOException("连接已关闭"));
+            connection = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    private synchronized Connection getConnection() throws IOException {
+        if(connection == null || connection.closed){
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.connect(new InetSocketAddress(host,port),connectTimeout);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            connection = new Connection(socket);
+            log.info("已连接transfer {}",this);
+        }
+        return connection;
+    }
+
+    /**
+     * 一个RPC长连接,由独立的线程读取响应
+     */
+    private class Connection extends Thread {
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader reader;
+        private final Map<Long,CompletableFuture<JSONObject>> pending = new ConcurrentHashMap<>();
+        private volatile boolean closed = false;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(),64 * 1024);
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),StandardCharsets.UTF_8));
+            setName("transferRpcReader-" + TransferRpcSink.this);
+            setDaemon(true);
+            start();
+        }
+
+        synchronized void write(byte[] json,int length,long id) throws IOException {
+            if(closed){
+                throw new IOException("transfer连接已关闭");
+            }
+            out.write(REQUEST_PREFIX);
+            out.write(json,0,length);
+            out.write(REQUEST_ID);
+            out.write(String.valueOf(id).getBytes(StandardCharsets.US_ASCII));
+            out.write(REQUEST_SUFFIX);
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while (!closed && (line = reader.readLine()) != null){
+                    if(line.isEmpty()){
+                        continue;
+                    }
+                    JSONObject response = JSON.parseObject(line);
+                    CompletableFuture<JSONObject> future = pending.remove(response.getLongValue("id"));
+                    if(future != null){
+                        future.complete(response);
+                    }else{
+                        log.warn("忽略transfer {} 的未知响应: {}",TransferRpcSink.this,line);
+                    }
+                }
+                close(new EOFException("transfer连接已断开"));
+            } catch (Exception e) {
+                close(e instanceof IOException ? (IOException) e : new IOException(e));
+            }
+        }
+
+        /**
+         * 关闭连接,所有未响应的请求以异常结束
+         * @param cause
+         */
+        void close(IOException cause){
+            if(closed){
+                return;
+            }
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if(!pending.isEmpty()){
+                log.warn("transfer {} 连接关闭,{} 个请求未响应: {}",TransferRpcSink.this,pending.size(),cause.getMessage());
+            }
+            for (CompletableFuture<JSONObject> future : pending.values()) {
+                future.completeExceptionally(cause);
+            }
+            pending.clear();
+        }
+    }
+}
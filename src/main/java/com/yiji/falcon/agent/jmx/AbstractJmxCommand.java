@@ -4,6 +4,7 @@
  */
 package com.yiji.falcon.agent.jmx;
 
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
 import com.yiji.falcon.agent.util.CommandUtilForUnix;
 import com.yiji.falcon.agent.util.StringUtils;
 import org.slf4j.Logger;
@@ -45,6 +46,7 @@ public class AbstractJmxCommand {
 
     /**
      * 通过进程id查找JMX的remote连接地址
+     * 有/proc文件系统时(Linux)直接读取进程的启动参数及授权文件(见 {@link ProcJmxRemoteResolver}),否则通过 ps 命令获取
      * @param pid
      * 查找的进行id
      * @param ip
@@ -53,6 +55,9 @@ public class AbstractJmxCommand {
      * 返回查找的JMX连接地址对象或查找失败返回Null
      */
     public static JMXConnectUrlInfo findJMXRemoteUrlByProcessId(int pid, String ip){
+        if(ProcJmxRemoteResolver.isSupported()){
+            return ProcJmxRemoteResolver.resolve(pid,ip);
+        }
         String cmd = "ps aux | grep " + pid;
         logger.info("JMX Remote Target Pid:{}", pid);
         String jmxPortOpt = "-Dcom.sun.management.jmxremote.port";
@@ -199,7 +204,7 @@ public class AbstractJmxCommand {
      * @param content
      * @return
      */
-    private static String getJmxUser(String content){
+    static String getJmxUser(String content){
         content = getRidOfCommend(content);
         String[] users = content.split("\n");
         if(users.length < 1){
@@ -222,7 +227,7 @@ public class AbstractJmxCommand {
      * @param user
      * @return
      */
-    private static String getJmxPassword(String content,String user){
+    static String getJmxPassword(String content,String user){
         if(user == null){
             return null;
         }
@@ -283,79 +288,59 @@ public class AbstractJmxCommand {
                 URLClassLoader loader = new URLClassLoader(new URL[]{new File(tools).toURI().toURL()});
 
                 Class virtualMachine = Class.forName("com.sun.tools.attach.VirtualMachine", true, loader);
-                Class virtualMachineDescriptor = Class.forName("com.sun.tools.attach.VirtualMachineDescriptor", true, loader);
-
-                Method getVMList = virtualMachine.getMethod("list", (Class[])null);
                 Method attachToVM = virtualMachine.getMethod("attach", String.class);
                 Method getAgentProperties = virtualMachine.getMethod("getAgentProperties", (Class[])null);
-                Method getVMId = virtualMachineDescriptor.getMethod("id",  (Class[])null);
-
-
 
-                List allVMs = (List)getVMList.invoke(null, (Object[])null);
-
-                for(Object vmInstance : allVMs) {
-                    String id = (String)getVMId.invoke(vmInstance, (Object[])null);
-                    if (id.equals(Integer.toString(pid))) {
+                //从本地JVM快照中确认进程存在,不再每次遍历所有JVM;容器内的JVM无法attach
+                JvmDescriptor descriptor = LocalJvmDiscovery.getSnapshot().get(pid);
+                if(descriptor == null || descriptor.isContainer()){
+                    return null;
+                }
+                String id = Integer.toString(pid);
 
-                        Object vm = attachToVM.invoke(null, id);
+                Object vm = attachToVM.invoke(null, id);
 
-                        Properties agentProperties = (Properties)getAgentProperties.invoke(vm, (Object[])null);
-                        String connectorAddress = agentProperties.getProperty(CONNECTOR_ADDRESS);
+                Properties agentProperties = (Properties)getAgentProperties.invoke(vm, (Object[])null);
+                String connectorAddress = agentProperties.getProperty(CONNECTOR_ADDRESS);
 
-                        if (connectorAddress != null) {
-                            return connectorAddress;
-                        } else {
-                            break;
-                        }
-                    }
+                if (connectorAddress != null) {
+                    return connectorAddress;
                 }
 
                 //上面的尝试都不成功，则尝试让agent加载management-agent.jar
                 Method getSystemProperties = virtualMachine.getMethod("getSystemProperties", (Class[])null);
                 Method loadAgent = virtualMachine.getMethod("loadAgent", String.class, String.class);
                 Method detach = virtualMachine.getMethod("detach", (Class[])null);
-                for(Object vmInstance : allVMs) {
-                    String id = (String)getVMId.invoke(vmInstance, (Object[])null);
-                    if (id.equals(Integer.toString(pid))) {
-
-                        Object vm = attachToVM.invoke(null, id);
-
-                        Properties systemProperties = (Properties)getSystemProperties.invoke(vm, (Object[])null);
-                        String home = systemProperties.getProperty("java.home");
-
-                        // Normally in ${java.home}/jre/lib/management-agent.jar but might
-                        // be in ${java.home}/lib in build environments.
-
-                        String agent = home + File.separator + "jre" + File.separator +
-                                           "lib" + File.separator + "management-agent.jar";
-                        File f = new File(agent);
-                        if (!f.exists()) {
-                            agent = home + File.separator +  "lib" + File.separator +
-                                        "management-agent.jar";
-                            f = new File(agent);
-                            if (!f.exists()) {
-                                throw new IOException("Management agent not found");
-                            }
-                        }
 
-                        agent = f.getCanonicalPath();
+                Properties systemProperties = (Properties)getSystemProperties.invoke(vm, (Object[])null);
+                String home = systemProperties.getProperty("java.home");
+
+                // Normally in ${java.home}/jre/lib/management-agent.jar but might
+                // be in ${java.home}/lib in build environments.
+
+                String agent = home + File.separator + "jre" + File.separator +
+                                   "lib" + File.separator + "management-agent.jar";
+                File f = new File(agent);
+                if (!f.exists()) {
+                    agent = home + File.separator +  "lib" + File.separator +
+                                "management-agent.jar";
+                    f = new File(agent);
+                    if (!f.exists()) {
+                        throw new IOException("Management agent not found");
+                    }
+                }
+
+                agent = f.getCanonicalPath();
 
-                        loadAgent.invoke(vm, agent, "com.sun.management.jmxremote");
+                loadAgent.invoke(vm, agent, "com.sun.management.jmxremote");
 
-                        Properties agentProperties = (Properties)getAgentProperties.invoke(vm, (Object[])null);
-                        String connectorAddress = agentProperties.getProperty(CONNECTOR_ADDRESS);
+                agentProperties = (Properties)getAgentProperties.invoke(vm, (Object[])null);
+                connectorAddress = agentProperties.getProperty(CONNECTOR_ADDRESS);
 
-                        //detach 这个vm
-                        detach.invoke(vm, (Object[])null);
+                //detach 这个vm
+                detach.invoke(vm, (Object[])null);
 
-                        if (connectorAddress != null) {
-                            return connectorAddress;
-                        } else {
-                            break;
-                        }
-                    }
-                }
+                return connectorAddress;
             } catch (Exception e) {
             	return null;
             }
@@ -0,0 +1,296 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个JMX连接的GC及内存阈值通知的汇总
+ * 订阅各 GarbageCollector MBean 的GC通知(GarbageCollectionNotificationInfo)及 java.lang:type=Memory 的内存阈值通知,
+ * 在两次取值之间汇总GC停顿次数、最大停顿、P99停顿、停顿总时间、晋升到老年代的字节数及内存阈值超出次数,
+ * 由监控值的取值周期通过 {@link Accumulator#drain()} 获取并重新开始汇总,不需要对目标JVM进行额外的轮询
+ *
+ * 每个JMX连接只订阅一次通知,同一JVM的多个JMX服务名各自通过 {@link #accumulator(String)} 获取独立的汇总,
+ * 每个通知只经过一次RMI传输
+ *
+ * 并发收集周期(如ZGC、Shenandoah的 Cycles 收集器)的通知不计为停顿
+ */
+public class GcNotificationCollector implements NotificationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(GcNotificationCollector.class);
+
+    static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    static final String MEMORY_THRESHOLD_EXCEEDED = "java.management.memory.threshold.exceeded";
+    static final String MEMORY_COLLECTION_THRESHOLD_EXCEEDED = "java.management.memory.collection.threshold.exceeded";
+
+    /**
+     * 每个汇总周期最多保存的停顿时间个数(用于计算P99),超过后只统计次数、最大值及总时间
+     */
+    static final int MAX_SAMPLES = 4096;
+
+    private final MBeanServerConnection mBeanServerConnection;
+    /**
+     * 各汇总,key为汇总的名称(JMX服务名)
+     */
+    private final Map<String,Accumulator> accumulators = new ConcurrentHashMap<>();
+
+    private volatile boolean listening = false;
+
+    /**
+     * @param mBeanServerConnection
+     * @param collectionThresholdPercent
+     * 大于0时,对未设置收集后使用量阈值的堆内存池,按最大值的此百分比设置 CollectionUsageThreshold
+     */
+    public GcNotificationCollector(MBeanServerConnection mBeanServerConnection,int collectionThresholdPercent) {
+        this.mBeanServerConnection = mBeanServerConnection;
+        try {
+            NotificationFilterSupport gcFilter = new NotificationFilterSupport();
+            gcFilter.enableType(GC_NOTIFICATION);
+            for (ObjectName objectName : mBeanServerConnection.queryNames(new ObjectName("java.lang:type=GarbageCollector,*"),null)) {
+                mBeanServerConnection.addNotificationListener(objectName,this,gcFilter,null);
+                listening = true;
+            }
+            NotificationFilterSupport memoryFilter = new NotificationFilterSupport();
+            memoryFilter.enableType(MEMORY_THRESHOLD_EXCEEDED);
+            memoryFilter.enableType(MEMORY_COLLECTION_THRESHOLD_EXCEEDED);
+            mBeanServerConnection.addNotificationListener(new ObjectName("java.lang:type=Memory"),this,memoryFilter,null);
+        } catch (Exception e) {
+            log.warn("订阅GC通知失败,将不上报GC停顿的汇总: {}",e.getMessage());
+        }
+        if(collectionThresholdPercent > 0){
+            setCollectionThreshold(collectionThresholdPercent);
+        }
+    }
+
+    /**
+     * 是否已订阅GC通知
+     * @return
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * 获取指定名称的汇总,不存在时创建,创建后开始汇总之后收到的通知
+     * @param name
+     * @return
+     */
+    public Accumulator accumulator(String name){
+        return accumulators.computeIfAbsent(name,k -> new Accumulator());
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if(GC_NOTIFICATION.equals(type) && notification.getUserData() instanceof CompositeData){
+            onGc((CompositeData) notification.getUserData());
+        }else if(MEMORY_THRESHOLD_EXCEEDED.equals(type) || MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)){
+            for (Accumulator accumulator : accumulators.values()) {
+                accumulator.onThresholdExceeded();
+            }
+        }
+    }
+
+    private void onGc(CompositeData info){
+        String gcName = String.valueOf(info.get("gcName"));
+        if(gcName.endsWith("Cycles")){
+            return;
+        }
+        Object duration = JMXAttributePath.extract(info,"gcInfo.duration");
+        if(!(duration instanceof Number)){
+            return;
+        }
+        long pause = ((Number) duration).longValue();
+        long promoted = 0;
+        if(String.valueOf(info.get("gcAction")).contains("minor")){
+            promoted = promotedBytes(JMXAttributePath.extract(info,"gcInfo.memoryUsageBeforeGc"),
+                    JMXAttributePath.extract(info,"gcInfo.memoryUsageAfterGc"));
+        }
+        for (Accumulator accumulator : accumulators.values()) {
+            accumulator.onPause(pause,promoted);
+        }
+    }
+
+    /**
+     * 新生代GC前后老年代内存池使用量的增加值
+     * @param before
+     * @param after
+     * @return
+     */
+    private static long promotedBytes(Object before,Object after){
+        if(!(before instanceof TabularData) || !(after instanceof TabularData)){
+            return 0;
+        }
+        long promoted = 0;
+        for (Object row : ((TabularData) after).values()) {
+            String pool = String.valueOf(((CompositeData) row).get("key"));
+            if(!pool.contains("Old Gen") && !pool.contains("Tenured Gen")){
+                continue;
+            }
+            Object usedAfter = JMXAttributePath.extract(after,pool + ".used");
+            Object usedBefore = JMXAttributePath.extract(before,pool + ".used");
+            if(usedAfter instanceof Number && usedBefore instanceof Number){
+                promoted += Math.max(((Number) usedAfter).longValue() - ((Number) usedBefore).longValue(),0);
+            }
+        }
+        return promoted;
+    }
+
+    /**
+     * 对未设置收集后使用量阈值的堆内存池设置阈值,已由应用设置的阈值不进行修改
+     * @param percent
+     */
+    private void setCollectionThreshold(int percent){
+        try {
+            for (ObjectName objectName : mBeanServerConnection.queryNames(new ObjectName("java.lang:type=MemoryPool,*"),null)) {
+                try {
+                    if(!Boolean.TRUE.equals(mBeanServerConnection.getAttribute(objectName,"CollectionUsageThresholdSupported"))
+                            || !"HEAP".equals(String.valueOf(mBeanServerConnection.getAttribute(objectName,"Type")))){
+                        continue;
+                    }
+                    Object threshold = mBeanServerConnection.getAttribute(objectName,"CollectionUsageThreshold");
+                    Object max = JMXAttributePath.extract(mBeanServerConnection.getAttribute(objectName,"Usage"),"max");
+                    if(threshold instanceof Number && ((Number) threshold).longValue() == 0
+                            && max instanceof Number && ((Number) max).longValue() > 0){
+                        mBeanServerConnection.setAttribute(objectName,
+                                new Attribute("CollectionUsageThreshold",((Number) max).longValue() / 100 * Math.min(percent,100)));
+                    }
+                } catch (JMException e) {
+                    log.debug("设置 {} 的CollectionUsageThreshold失败: {}",objectName,e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("设置内存池的CollectionUsageThreshold失败: {}",e.getMessage());
+        }
+    }
+
+    /**
+     * 一个JMX服务名的GC汇总
+     */
+    public class Accumulator {
+        private long[] pauses = new long[64];
+        private int sampleCount;
+        private int pauseCount;
+        private long pauseMax;
+        private long pauseTotal;
+        private long promotedBytes;
+        private int thresholdExceeded;
+
+        private Accumulator() {
+        }
+
+        /**
+         * 是否已订阅GC通知
+         * @return
+         */
+        public boolean isListening() {
+            return listening;
+        }
+
+        /**
+         * 获取上一次获取以来的汇总,并重新开始汇总
+         * @return
+         */
+        public synchronized Summary drain(){
+            Summary summary = new Summary();
+            summary.pauseCount = pauseCount;
+            summary.pauseMax = pauseMax;
+            summary.pauseTotal = pauseTotal;
+            summary.promotedBytes = promotedBytes;
+            summary.thresholdExceeded = thresholdExceeded;
+            if(sampleCount > 0){
+                long[] sorted = Arrays.copyOf(pauses,sampleCount);
+                Arrays.sort(sorted);
+                summary.pauseP99 = sorted[(int) Math.ceil(sampleCount * 0.99) - 1];
+            }
+            sampleCount = 0;
+            pauseCount = 0;
+            pauseMax = 0;
+            pauseTotal = 0;
+            promotedBytes = 0;
+            thresholdExceeded = 0;
+            return summary;
+        }
+
+        private synchronized void onPause(long pause,long promoted){
+            pauseCount++;
+            pauseTotal += pause;
+            pauseMax = Math.max(pauseMax,pause);
+            promotedBytes += promoted;
+            if(sampleCount < MAX_SAMPLES){
+                if(sampleCount == pauses.length){
+                    pauses = Arrays.copyOf(pauses,pauses.length << 1);
+                }
+                pauses[sampleCount++] = pause;
+            }
+        }
+
+        private synchronized void onThresholdExceeded(){
+            thresholdExceeded++;
+        }
+    }
+
+    /**
+     * 一个汇总周期的GC汇总
+     */
+    public static class Summary {
+        private int pauseCount;
+        private long pauseMax;
+        private long pauseP99;
+        private long pauseTotal;
+        private long promotedBytes;
+        private int thresholdExceeded;
+
+        /**
+         * GC停顿次数
+         */
+        public int getPauseCount() {
+            return pauseCount;
+        }
+
+        /**
+         * 最大GC停顿时间(毫秒)
+         */
+        public long getPauseMax() {
+            return pauseMax;
+        }
+
+        /**
+         * GC停顿时间的P99(毫秒)
+         */
+        public long getPauseP99() {
+            return pauseP99;
+        }
+
+        /**
+         * GC停顿总时间(毫秒)
+         */
+        public long getPauseTotal() {
+            return pauseTotal;
+        }
+
+        /**
+         * 新生代GC晋升到老年代的字节数
+         */
+        public long getPromotedBytes() {
+            return promotedBytes;
+        }
+
+        /**
+         * 内存池使用量超过阈值的通知次数
+         */
+        public int getThresholdExceeded() {
+            return thresholdExceeded;
+        }
+    }
+}
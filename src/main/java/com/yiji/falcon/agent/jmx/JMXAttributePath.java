@@ -0,0 +1,116 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX属性路径
+ * 监控配置的属性名可以使用以 . 分隔的路径,从 CompositeData 及 TabularData 类型的属性值中取值,如:
+ * HeapMemoryUsage.used                                      (java.lang:type=Memory)
+ * LastGcInfo.duration                                       (java.lang:type=GarbageCollector,name=*)
+ * LastGcInfo.memoryUsageAfterGc.PS Old Gen.used             (TabularData按索引值取行)
+ *
+ * 属性名本身也可能包含 . ,因此按从长到短的顺序尝试路径的每个前缀作为属性名
+ */
+public class JMXAttributePath {
+
+    /**
+     * 路径可能对应的属性名:路径本身及其每个以 . 分隔的前缀
+     * @param path
+     * @return
+     */
+    public static List<String> attributeNames(String path){
+        List<String> names = new ArrayList<>(2);
+        names.add(path);
+        int index = path.length();
+        while ((index = path.lastIndexOf('.',index - 1)) > 0){
+            names.add(path.substring(0,index));
+        }
+        return names;
+    }
+
+    /**
+     * 从获取的属性值中取路径对应的值
+     * @param attributes
+     * 属性名及属性值
+     * @param path
+     * @return
+     * 路径不存在时返回null
+     */
+    public static Object resolve(Map<String,Object> attributes,String path){
+        if(attributes == null || path == null){
+            return null;
+        }
+        Object value = attributes.get(path);
+        if(value != null){
+            return value;
+        }
+        int index = path.length();
+        while ((index = path.lastIndexOf('.',index - 1)) > 0){
+            value = attributes.get(path.substring(0,index));
+            if(value != null){
+                return extract(value,path.substring(index + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从 CompositeData 或 TabularData 中取路径对应的值
+     * @param value
+     * @param path
+     * @return
+     */
+    public static Object extract(Object value,String path){
+        if(value instanceof CompositeData){
+            CompositeData compositeData = (CompositeData) value;
+            if(compositeData.containsKey(path)){
+                return compositeData.get(path);
+            }
+            int index = path.length();
+            while ((index = path.lastIndexOf('.',index - 1)) > 0){
+                String key = path.substring(0,index);
+                if(compositeData.containsKey(key)){
+                    return extract(compositeData.get(key),path.substring(index + 1));
+                }
+            }
+        }else if(value instanceof TabularData){
+            TabularData tabularData = (TabularData) value;
+            List<String> indexNames = tabularData.getTabularType().getIndexNames();
+            if(indexNames.size() != 1){
+                return null;
+            }
+            String indexName = indexNames.get(0);
+            for (Object row : tabularData.values()) {
+                CompositeData rowData = (CompositeData) row;
+                String key = String.valueOf(rowData.get(indexName));
+                if(path.equals(key)){
+                    return rowValue(rowData);
+                }
+                if(path.startsWith(key) && path.length() > key.length() && path.charAt(key.length()) == '.'){
+                    return extract(rowValue(rowData),path.substring(key.length() + 1));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Map类型的MXBean属性映射为只有key及value两列的TabularData,取value列,其他取整行
+     * @param rowData
+     * @return
+     */
+    private static Object rowValue(CompositeData rowData){
+        if(rowData.getCompositeType().keySet().size() == 2 && rowData.containsKey("key") && rowData.containsKey("value")){
+            return rowData.get("value");
+        }
+        return rowData;
+    }
+}
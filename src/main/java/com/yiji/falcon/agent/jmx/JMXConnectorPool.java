@@ -0,0 +1,458 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import com.yiji.falcon.agent.jmx.vo.JMXConnectionInfo;
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JMX连接池
+ * 每个JVM(进程号 + 进程启动时间)只保持一个JMXConnector,同一JVM的多个JMX服务名共用此连接
+ *
+ * 连接的建立、健康检查及重连均在后台线程中进行,不阻塞取值:
+ * 1、JVM退出或进程号被新的进程复用时,关闭并移除旧连接
+ * 2、有连接被取值标记为不可用时,先探测连接,探测成功则恢复可用,失败则关闭并重新建立连接
+ * 3、连接的每一次调用都有超时时间({@link TimeoutMBeanServerConnection}),连续多次调用超时的连接立即关闭并重新建立连接
+ * 所有被移除的连接都会被关闭,打开而未关闭且不在池中的连接数即为泄漏的连接数
+ */
+public class JMXConnectorPool {
+
+    private static final Logger log = LoggerFactory.getLogger(JMXConnectorPool.class);
+
+    /**
+     * 连接建立的超时时间(秒)
+     */
+    static final int CONNECT_TIMEOUT = 10;
+
+    private static final Map<String,PooledConnector> pool = new ConcurrentHashMap<>();
+    /**
+     * 正在后台建立连接的JVM
+     */
+    private static final Map<String,Future<?>> pending = new ConcurrentHashMap<>();
+    private static final AtomicBoolean checkScheduled = new AtomicBoolean(false);
+    private static final AtomicBoolean healthCheckStarted = new AtomicBoolean(false);
+
+    private static final AtomicLong openedCount = new AtomicLong();
+    private static final AtomicLong closedCount = new AtomicLong();
+    private static final AtomicLong reconnectCount = new AtomicLong();
+    private static final AtomicLong evictionCount = new AtomicLong();
+    private static final AtomicLong connectFailCount = new AtomicLong();
+
+    private static volatile ScheduledExecutorService executor;
+
+    /**
+     * 连接池的key
+     * @param desc
+     * @return
+     */
+    static String key(JvmDescriptor desc){
+        return desc.getPid() + "-" + desc.getStartTime();
+    }
+
+    /**
+     * 获取JVM已建立的连接
+     * @param desc
+     * @return
+     * 未建立连接时返回null
+     */
+    public static PooledConnector get(JvmDescriptor desc){
+        return pool.get(key(desc));
+    }
+
+    /**
+     * 在后台建立JVM的连接,同一JVM同时只进行一次连接
+     * @param desc
+     * @return
+     * 连接任务
+     */
+    public static Future<?> connectAsync(JvmDescriptor desc){
+        String key = key(desc);
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                connect(desc);
+            } finally {
+                pending.remove(key);
+            }
+        },null);
+        Future<?> existing = pending.putIfAbsent(key,task);
+        if(existing != null){
+            return existing;
+        }
+        getExecutor().execute(task);
+        return task;
+    }
+
+    /**
+     * 立即在后台进行一次健康检查,已有等待执行的检查时不重复提交
+     */
+    public static void checkAsync(){
+        if(checkScheduled.compareAndSet(false,true)){
+            getExecutor().execute(() -> {
+                checkScheduled.set(false);
+                healthCheck();
+            });
+        }
+    }
+
+    /**
+     * 关闭并移除指定进程号的连接
+     * @param pid
+     */
+    public static void evict(int pid){
+        for (PooledConnector connector : new ArrayList<>(pool.values())) {
+            if(connector.desc.getPid() == pid){
+                evict(connector,"已清除");
+            }
+        }
+    }
+
+    /**
+     * 关闭所有连接及后台线程
+     */
+    public static synchronized void close(){
+        if(executor != null){
+            executor.shutdownNow();
+            executor = null;
+        }
+        healthCheckStarted.set(false);
+        for (PooledConnector connector : new ArrayList<>(pool.values())) {
+            evict(connector,"Agent关闭");
+        }
+    }
+
+    /**
+     * 连接池中的连接数
+     * @return
+     */
+    public static int size(){
+        return pool.size();
+    }
+
+    /**
+     * 重新建立连接的次数
+     * @return
+     */
+    public static long getReconnectCount(){
+        return reconnectCount.get();
+    }
+
+    /**
+     * 被移除(JVM退出、进程号被复用或连接不可用)的连接数
+     * @return
+     */
+    public static long getEvictionCount(){
+        return evictionCount.get();
+    }
+
+    /**
+     * 连接建立失败的次数
+     * @return
+     */
+    public static long getConnectFailCount(){
+        return connectFailCount.get();
+    }
+
+    /**
+     * 已打开、未关闭且不在池中的连接数,正常情况下为0
+     * @return
+     */
+    public static long getLeakedCount(){
+        return Math.max(openedCount.get() - closedCount.get() - pool.size(),0);
+    }
+
+    private static ScheduledExecutorService getExecutor(){
+        ScheduledExecutorService current = executor;
+        if(current != null){
+            return current;
+        }
+        synchronized (JMXConnectorPool.class){
+            if(executor == null){
+                AtomicInteger count = new AtomicInteger(0);
+                ScheduledExecutorService service = Executors.newScheduledThreadPool(2,r -> {
+                    Thread thread = new Thread(r,"jmxConnectorPool-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor = service;
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * 第一个连接建立后,启动定时的健康检查
+     */
+    private static void startHealthCheck(){
+        if(healthCheckStarted.compareAndSet(false,true)){
+            int interval = AgentConfiguration.INSTANCE.getJmxHealthCheckInterval();
+            getExecutor().scheduleWithFixedDelay(JMXConnectorPool::healthCheck,interval,interval,TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 连接池的健康检查
+     */
+    static void healthCheck(){
+        healthCheck(LocalJvmDiscovery.getSnapshot());
+    }
+
+    /**
+     * 按JVM快照进行连接池的健康检查
+     * @param snapshot
+     */
+    static void healthCheck(LocalJvmDiscovery.Snapshot snapshot){
+        for (PooledConnector connector : new ArrayList<>(pool.values())) {
+            JvmDescriptor current = snapshot.get(connector.desc.getPid());
+            if(current == null){
+                evict(connector,"JVM已退出");
+            }else if(current.getStartTime() != connector.desc.getStartTime()){
+                evict(connector,"进程号已被复用");
+            }else if(connector.hasInvalid()){
+                if(connector.probe()){
+                    connector.setValid(true);
+                    log.info("JMX连接(pid:{})探测成功,恢复可用",connector.desc.getPid());
+                }else{
+                    evict(connector,"连接不可用");
+                    reconnectCount.incrementAndGet();
+                    connectAsync(current);
+                }
+            }
+        }
+    }
+
+    private static void connect(JvmDescriptor desc){
+        String key = key(desc);
+        if(pool.containsKey(key)){
+            return;
+        }
+        if(desc.isContainer()){
+            log.warn("应用 {} 运行在其他命名空间(容器)内,无法建立JMX连接",desc.displayName());
+            connectFailCount.incrementAndGet();
+            return;
+        }
+        JMXConnectUrlInfo jmxConnectUrlInfo = getConnectorAddress(desc);
+        if (jmxConnectUrlInfo == null) {
+            log.error("应用 {} 的JMX连接URL获取失败",desc.displayName());
+            connectFailCount.incrementAndGet();
+            return;
+        }
+        JMXConnector jmxConnector;
+        try {
+            jmxConnector = getJMXConnector(jmxConnectUrlInfo);
+        } catch (IOException e) {
+            log.error("JMX 连接获取异常",e);
+            connectFailCount.incrementAndGet();
+            return;
+        }
+        AgentConfiguration conf = AgentConfiguration.INSTANCE;
+        if(register(desc,jmxConnector,TimeUnit.SECONDS.toMillis(conf.getJmxCallTimeout()),conf.getJmxCallEvictAfterTimeouts(),
+                conf.isJmxGcNotification() ? conf.getJmxCollectionThresholdPercent() : -1) != null){
+            startHealthCheck();
+        }
+    }
+
+    /**
+     * 将已打开的JMXConnector加入连接池
+     * @param desc
+     * @param jmxConnector
+     * @param callTimeoutMillis
+     * 每一次调用的超时时间(毫秒)
+     * @param evictAfterTimeouts
+     * 连续调用超时多少次后关闭并重新建立连接
+     * @param collectionThresholdPercent
+     * 小于0时不订阅GC通知,否则为GC通知的内存池收集后使用量阈值百分比(见 {@link GcNotificationCollector})
+     * @return
+     * 加入的连接,获取连接失败或该JVM已有连接时返回null(jmxConnector已关闭)
+     */
+    static PooledConnector register(JvmDescriptor desc,JMXConnector jmxConnector,long callTimeoutMillis,int evictAfterTimeouts,int collectionThresholdPercent){
+        String key = key(desc);
+        openedCount.incrementAndGet();
+        MBeanServerConnection connection;
+        try {
+            connection = TimeoutMBeanServerConnection.wrap(jmxConnector.getMBeanServerConnection(),
+                    callTimeoutMillis,evictAfterTimeouts,() -> evictHung(key,jmxConnector));
+        } catch (IOException e) {
+            log.error("JMX 连接获取异常",e);
+            connectFailCount.incrementAndGet();
+            closeConnector(jmxConnector);
+            return null;
+        }
+        PooledConnector connector = new PooledConnector(desc,jmxConnector,connection);
+        if(collectionThresholdPercent >= 0){
+            //每个连接只订阅一次GC通知,在后台线程中进行,不占用取值时间
+            connector.gcCollector = new GcNotificationCollector(connection,collectionThresholdPercent);
+        }
+        if(pool.putIfAbsent(key,connector) != null){
+            closeConnector(jmxConnector);
+            return null;
+        }
+        log.debug("应用 {} JMX 连接已建立",desc.displayName());
+        return connector;
+    }
+
+    private static void evict(PooledConnector connector,String reason){
+        if(pool.remove(key(connector.desc),connector)){
+            evictionCount.incrementAndGet();
+            connector.setValid(false);
+            closeConnector(connector.connector);
+            log.info("JMX连接(pid:{})已关闭: {}",connector.desc.getPid(),reason);
+        }
+    }
+
+    /**
+     * 连接多次调用超时(已挂起)时,关闭并重新建立连接
+     * 挂起的连接关闭时也可能阻塞,在单独的线程中关闭,不占用取值及连接池的线程
+     * @param key
+     * @param jmxConnector
+     */
+    private static void evictHung(String key,JMXConnector jmxConnector){
+        PooledConnector connector = pool.get(key);
+        if(connector == null || connector.connector != jmxConnector){
+            return;
+        }
+        connector.setValid(false);
+        if(pool.remove(key,connector)){
+            evictionCount.incrementAndGet();
+            log.info("JMX连接(pid:{})已关闭: 连接多次调用超时",connector.desc.getPid());
+            Thread thread = new Thread(() -> closeConnector(jmxConnector),"jmxConnectorClose-" + connector.desc.getPid());
+            thread.setDaemon(true);
+            thread.start();
+            reconnectCount.incrementAndGet();
+            connectAsync(connector.desc);
+        }
+    }
+
+    private static void closeConnector(JMXConnector connector){
+        try {
+            connector.close();
+            closedCount.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("JMX连接关闭异常: {}",e.getMessage());
+        }
+    }
+
+    private static JMXConnector getJMXConnector(JMXConnectUrlInfo jmxConnectUrlInfo) throws IOException {
+        JMXServiceURL url = new JMXServiceURL(jmxConnectUrlInfo.getRemoteUrl());
+        JMXConnector connector;
+        if(jmxConnectUrlInfo.isAuthentication()){
+            connector = JMXConnectWithTimeout.connectWithTimeout(url,jmxConnectUrlInfo.getJmxUser()
+                    ,jmxConnectUrlInfo.getJmxPassword(),CONNECT_TIMEOUT, TimeUnit.SECONDS);
+        }else{
+            connector = JMXConnectWithTimeout.connectWithTimeout(url,null,null,CONNECT_TIMEOUT, TimeUnit.SECONDS);
+        }
+        return connector;
+    }
+
+    private static JMXConnectUrlInfo getConnectorAddress(JvmDescriptor desc){
+        if(AgentConfiguration.INSTANCE.isAgentJMXLocalConnect()){
+            String connectorAddress = AbstractJmxCommand.findJMXLocalUrlByProcessId(desc.getPid());
+            if(connectorAddress != null){
+                return new JMXConnectUrlInfo(connectorAddress);
+            }
+        }
+
+        JMXConnectUrlInfo jmxConnectUrlInfo = AbstractJmxCommand.findJMXRemoteUrlByProcessId(desc.getPid(),"127.0.0.1");
+        if(jmxConnectUrlInfo != null){
+            log.info("JMX Remote URL:{}",jmxConnectUrlInfo);
+        }else if(!AgentConfiguration.INSTANCE.isAgentJMXLocalConnect()){
+            log.warn("应用未配置JMX Remote功能,请给应用配置JMX Remote");
+        }
+        return jmxConnectUrlInfo;
+    }
+
+    /**
+     * 池中一个JVM的连接
+     */
+    public static class PooledConnector {
+        private final JvmDescriptor desc;
+        private final JMXConnector connector;
+        private final MBeanServerConnection connection;
+        private final MBeanCache mBeanCache;
+        /**
+         * 此JVM的GC通知订阅,未开启时为null
+         */
+        private volatile GcNotificationCollector gcCollector;
+        /**
+         * 各JMX服务名的连接信息,key为服务名
+         */
+        private final Map<String,JMXConnectionInfo> connectionInfos = new ConcurrentHashMap<>();
+
+        PooledConnector(JvmDescriptor desc, JMXConnector connector, MBeanServerConnection connection) {
+            this.desc = desc;
+            this.connector = connector;
+            this.connection = connection;
+            this.mBeanCache = new MBeanCache(connection);
+        }
+
+        /**
+         * 指定JMX服务名的连接信息,共用此JVM的连接、MBean缓存及GC通知订阅(各服务名独立汇总)
+         * 只进行本地对象的创建,不调用目标JVM
+         * @param serverName
+         * @return
+         */
+        public JMXConnectionInfo getConnectionInfo(String serverName){
+            return connectionInfos.computeIfAbsent(serverName,k -> {
+                JMXConnectionInfo jmxConnectionInfo = new JMXConnectionInfo();
+                jmxConnectionInfo.setCacheKeyId(desc.id());
+                jmxConnectionInfo.setConnectionServerName(serverName);
+                jmxConnectionInfo.setConnectionQualifiedServerName(desc.displayName());
+                jmxConnectionInfo.setmBeanServerConnection(connection);
+                jmxConnectionInfo.setmBeanCache(mBeanCache);
+                if(gcCollector != null){
+                    jmxConnectionInfo.setGcAccumulator(gcCollector.accumulator(serverName));
+                }
+                jmxConnectionInfo.setValid(true);
+                jmxConnectionInfo.setPid(desc.getPid());
+                return jmxConnectionInfo;
+            });
+        }
+
+        public JvmDescriptor getDesc() {
+            return desc;
+        }
+
+        boolean hasInvalid(){
+            for (JMXConnectionInfo connectionInfo : connectionInfos.values()) {
+                if(!connectionInfo.isValid()){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void setValid(boolean valid){
+            connectionInfos.values().forEach(info -> info.setValid(valid));
+        }
+
+        /**
+         * 探测连接是否可用
+         * @return
+         */
+        boolean probe(){
+            try {
+                connection.getMBeanCount();
+                return true;
+            } catch (Exception e) {
+                log.debug("JMX连接(pid:{})探测失败: {}",desc.getPid(),e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -4,16 +4,19 @@
  */
 package com.yiji.falcon.agent.jmx;
 
+import com.yiji.falcon.agent.config.AgentConfiguration;
 import com.yiji.falcon.agent.jmx.vo.JMXConnectionInfo;
 import com.yiji.falcon.agent.jmx.vo.JMXMetricsValueInfo;
 import com.yiji.falcon.agent.jmx.vo.JMXObjectNameInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.management.MBeanAttributeInfo;
-import javax.management.ObjectInstance;
-import javax.management.ObjectName;
+import javax.management.*;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
  * 修订记录:
@@ -28,11 +31,49 @@ public class JMXManager {
     private static final Logger log = LoggerFactory.getLogger(JMXManager.class);
 
     /**
-     * 获取指定应用的名称(如运行的main类名称)所有的jmx值
+     * 并行取值的线程池,线程数由 agent.jmx.collect.threads 配置
+     */
+    private static final ExecutorService executor = new ThreadPoolExecutor(AgentConfiguration.INSTANCE.getJmxCollectThreads(),
+            AgentConfiguration.INSTANCE.getJmxCollectThreads(),60L,TimeUnit.SECONDS,new LinkedBlockingQueue<>(),new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r,"jmxCollector-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 获取指定应用的名称(如运行的main类名称)配置的jmx监控值
+     * 所有MBean只获取ObjectName,仅对监控配置中匹配的MBean通过一次getAttributes调用获取配置的属性值
+     * 开启 agent.jmx.fullScan 时获取所有MBean的所有属性值
+     *
+     * 该服务的多个JMX连接(JVM)并行取值,超过 agent.jmx.collect.timeout 未完成的连接本次视为不可用,不影响其他连接
+     * @param serverName
+     * @param configIndex
+     * 需要获取的监控配置
+     * @return
+     */
+    public static List<JMXMetricsValueInfo> getJmxMetricValue(String serverName, JMXMetricsConfigIndex configIndex){
+        return getJmxMetricValue(serverName,configIndex,AgentConfiguration.INSTANCE.getJmxCollectTimeout());
+    }
+
+    /**
+     * 获取指定应用的名称(如运行的main类名称)配置的jmx监控值
+     * 取值时间不超过 agent.jmx.collect.timeout 及插件的运行周期,超时的连接本周期内即上报为不可用
      * @param serverName
+     * @param configIndex
+     * 需要获取的监控配置
+     * @param step
+     * 插件的运行周期(秒)
      * @return
      */
-    public synchronized static List<JMXMetricsValueInfo> getJmxMetricValue(String serverName){
+    public static List<JMXMetricsValueInfo> getJmxMetricValue(String serverName, JMXMetricsConfigIndex configIndex, int step){
         JMXConnection jmxConnection = new JMXConnection(serverName);
         List<JMXConnectionInfo> mbeanConns = jmxConnection.getMBeanConnection();
         if(mbeanConns == null || mbeanConns.isEmpty()){
@@ -40,51 +81,41 @@ public class JMXManager {
             return new ArrayList<>();
         }
 
+        boolean fullScan = AgentConfiguration.INSTANCE.isJmxFullScan();
+        List<Future<JMXMetricsValueInfo>> futures = new ArrayList<>(mbeanConns.size());
+        for (JMXConnectionInfo connectionInfo : mbeanConns) {//遍历JMX连接
+            futures.add(executor.submit(() -> getJmxMetricValue(connectionInfo,configIndex,fullScan)));
+        }
+
         int validCount = 0;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Math.min(AgentConfiguration.INSTANCE.getJmxCollectTimeout(),Math.max(step,1)));
         List<JMXMetricsValueInfo> jmxMetricsValueInfoList = new ArrayList<>();//返回对象
-        for (JMXConnectionInfo connectionInfo : mbeanConns) {//遍历JMX连接
-            JMXMetricsValueInfo jmxMetricsValueInfo = new JMXMetricsValueInfo();//监控值信息对象
-            if(connectionInfo.isValid()){//若该JMX连接可用
-                try {
-                    List<JMXObjectNameInfo> objectNameList = new ArrayList<>();//该jmx连接下的所有ObjectName值信息
-                    Set<ObjectInstance> beanSet = connectionInfo.getmBeanServerConnection().queryMBeans(null, null);
-                    for (ObjectInstance mbean : beanSet) {
-                        ObjectName objectName = mbean.getObjectName();
-
-                        JMXObjectNameInfo jmxObjectNameInfo = new JMXObjectNameInfo();
-
-                        jmxObjectNameInfo.setObjectName(objectName);
-                        jmxObjectNameInfo.setJmxConnectionInfo(connectionInfo);
-                        Map<String,String> map = new HashMap<>();
-                        for (MBeanAttributeInfo mBeanAttributeInfo : connectionInfo.getmBeanServerConnection().getMBeanInfo(objectName).getAttributes()) {
-                            try {
-                                String value = connectionInfo.getmBeanServerConnection().getAttribute(mbean.getObjectName(),mBeanAttributeInfo.getName()).toString();
-                                map.put(mBeanAttributeInfo.getName(),value);
-                            } catch (Exception ignored) {
-                            }
-                        }
-
-                        jmxObjectNameInfo.setMetricsValue(map);
-                        objectNameList.add(jmxObjectNameInfo);
-                    }
-
-                    //设置监控值对象
-                    jmxMetricsValueInfo.setJmxObjectNameInfoList(objectNameList);
-
-                    validCount++;
-                } catch (Exception e) {
-                    //jmx 连接取值异常,设置jmx连接为不可用状态,将会在下一次获取连接时进行维护
-                    connectionInfo.setValid(false);
-                }finally {
-                    //设置返回对象-添加监控值对象
-                    jmxMetricsValueInfo.setJmxConnectionInfo(connectionInfo);
-                    jmxMetricsValueInfoList.add(jmxMetricsValueInfo);
-                }
-            }else{
-                //设置返回对象-添加监控值对象,连接不可用也需要返回,以便于构建连接不可用的报告对象
+        for (int i = 0; i < futures.size(); i++) {
+            JMXConnectionInfo connectionInfo = mbeanConns.get(i);
+            Future<JMXMetricsValueInfo> future = futures.get(i);
+            JMXMetricsValueInfo jmxMetricsValueInfo;
+            try {
+                jmxMetricsValueInfo = future.get(Math.max(deadline - System.currentTimeMillis(),0),TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("应用 {} 的JMX连接(pid:{})取值超时",serverName,connectionInfo.getPid());
+                future.cancel(true);
+                connectionInfo.setValid(false);
+                jmxMetricsValueInfo = new JMXMetricsValueInfo();
+                jmxMetricsValueInfo.setJmxConnectionInfo(connectionInfo);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                log.warn("应用 {} 的JMX连接(pid:{})取值异常",serverName,connectionInfo.getPid(),e.getCause());
+                connectionInfo.setValid(false);
+                jmxMetricsValueInfo = new JMXMetricsValueInfo();
                 jmxMetricsValueInfo.setJmxConnectionInfo(connectionInfo);
-                jmxMetricsValueInfoList.add(jmxMetricsValueInfo);
             }
+            if(jmxMetricsValueInfo.getJmxObjectNameInfoList() != null){
+                validCount++;
+            }
+            jmxMetricsValueInfoList.add(jmxMetricsValueInfo);
         }
 
         //若JMX可用的连接数小于该服务应有的JMX连接数,则进行尝试重新构建连接
@@ -98,4 +129,84 @@ public class JMXManager {
         return jmxMetricsValueInfoList;
     }
 
+    /**
+     * 获取一个JMX连接的监控值
+     * 同一个连接同时只进行一次取值,上一次取值仍未结束(如目标JVM挂起)时,本次视为不可用
+     * @param connectionInfo
+     * @param configIndex
+     * @param fullScan
+     * @return
+     */
+    private static JMXMetricsValueInfo getJmxMetricValue(JMXConnectionInfo connectionInfo, JMXMetricsConfigIndex configIndex, boolean fullScan){
+        JMXMetricsValueInfo jmxMetricsValueInfo = new JMXMetricsValueInfo();//监控值信息对象
+        //设置返回对象-添加监控值对象,连接不可用也需要返回,以便于构建连接不可用的报告对象
+        jmxMetricsValueInfo.setJmxConnectionInfo(connectionInfo);
+        if(!connectionInfo.isValid()){
+            return jmxMetricsValueInfo;
+        }
+        ReentrantLock lock = connectionInfo.getCollectLock();
+        if(!lock.tryLock()){
+            log.warn("应用 {} 的JMX连接(pid:{})上一次取值仍未结束,本次视为不可用",connectionInfo.getConnectionServerName(),connectionInfo.getPid());
+            return jmxMetricsValueInfo;
+        }
+        try {
+            MBeanCache mBeanCache = connectionInfo.getmBeanCache();
+            boolean deadlockDetection = AgentConfiguration.INSTANCE.isJmxDeadlockDetection();
+            List<JMXObjectNameInfo> objectNameList = new ArrayList<>();//该jmx连接下的所有ObjectName值信息
+            for (ObjectName objectName : mBeanCache.getObjectNames()) {
+                JMXObjectNameInfo jmxObjectNameInfo = new JMXObjectNameInfo();
+
+                jmxObjectNameInfo.setObjectName(objectName);
+                jmxObjectNameInfo.setJmxConnectionInfo(connectionInfo);
+                String[] attributeNames = fullScan ? mBeanCache.getAllAttributeNames(objectName) :
+                        mBeanCache.getConfigAttributeNames(objectName,configIndex);
+                Map<String,Object> values = getAttributes(connectionInfo,objectName,attributeNames);
+                if(deadlockDetection){
+                    JvmMetricsPack.collectDeadlockedThreads(connectionInfo.getmBeanServerConnection(),objectName,values);
+                }
+                jmxObjectNameInfo.setMetricsValue(values);
+                objectNameList.add(jmxObjectNameInfo);
+            }
+
+            //设置监控值对象
+            jmxMetricsValueInfo.setJmxObjectNameInfoList(objectNameList);
+        } catch (Exception e) {
+            //jmx 连接取值异常,设置jmx连接为不可用状态,将会在下一次获取连接时进行维护
+            log.warn("应用 {} 的JMX连接(pid:{})取值异常: {}",connectionInfo.getConnectionServerName(),connectionInfo.getPid(),e.getMessage());
+            connectionInfo.setValid(false);
+        } finally {
+            lock.unlock();
+        }
+        return jmxMetricsValueInfo;
+    }
+
+    /**
+     * 通过一次getAttributes调用获取MBean的属性值,获取失败及值为null的属性将被忽略
+     * 保存原始的属性值,CompositeData 及 TabularData 类型的属性值按属性路径取值(见 {@link JMXAttributePath})
+     * @param connectionInfo
+     * @param objectName
+     * @param attributeNames
+     * @return
+     * @throws IOException
+     */
+    private static Map<String,Object> getAttributes(JMXConnectionInfo connectionInfo,ObjectName objectName,String[] attributeNames) throws IOException {
+        Map<String,Object> map = new HashMap<>();
+        if(attributeNames.length == 0){
+            return map;
+        }
+        try {
+            for (Attribute attribute : connectionInfo.getmBeanServerConnection().getAttributes(objectName,attributeNames).asList()) {
+                if(attribute.getValue() != null){
+                    map.put(attribute.getName(),attribute.getValue());
+                }
+            }
+        } catch (InstanceNotFoundException e) {
+            //MBean已注销,清除缓存
+            connectionInfo.getmBeanCache().invalidate();
+        } catch (JMException e) {
+            log.debug("获取 {} 的属性值失败: {}",objectName,e.getMessage());
+        }
+        return map;
+    }
+
 }
@@ -0,0 +1,216 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import com.yiji.falcon.agent.vo.jmx.JMXMetricsConfiguration;
+
+import javax.management.ObjectName;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JMX监控配置的索引
+ * 配置的objectName按 domain 和 key properties 解析(如 Catalina:type=ThreadPool 或只有domain的 org.apache.ZooKeeperService),
+ * 以domain为key建立索引,与原来按字符串包含匹配的方式保持一致:ObjectName的domain包含配置的domain(如 org.apache 匹配 org.apache.ZooKeeperService),
+ * 且ObjectName中有配置的所有key,对应的值包含配置的值(如 name=http 匹配 name="http-nio-8080")即为匹配,与key properties的顺序无关
+ * 无法按此格式解析的配置(如只有部分key properties),仍按ObjectName包含配置的objectName进行匹配
+ * ObjectName的domain对应的配置在第一次匹配时查找并缓存
+ * 配置的属性名为属性路径(如 HeapMemoryUsage.used)时,获取路径可能对应的属性名,见 {@link JMXAttributePath}
+ *
+ * 索引创建后不再修改,配置文件变化时重新创建
+ */
+public class JMXMetricsConfigIndex {
+
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * 一个objectName配置及其所有的监控配置
+     */
+    private static class Entry {
+        final Map<String,String> keyProperties;
+        final List<JMXMetricsConfiguration> configurations = new ArrayList<>();
+        final Set<String> attributeNameSet = new LinkedHashSet<>();
+        String[] attributeNames = EMPTY;
+
+        Entry(Map<String,String> keyProperties) {
+            this.keyProperties = keyProperties;
+        }
+
+        boolean match(ObjectName objectName){
+            for (Map.Entry<String, String> property : keyProperties.entrySet()) {
+                String value = objectName.getKeyProperty(property.getKey());
+                if(value == null || !value.contains(property.getValue())){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Set<JMXMetricsConfiguration> configurations;
+    private final Map<String,List<Entry>> domainIndex = new HashMap<>();
+    /**
+     * ObjectName的domain对应的配置,即domain包含配置的domain的所有配置
+     */
+    private final Map<String,List<Entry>> domainCache = new ConcurrentHashMap<>();
+    /**
+     * 按ObjectName包含objectName配置进行匹配的配置
+     */
+    private final Map<String,Entry> containsIndex = new HashMap<>();
+
+    public JMXMetricsConfigIndex(Collection<JMXMetricsConfiguration> configurations) {
+        this(configurations,Collections.emptyMap());
+    }
+
+    /**
+     * @param configurations
+     * 监控配置
+     * @param inbuiltAttributes
+     * 內建监控需要获取的属性,key为objectName,value为属性名
+     */
+    public JMXMetricsConfigIndex(Collection<JMXMetricsConfiguration> configurations,Map<String,String[]> inbuiltAttributes) {
+        this.configurations = Collections.unmodifiableSet(new LinkedHashSet<>(configurations));
+        Map<String,Entry> entries = new HashMap<>();
+        for (JMXMetricsConfiguration configuration : this.configurations) {
+            String objectName = configuration.getObjectName();
+            if(objectName == null){
+                continue;
+            }
+            Entry entry = getEntry(entries,objectName.trim());
+            entry.configurations.add(configuration);
+            if(configuration.getMetrics() != null){
+                entry.attributeNameSet.addAll(JMXAttributePath.attributeNames(configuration.getMetrics()));
+            }
+            if(configuration.getAlias() != null){
+                entry.attributeNameSet.addAll(JMXAttributePath.attributeNames(configuration.getAlias()));
+            }
+        }
+        for (Map.Entry<String, String[]> inbuilt : inbuiltAttributes.entrySet()) {
+            Collections.addAll(getEntry(entries,inbuilt.getKey()).attributeNameSet,inbuilt.getValue());
+        }
+        for (Entry entry : entries.values()) {
+            entry.attributeNames = entry.attributeNameSet.toArray(new String[entry.attributeNameSet.size()]);
+        }
+    }
+
+    private Entry getEntry(Map<String,Entry> entries,String objectName){
+        Entry entry = entries.get(objectName);
+        if(entry == null){
+            entry = createEntry(objectName);
+            entries.put(objectName,entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 解析objectName配置,并加入对应的索引
+     * @param objectName
+     * @return
+     */
+    private Entry createEntry(String objectName){
+        int index = objectName.indexOf(':');
+        String domain = index == -1 ? objectName : objectName.substring(0,index);
+        Map<String,String> keyProperties = new LinkedHashMap<>();
+        boolean valid = !domain.isEmpty() && domain.indexOf('=') == -1 && domain.indexOf(',') == -1;
+        if(valid && index != -1){
+            for (String property : objectName.substring(index + 1).split(",")) {
+                int eq = property.indexOf('=');
+                if(eq <= 0){
+                    valid = false;
+                    break;
+                }
+                keyProperties.put(property.substring(0,eq).trim(),property.substring(eq + 1).trim());
+            }
+        }
+        Entry entry = new Entry(keyProperties);
+        if(valid){
+            domainIndex.computeIfAbsent(domain,k -> new ArrayList<>()).add(entry);
+        }else{
+            containsIndex.put(objectName,entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 索引的所有监控配置
+     * @return
+     */
+    public Set<JMXMetricsConfiguration> getConfigurations() {
+        return configurations;
+    }
+
+    /**
+     * 与ObjectName匹配的监控配置
+     * @param objectName
+     * @return
+     */
+    public List<JMXMetricsConfiguration> match(ObjectName objectName){
+        List<JMXMetricsConfiguration> result = null;
+        for (Entry entry : matchEntries(objectName)) {
+            if(result == null){
+                result = new ArrayList<>();
+            }
+            result.addAll(entry.configurations);
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * 与ObjectName匹配的监控配置中需要获取的属性名
+     * @param objectName
+     * @return
+     */
+    public String[] getAttributeNames(ObjectName objectName){
+        List<Entry> entries = matchEntries(objectName);
+        if(entries.isEmpty()){
+            return EMPTY;
+        }
+        if(entries.size() == 1){
+            return entries.get(0).attributeNames;
+        }
+        Set<String> attributeNames = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            Collections.addAll(attributeNames,entry.attributeNames);
+        }
+        return attributeNames.toArray(new String[attributeNames.size()]);
+    }
+
+    private List<Entry> matchEntries(ObjectName objectName){
+        List<Entry> result = null;
+        List<Entry> entries = domainCache.computeIfAbsent(objectName.getDomain(),this::domainEntries);
+        if(!entries.isEmpty()){
+            for (Entry entry : entries) {
+                if(entry.match(objectName)){
+                    if(result == null){
+                        result = new ArrayList<>(2);
+                    }
+                    result.add(entry);
+                }
+            }
+        }
+        if(!containsIndex.isEmpty()){
+            String name = objectName.toString();
+            for (Map.Entry<String, Entry> entry : containsIndex.entrySet()) {
+                if(name.contains(entry.getKey())){
+                    if(result == null){
+                        result = new ArrayList<>(2);
+                    }
+                    result.add(entry.getValue());
+                }
+            }
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    private List<Entry> domainEntries(String domain){
+        List<Entry> result = new ArrayList<>();
+        for (Map.Entry<String, List<Entry>> entry : domainIndex.entrySet()) {
+            if(domain.contains(entry.getKey())){
+                result.addAll(entry.getValue());
+            }
+        }
+        return result.isEmpty() ? Collections.emptyList() : result;
+    }
+}
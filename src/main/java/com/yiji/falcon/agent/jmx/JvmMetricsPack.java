@@ -0,0 +1,284 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.jmx.vo.JMXObjectNameInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 所有JMX插件內建的JVM监控
+ * 需要的平台MXBean属性通过 {@link #ATTRIBUTES} 加入监控配置索引,随监控配置的属性在每个MBean的一次getAttributes调用中获取,
+ * 不产生额外的JMX调用(死锁线程数除外,需要调用一次 findDeadlockedThreads 操作)
+ *
+ * 监控项:
+ * 内存:HeapMemoryCommitted HeapMemoryFree HeapMemoryMax HeapMemoryUsed HeapMemoryUsedRatio NonHeapMemoryCommitted NonHeapMemoryUsed
+ * 内存池(tag pool):MemoryPoolUsed MemoryPoolCommitted MemoryPoolMax
+ * GC(tag collector):GcCollectionCount GcCollectionTime
+ * 线程:ThreadCount DaemonThreadCount PeakThreadCount TotalStartedThreadCount DeadlockedThreadCount
+ * 类加载:LoadedClassCount TotalLoadedClassCount UnloadedClassCount
+ * Buffer Pool(tag bufferPool):BufferPoolCount BufferPoolMemoryUsed BufferPoolTotalCapacity
+ * JIT编译:TotalCompilationTime
+ * 进程:ProcessCpuLoad OpenFileDescriptorCount MaxFileDescriptorCount FileDescriptorUsedRatio
+ */
+public class JvmMetricsPack {
+
+    private static final Logger log = LoggerFactory.getLogger(JvmMetricsPack.class);
+
+    private static final String JAVA_LANG = "java.lang";
+    private static final String JAVA_NIO = "java.nio";
+
+    /**
+     * 死锁线程数,由 findDeadlockedThreads 操作获取后与属性值一起保存
+     */
+    public static final String DEADLOCKED_THREAD_COUNT = "DeadlockedThreadCount";
+
+    /**
+     * 需要获取的属性,key为objectName(domain及type),value为属性名
+     */
+    public static final Map<String,String[]> ATTRIBUTES;
+
+    static {
+        Map<String,String[]> attributes = new LinkedHashMap<>();
+        attributes.put("java.lang:type=Memory",new String[]{"HeapMemoryUsage","NonHeapMemoryUsage"});
+        attributes.put("java.lang:type=MemoryPool",new String[]{"Usage"});
+        attributes.put("java.lang:type=GarbageCollector",new String[]{"CollectionCount","CollectionTime"});
+        attributes.put("java.lang:type=Threading",new String[]{"ThreadCount","DaemonThreadCount","PeakThreadCount","TotalStartedThreadCount"});
+        attributes.put("java.lang:type=ClassLoading",new String[]{"LoadedClassCount","TotalLoadedClassCount","UnloadedClassCount"});
+        attributes.put("java.lang:type=Compilation",new String[]{"TotalCompilationTime"});
+        attributes.put("java.lang:type=OperatingSystem",new String[]{"ProcessCpuLoad","OpenFileDescriptorCount","MaxFileDescriptorCount"});
+        attributes.put("java.nio:type=BufferPool",new String[]{"Count","MemoryUsed","TotalCapacity"});
+        ATTRIBUTES = Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * 取值时对Threading MBean获取死锁线程数,保存到属性值中
+     * @param connection
+     * @param objectName
+     * @param values
+     * MBean的属性值
+     * @throws IOException
+     */
+    public static void collectDeadlockedThreads(MBeanServerConnection connection,ObjectName objectName,Map<String,Object> values) throws IOException {
+        if(!JAVA_LANG.equals(objectName.getDomain()) || !"Threading".equals(objectName.getKeyProperty("type"))){
+            return;
+        }
+        try {
+            Object threadIds = connection.invoke(objectName,"findDeadlockedThreads",null,null);
+            values.put(DEADLOCKED_THREAD_COUNT,threadIds instanceof long[] ? ((long[]) threadIds).length : 0);
+        } catch (JMException e) {
+            log.debug("获取 {} 的死锁线程失败: {}",objectName,e.getMessage());
+        }
+    }
+
+    /**
+     * 根据一个JMX连接获取到的属性值计算JVM监控值
+     * @param objectNameInfos
+     * @return
+     */
+    public static List<Metric> compute(Collection<JMXObjectNameInfo> objectNameInfos){
+        List<Metric> metrics = new ArrayList<>();
+        for (JMXObjectNameInfo objectNameInfo : objectNameInfos) {
+            ObjectName objectName = objectNameInfo.getObjectName();
+            String type = objectName.getKeyProperty("type");
+            if(type == null || objectNameInfo.getMetricsValue() == null || objectNameInfo.getMetricsValue().isEmpty()){
+                continue;
+            }
+            if(JAVA_NIO.equals(objectName.getDomain())){
+                if("BufferPool".equals(type)){
+                    bufferPool(metrics,objectNameInfo);
+                }
+                continue;
+            }
+            if(!JAVA_LANG.equals(objectName.getDomain())){
+                continue;
+            }
+            switch (type){
+                case "Memory":
+                    memory(metrics,objectNameInfo);
+                    break;
+                case "MemoryPool":
+                    memoryPool(metrics,objectNameInfo);
+                    break;
+                case "GarbageCollector":
+                    String collector = "collector=" + tagValue(objectName.getKeyProperty("name"));
+                    add(metrics,objectNameInfo,"GcCollectionCount",collector,CounterType.COUNTER,"CollectionCount");
+                    add(metrics,objectNameInfo,"GcCollectionTime",collector,CounterType.COUNTER,"CollectionTime");
+                    break;
+                case "Threading":
+                    add(metrics,objectNameInfo,"ThreadCount",null,CounterType.GAUGE,"ThreadCount");
+                    add(metrics,objectNameInfo,"DaemonThreadCount",null,CounterType.GAUGE,"DaemonThreadCount");
+                    add(metrics,objectNameInfo,"PeakThreadCount",null,CounterType.GAUGE,"PeakThreadCount");
+                    add(metrics,objectNameInfo,"TotalStartedThreadCount",null,CounterType.COUNTER,"TotalStartedThreadCount");
+                    add(metrics,objectNameInfo,DEADLOCKED_THREAD_COUNT,null,CounterType.GAUGE,DEADLOCKED_THREAD_COUNT);
+                    break;
+                case "ClassLoading":
+                    add(metrics,objectNameInfo,"LoadedClassCount",null,CounterType.GAUGE,"LoadedClassCount");
+                    add(metrics,objectNameInfo,"TotalLoadedClassCount",null,CounterType.COUNTER,"TotalLoadedClassCount");
+                    add(metrics,objectNameInfo,"UnloadedClassCount",null,CounterType.COUNTER,"UnloadedClassCount");
+                    break;
+                case "Compilation":
+                    add(metrics,objectNameInfo,"TotalCompilationTime",null,CounterType.COUNTER,"TotalCompilationTime");
+                    break;
+                case "OperatingSystem":
+                    operatingSystem(metrics,objectNameInfo);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return metrics;
+    }
+
+    private static void memory(List<Metric> metrics,JMXObjectNameInfo objectNameInfo){
+        Object heap = objectNameInfo.getValue("HeapMemoryUsage");
+        Object nonHeap = objectNameInfo.getValue("NonHeapMemoryUsage");
+        if(heap instanceof CompositeData){
+            long used = longValue(heap,"used");
+            long max = longValue(heap,"max");
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"HeapMemoryCommitted",null,CounterType.GAUGE,String.valueOf(longValue(heap,"committed"))));
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"HeapMemoryMax",null,CounterType.GAUGE,String.valueOf(max)));
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"HeapMemoryUsed",null,CounterType.GAUGE,String.valueOf(used)));
+            if(max > 0){
+                metrics.add(new Metric(objectNameInfo.getObjectName(),"HeapMemoryFree",null,CounterType.GAUGE,String.valueOf(max - used)));
+                metrics.add(new Metric(objectNameInfo.getObjectName(),"HeapMemoryUsedRatio",null,CounterType.GAUGE,String.valueOf(ratio(used,max))));
+            }
+        }
+        if(nonHeap instanceof CompositeData){
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"NonHeapMemoryCommitted",null,CounterType.GAUGE,String.valueOf(longValue(nonHeap,"committed"))));
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"NonHeapMemoryUsed",null,CounterType.GAUGE,String.valueOf(longValue(nonHeap,"used"))));
+        }
+    }
+
+    private static void memoryPool(List<Metric> metrics,JMXObjectNameInfo objectNameInfo){
+        Object usage = objectNameInfo.getValue("Usage");
+        if(!(usage instanceof CompositeData)){
+            return;
+        }
+        String pool = "pool=" + tagValue(objectNameInfo.getObjectName().getKeyProperty("name"));
+        metrics.add(new Metric(objectNameInfo.getObjectName(),"MemoryPoolUsed",pool,CounterType.GAUGE,String.valueOf(longValue(usage,"used"))));
+        metrics.add(new Metric(objectNameInfo.getObjectName(),"MemoryPoolCommitted",pool,CounterType.GAUGE,String.valueOf(longValue(usage,"committed"))));
+        metrics.add(new Metric(objectNameInfo.getObjectName(),"MemoryPoolMax",pool,CounterType.GAUGE,String.valueOf(longValue(usage,"max"))));
+    }
+
+    private static void bufferPool(List<Metric> metrics,JMXObjectNameInfo objectNameInfo){
+        String bufferPool = "bufferPool=" + tagValue(objectNameInfo.getObjectName().getKeyProperty("name"));
+        add(metrics,objectNameInfo,"BufferPoolCount",bufferPool,CounterType.GAUGE,"Count");
+        add(metrics,objectNameInfo,"BufferPoolMemoryUsed",bufferPool,CounterType.GAUGE,"MemoryUsed");
+        add(metrics,objectNameInfo,"BufferPoolTotalCapacity",bufferPool,CounterType.GAUGE,"TotalCapacity");
+    }
+
+    private static void operatingSystem(List<Metric> metrics,JMXObjectNameInfo objectNameInfo){
+        Object cpuLoad = objectNameInfo.getValue("ProcessCpuLoad");
+        //不可用时为负数
+        if(cpuLoad instanceof Number && ((Number) cpuLoad).doubleValue() >= 0){
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"ProcessCpuLoad",null,CounterType.GAUGE,
+                    String.valueOf(Math.round(((Number) cpuLoad).doubleValue() * 10000) / 100.0)));
+        }
+        Object open = objectNameInfo.getValue("OpenFileDescriptorCount");
+        Object max = objectNameInfo.getValue("MaxFileDescriptorCount");
+        if(open instanceof Number){
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"OpenFileDescriptorCount",null,CounterType.GAUGE,String.valueOf(((Number) open).longValue())));
+        }
+        if(max instanceof Number){
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"MaxFileDescriptorCount",null,CounterType.GAUGE,String.valueOf(((Number) max).longValue())));
+        }
+        if(open instanceof Number && max instanceof Number && ((Number) max).longValue() > 0){
+            metrics.add(new Metric(objectNameInfo.getObjectName(),"FileDescriptorUsedRatio",null,CounterType.GAUGE,
+                    String.valueOf(ratio(((Number) open).longValue(),((Number) max).longValue()))));
+        }
+    }
+
+    private static void add(List<Metric> metrics,JMXObjectNameInfo objectNameInfo,String metric,String tags,CounterType counterType,String attribute){
+        Object value = objectNameInfo.getValue(attribute);
+        if(value instanceof Number){
+            metrics.add(new Metric(objectNameInfo.getObjectName(),metric,tags,counterType,String.valueOf(((Number) value).longValue())));
+        }
+    }
+
+    /**
+     * 百分比,保留两位小数
+     * @param value
+     * @param total
+     * @return
+     */
+    static double ratio(long value,long total){
+        return Math.round(value * 10000.0 / total) / 100.0;
+    }
+
+    private static long longValue(Object compositeData,String key){
+        Object value = ((CompositeData) compositeData).get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /**
+     * tag值中不能包含空格、逗号及等号
+     * @param value
+     * @return
+     */
+    private static String tagValue(String value){
+        return value == null ? "" : value.replace(' ','_').replace(',','_').replace('=','_');
+    }
+
+    /**
+     * 一个JVM监控值
+     */
+    public static class Metric {
+        private final ObjectName objectName;
+        private final String metric;
+        private final String tags;
+        private final CounterType counterType;
+        private final String value;
+
+        Metric(ObjectName objectName, String metric, String tags, CounterType counterType, String value) {
+            this.objectName = objectName;
+            this.metric = metric;
+            this.tags = tags;
+            this.counterType = counterType;
+            this.value = value;
+        }
+
+        public ObjectName getObjectName() {
+            return objectName;
+        }
+
+        public String getMetric() {
+            return metric;
+        }
+
+        /**
+         * 附加的tag,可为null
+         */
+        public String getTags() {
+            return tags;
+        }
+
+        public CounterType getCounterType() {
+            return counterType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "Metric{" +
+                    "metric='" + metric + '\'' +
+                    ", tags='" + tags + '\'' +
+                    ", counterType=" + counterType +
+                    ", value='" + value + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
+import com.yiji.falcon.agent.util.ProcessMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 本地JVM发现
+ * 所有JMX插件共用一份JVM快照(进程号 -> {@link JvmDescriptor}),快照超过 agent.jmx.discovery.interval 秒时重新扫描,
+ * 扫描的次数与配置的JMX插件及服务名的个数无关
+ *
+ * 扫描内容:
+ * 1、VirtualMachine.list(),即Agent所在命名空间的 /tmp/hsperfdata_* 中的JVM
+ * 2、Linux下,其他mount命名空间(容器)内的进程,通过 /proc/[pid]/root/tmp/hsperfdata_* 判断是否为JVM
+ *
+ * 容器内的JVM无法attach,其JMX端口也不能通过本机地址访问,只用于hsperfdata的监控,不作为JMX连接的目标(见 {@link Snapshot#find(String)})
+ */
+public class LocalJvmDiscovery {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalJvmDiscovery.class);
+
+    private static final File PROC = new File("/proc");
+
+    private static volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(),0);
+
+    /**
+     * 获取JVM快照,快照过期时重新扫描
+     * @return
+     */
+    public static Snapshot getSnapshot(){
+        Snapshot current = snapshot;
+        long interval = AgentConfiguration.INSTANCE.getJmxDiscoveryInterval() * 1000L;
+        if(System.currentTimeMillis() - current.getScanTime() < interval){
+            return current;
+        }
+        synchronized (LocalJvmDiscovery.class){
+            //其他线程已完成扫描
+            if(System.currentTimeMillis() - snapshot.getScanTime() < interval){
+                return snapshot;
+            }
+            return refresh();
+        }
+    }
+
+    /**
+     * 立即重新扫描
+     * @return
+     */
+    public static synchronized Snapshot refresh(){
+        Map<Integer,JvmDescriptor> jvms = new LinkedHashMap<>();
+        Map<Integer,File> perfDataFiles = perfDataFiles(new File(System.getProperty("java.io.tmpdir")));
+        for (VirtualMachineDescriptor desc : VirtualMachine.list()) {
+            try {
+                int pid = Integer.parseInt(desc.id());
+                jvms.put(pid,new JvmDescriptor(pid,pid,desc.displayName(),perfDataFiles.get(pid),false,ProcessMetadata.startTime(pid)));
+            } catch (NumberFormatException e) {
+                log.debug("忽略无法识别的JVM: {}",desc);
+            }
+        }
+        if(PROC.isDirectory()){
+            scanContainers(jvms);
+        }
+        snapshot = new Snapshot(Collections.unmodifiableMap(jvms),System.currentTimeMillis());
+        return snapshot;
+    }
+
+    /**
+     * 扫描其他mount命名空间内的JVM
+     * @param jvms
+     */
+    private static void scanContainers(Map<Integer,JvmDescriptor> jvms){
+        String selfMountNs = readLink(new File(PROC,"self/ns/mnt"));
+        if(selfMountNs == null){
+            return;
+        }
+        File[] processes = PROC.listFiles();
+        if(processes == null){
+            return;
+        }
+        for (File process : processes) {
+            int pid;
+            try {
+                pid = Integer.parseInt(process.getName());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if(jvms.containsKey(pid)){
+                continue;
+            }
+            String mountNs = readLink(new File(process,"ns/mnt"));
+            if(mountNs == null || mountNs.equals(selfMountNs)){
+                continue;
+            }
+            int nsPid = nsPid(process,pid);
+            File perfDataFile = perfDataFiles(new File(process,"root/tmp")).get(nsPid);
+            if(perfDataFile != null){
+                jvms.put(pid,new JvmDescriptor(pid,nsPid,javaCommand(readCmdline(process)),perfDataFile,true,ProcessMetadata.startTime(pid)));
+            }
+        }
+    }
+
+    /**
+     * 目录下 hsperfdata_* 中的hsperfdata文件(文件名为进程号)
+     * @param tmpDir
+     * @return
+     */
+    static Map<Integer,File> perfDataFiles(File tmpDir){
+        Map<Integer,File> files = new HashMap<>();
+        File[] dirs = tmpDir.listFiles((dir, name) -> name.startsWith("hsperfdata_"));
+        if(dirs == null){
+            return files;
+        }
+        for (File dir : dirs) {
+            File[] perfData = dir.listFiles();
+            if(perfData == null){
+                continue;
+            }
+            for (File file : perfData) {
+                try {
+                    files.put(Integer.parseInt(file.getName()),file);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 进程在其所在pid命名空间中的进程号(/proc/[pid]/status 的 NSpid 最后一列)
+     * @param process
+     * @param pid
+     * @return
+     */
+    private static int nsPid(File process,int pid){
+        try {
+            for (String line : Files.readAllLines(new File(process,"status").toPath(),StandardCharsets.UTF_8)) {
+                if(line.startsWith("NSpid:")){
+                    String[] ids = line.substring("NSpid:".length()).trim().split("\\s+");
+                    return Integer.parseInt(ids[ids.length - 1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("读取进程 {} 的NSpid失败: {}",pid,e.getMessage());
+        }
+        return pid;
+    }
+
+    private static String[] readCmdline(File process){
+        try {
+            byte[] bytes = Files.readAllBytes(new File(process,"cmdline").toPath());
+            return new String(bytes,StandardCharsets.UTF_8).split("\0");
+        } catch (IOException e) {
+            return new String[0];
+        }
+    }
+
+    /**
+     * 由命令行参数得到JVM的启动命令(main类或jar及其参数),即hsperfdata中的 sun.rt.javaCommand
+     * @param cmdline
+     * @return
+     */
+    static String javaCommand(String[] cmdline){
+        for (int i = 1; i < cmdline.length; i++) {
+            String arg = cmdline[i];
+            if("-cp".equals(arg) || "-classpath".equals(arg) || "--class-path".equals(arg)
+                    || "-p".equals(arg) || "--module-path".equals(arg)){
+                i++;
+            }else if("-jar".equals(arg) || "-m".equals(arg) || "--module".equals(arg)){
+                return join(cmdline,i + 1);
+            }else if(!arg.startsWith("-")){
+                return join(cmdline,i);
+            }
+        }
+        return "";
+    }
+
+    private static String join(String[] args,int from){
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < args.length; i++) {
+            if(sb.length() > 0){
+                sb.append(' ');
+            }
+            sb.append(args[i]);
+        }
+        return sb.toString();
+    }
+
+    private static String readLink(File file){
+        try {
+            return Files.readSymbolicLink(Paths.get(file.getPath())).toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 一次扫描得到的JVM快照,创建后不再修改
+     */
+    public static class Snapshot {
+        private final Map<Integer,JvmDescriptor> jvms;
+        private final long scanTime;
+
+        Snapshot(Map<Integer,JvmDescriptor> jvms, long scanTime) {
+            this.jvms = jvms;
+            this.scanTime = scanTime;
+        }
+
+        /**
+         * 所有JVM,key为进程号
+         * @return
+         */
+        public Map<Integer, JvmDescriptor> getJvms() {
+            return jvms;
+        }
+
+        public JvmDescriptor get(int pid){
+            return jvms.get(pid);
+        }
+
+        /**
+         * 启动命令包含指定服务名的JVM,即JMX连接的目标
+         * 不包含其他命名空间(容器)内的JVM
+         * @param serverName
+         * @return
+         */
+        public List<JvmDescriptor> find(String serverName){
+            List<JvmDescriptor> result = new ArrayList<>();
+            for (JvmDescriptor descriptor : jvms.values()) {
+                if(!descriptor.isContainer() && descriptor.displayName().contains(serverName)){
+                    result.add(descriptor);
+                }
+            }
+            return result;
+        }
+
+        public long getScanTime() {
+            return scanTime;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个JMX连接的MBean缓存
+ * 缓存MBean的ObjectName、MBeanInfo中的属性名及与监控配置匹配的属性名(按监控配置索引分别缓存,同一JVM的多个JMX插件共用此缓存),
+ * 通过订阅 MBeanServerDelegate 的MBean注册及注销通知维护缓存,应用(如Tomcat中的webapp)部署或卸载时无需重新扫描所有MBean
+ *
+ * 通知订阅失败时,每次获取都重新查询ObjectName;为避免通知丢失导致缓存不一致,缓存每 {@link #REFRESH_INTERVAL} 毫秒完整刷新一次
+ */
+public class MBeanCache implements NotificationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(MBeanCache.class);
+
+    /**
+     * 缓存的完整刷新周期(毫秒)
+     */
+    static final long REFRESH_INTERVAL = 10 * 60 * 1000;
+
+    private static final String[] EMPTY = new String[0];
+
+    private final MBeanServerConnection mBeanServerConnection;
+    private final Set<ObjectName> objectNames = ConcurrentHashMap.newKeySet();
+    /**
+     * MBeanInfo中的属性名
+     */
+    private final Map<ObjectName,String[]> mBeanAttributeNames = new ConcurrentHashMap<>();
+    /**
+     * 与监控配置匹配的属性名,key为监控配置索引
+     * 监控配置重新加载后,旧的索引不再被引用,其缓存随之回收
+     */
+    private final Map<JMXMetricsConfigIndex,Map<ObjectName,String[]>> configAttributeNames =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private volatile boolean listening = false;
+    private volatile boolean stale = true;
+    private volatile long lastRefreshTime = 0;
+
+    public MBeanCache(MBeanServerConnection mBeanServerConnection) {
+        this.mBeanServerConnection = mBeanServerConnection;
+        try {
+            NotificationFilterSupport filter = new NotificationFilterSupport();
+            filter.enableType(MBeanServerNotification.REGISTRATION_NOTIFICATION);
+            filter.enableType(MBeanServerNotification.UNREGISTRATION_NOTIFICATION);
+            mBeanServerConnection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME,this,filter,null);
+            listening = true;
+        } catch (Exception e) {
+            log.warn("订阅MBean注册通知失败,将在每次获取监控值时重新查询MBean: {}",e.getMessage());
+        }
+    }
+
+    /**
+     * 所有MBean的ObjectName
+     * @return
+     * @throws IOException
+     */
+    public Set<ObjectName> getObjectNames() throws IOException {
+        long now = System.currentTimeMillis();
+        if(!listening || stale || now - lastRefreshTime >= REFRESH_INTERVAL){
+            //先标记为已刷新,刷新期间收到的通知将在查询结果的基础上继续生效
+            stale = false;
+            lastRefreshTime = now;
+            Set<ObjectName> names = mBeanServerConnection.queryNames(null,null);
+            objectNames.retainAll(names);
+            objectNames.addAll(names);
+            mBeanAttributeNames.keySet().retainAll(names);
+            synchronized (configAttributeNames){
+                configAttributeNames.values().forEach(map -> map.keySet().retainAll(names));
+            }
+        }
+        return Collections.unmodifiableSet(objectNames);
+    }
+
+    /**
+     * MBean的所有属性名(来自MBeanInfo)
+     * @param objectName
+     * @return
+     * @throws IOException
+     */
+    public String[] getAllAttributeNames(ObjectName objectName) throws IOException {
+        String[] attributeNames = mBeanAttributeNames.get(objectName);
+        if(attributeNames == null){
+            try {
+                MBeanAttributeInfo[] attributeInfos = mBeanServerConnection.getMBeanInfo(objectName).getAttributes();
+                attributeNames = new String[attributeInfos.length];
+                for (int i = 0; i < attributeInfos.length; i++) {
+                    attributeNames[i] = attributeInfos[i].getName();
+                }
+            } catch (JMException e) {
+                log.debug("获取 {} 的MBeanInfo失败: {}",objectName,e.getMessage());
+                attributeNames = EMPTY;
+            }
+            mBeanAttributeNames.put(objectName,attributeNames);
+        }
+        return attributeNames;
+    }
+
+    /**
+     * 监控配置中与ObjectName匹配的属性名
+     * @param objectName
+     * @param configIndex
+     * @return
+     */
+    public String[] getConfigAttributeNames(ObjectName objectName,JMXMetricsConfigIndex configIndex){
+        if(configIndex == null){
+            return EMPTY;
+        }
+        Map<ObjectName,String[]> matched = configAttributeNames.computeIfAbsent(configIndex,k -> new ConcurrentHashMap<>());
+        return matched.computeIfAbsent(objectName,configIndex::getAttributeNames);
+    }
+
+    /**
+     * 清除缓存,下一次获取时重新查询
+     */
+    public void invalidate(){
+        stale = true;
+        mBeanAttributeNames.clear();
+        configAttributeNames.clear();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if(!(notification instanceof MBeanServerNotification)){
+            return;
+        }
+        ObjectName objectName = ((MBeanServerNotification) notification).getMBeanName();
+        if(MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())){
+            objectNames.add(objectName);
+        }else if(MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())){
+            objectNames.remove(objectName);
+            mBeanAttributeNames.remove(objectName);
+            synchronized (configAttributeNames){
+                configAttributeNames.values().forEach(map -> map.remove(objectName));
+            }
+        }
+    }
+}
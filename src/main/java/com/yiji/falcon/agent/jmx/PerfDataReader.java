@@ -0,0 +1,179 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * hsperfdata(jvmstat)文件的读取
+ * 以只读方式mmap JVM的 /tmp/hsperfdata_[user]/[pid] 文件,直接解析其中的计数器,不需要JMX连接或attach
+ *
+ * 文件格式(v2):
+ * 头部: magic(0xcafec0c0) byteOrder majorVersion minorVersion accessible used overflow modTimeStamp entryOffset numEntries
+ * 计数器: entryLength nameOffset vectorLength dataType flags dataUnits dataVariability dataOffset,名称以\0结尾
+ *
+ * 计数器的名称索引只在计数器个数变化时重新建立,之后通过 {@link #offsetOf(String)} 得到的位置读取值,读取不产生对象分配
+ */
+public class PerfDataReader {
+
+    private static final int MAGIC = 0xcafec0c0;
+    private static final int NUM_ENTRIES_OFFSET = 28;
+    private static final byte TYPE_LONG = 'J';
+    private static final byte TYPE_BYTE = 'B';
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    /**
+     * 计数器名称 -> {数据位置,类型,vector长度}
+     */
+    private Map<String,int[]> entries = Collections.emptyMap();
+    private int indexedEntries = -1;
+
+    public PerfDataReader(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file,"r");
+             FileChannel channel = randomAccessFile.getChannel()){
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }
+        if(buffer.capacity() < 32){
+            throw new IOException("hsperfdata文件格式错误: " + file);
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if(buffer.getInt(0) != MAGIC){
+            throw new IOException("hsperfdata文件格式错误: " + file);
+        }
+        buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        index();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * JVM是否已完成初始化(文件可读取)
+     * @return
+     */
+    public boolean isAccessible(){
+        return buffer.get(7) != 0;
+    }
+
+    /**
+     * 计数器个数变化(JVM运行中新增了计数器)时重新建立名称索引
+     * @return
+     * 是否重新建立了索引,重新建立后之前通过 {@link #offsetOf(String)} 得到的位置仍然有效
+     */
+    public synchronized boolean index(){
+        int numEntries = buffer.getInt(NUM_ENTRIES_OFFSET);
+        if(numEntries == indexedEntries){
+            return false;
+        }
+        Map<String,int[]> map = new HashMap<>(numEntries * 2);
+        int start = buffer.getInt(24);
+        int limit = buffer.capacity();
+        for (int i = 0; i < numEntries && start > 0 && start + 20 <= limit; i++) {
+            int entryLength = buffer.getInt(start);
+            if(entryLength <= 0){
+                break;
+            }
+            int nameStart = start + buffer.getInt(start + 4);
+            int nameEnd = nameStart;
+            while (nameEnd < limit && buffer.get(nameEnd) != 0){
+                nameEnd++;
+            }
+            byte[] name = new byte[nameEnd - nameStart];
+            for (int j = 0; j < name.length; j++) {
+                name[j] = buffer.get(nameStart + j);
+            }
+            map.put(new String(name,StandardCharsets.US_ASCII),
+                    new int[]{start + buffer.getInt(start + 16),buffer.get(start + 12),buffer.getInt(start + 8)});
+            start += entryLength;
+        }
+        entries = map;
+        indexedEntries = numEntries;
+        return true;
+    }
+
+    /**
+     * long类型计数器的数据位置
+     * @param name
+     * @return
+     * 计数器不存在或不是long类型时返回-1
+     */
+    public int offsetOf(String name){
+        int[] entry = entries.get(name);
+        if(entry == null || entry[1] != TYPE_LONG || entry[2] != 0){
+            return -1;
+        }
+        return entry[0];
+    }
+
+    /**
+     * 名称匹配的所有long类型计数器的名称
+     * @param pattern
+     * @return
+     */
+    public List<String> names(Pattern pattern){
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : entries.entrySet()) {
+            if(entry.getValue()[1] == TYPE_LONG && pattern.matcher(entry.getKey()).matches()){
+                names.add(entry.getKey());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * 读取 {@link #offsetOf(String)} 位置的值
+     * @param offset
+     * @return
+     * offset为-1时返回0
+     */
+    public long getLong(int offset){
+        return offset < 0 ? 0 : buffer.getLong(offset);
+    }
+
+    /**
+     * 读取long类型计数器
+     * @param name
+     * @return
+     * 计数器不存在时返回0
+     */
+    public long getLong(String name){
+        return getLong(offsetOf(name));
+    }
+
+    /**
+     * 读取字符串类型计数器(如 sun.rt.javaCommand)
+     * @param name
+     * @return
+     * 计数器不存在时返回null
+     */
+    public String getString(String name){
+        int[] entry = entries.get(name);
+        if(entry == null || entry[1] != TYPE_BYTE){
+            return null;
+        }
+        byte[] bytes = new byte[entry[2]];
+        int length = 0;
+        while (length < bytes.length){
+            byte b = buffer.get(entry[0] + length);
+            if(b == 0){
+                break;
+            }
+            bytes[length++] = b;
+        }
+        return new String(bytes,0,length,StandardCharsets.UTF_8);
+    }
+}
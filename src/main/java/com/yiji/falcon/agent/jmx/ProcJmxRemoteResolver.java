@@ -0,0 +1,268 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import com.yiji.falcon.agent.util.ProcessMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于/proc文件系统的JMX Remote连接地址及认证信息的获取
+ * 直接读取 /proc/[pid]/cmdline、/proc/[pid]/environ 及JMX授权文件,不再执行 ps、cp、chmod、cat 等命令
+ *
+ * 1、JMX Remote配置取自启动参数(-Dcom.sun.management.jmxremote.*),
+ *    以及 com.sun.management.config.file 或 JDK 默认的 management.properties,启动参数优先
+ * 2、开启认证时(JVM默认开启),授权文件未配置时使用JDK目录下的 jmxremote.access 及 jmxremote.password
+ * 3、相对路径相对于进程的工作目录,所有文件通过 /proc/[pid]/root 读取,容器内的JVM同样适用
+ *
+ * 结果按进程号及进程启动时间缓存,启动参数及授权文件只在JVM启动时生效,同一个JVM不需要重复读取
+ */
+public class ProcJmxRemoteResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcJmxRemoteResolver.class);
+
+    private static final File PROC = new File("/proc");
+    private static final String PREFIX = "com.sun.management.";
+    private static final String JMX_PORT = "com.sun.management.jmxremote.port";
+    private static final String JMX_AUTHENTICATE = "com.sun.management.jmxremote.authenticate";
+    private static final String JMX_ACCESS_FILE = "com.sun.management.jmxremote.access.file";
+    private static final String JMX_PASSWORD_FILE = "com.sun.management.jmxremote.password.file";
+    private static final String CONFIG_FILE = "com.sun.management.config.file";
+
+    /**
+     * 缓存的最大个数,超过时清空
+     */
+    private static final int CACHE_LIMIT = 1024;
+
+    private static final Map<String,Resolved> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 是否可以使用/proc获取
+     * @return
+     */
+    public static boolean isSupported(){
+        return new File(PROC,"self/cmdline").exists();
+    }
+
+    /**
+     * 获取进程的JMX Remote连接地址
+     * @param pid
+     * @param ip
+     * 应用所在的IP地址
+     * @return
+     * 未配置JMX Remote或获取失败时返回null
+     */
+    public static JMXConnectUrlInfo resolve(int pid,String ip){
+        String key = pid + "-" + ProcessMetadata.startTime(pid) + "-" + ip;
+        Resolved resolved = cache.get(key);
+        if(resolved == null){
+            logger.info("JMX Remote Target Pid:{}", pid);
+            try {
+                resolved = new Resolved(resolve(new File(PROC,String.valueOf(pid)),ip));
+            } catch (IOException e) {
+                //进程已退出或无权限读取,不缓存
+                logger.error("JMX Remote Url 获取异常: {}",e.getMessage());
+                return null;
+            }
+            if(cache.size() >= CACHE_LIMIT){
+                cache.clear();
+            }
+            cache.put(key,resolved);
+        }
+        return resolved.copy();
+    }
+
+    /**
+     * 从进程目录获取JMX Remote连接地址
+     * @param process
+     * /proc/[pid] 目录
+     * @param ip
+     * @return
+     * @throws IOException
+     */
+    static JMXConnectUrlInfo resolve(File process,String ip) throws IOException {
+        String[] cmdline = readNullSeparated(new File(process,"cmdline"));
+        Properties options = new Properties();
+        for (String arg : cmdline) {
+            if(arg.startsWith("-D" + PREFIX)){
+                int eq = arg.indexOf('=');
+                options.setProperty(eq == -1 ? arg.substring(2) : arg.substring(2,eq),eq == -1 ? "" : arg.substring(eq + 1));
+            }
+        }
+        String javaHome = javaHome(process);
+        Properties config = readManagementConfig(process,options,javaHome);
+
+        String port = option(options,config,JMX_PORT);
+        if(port == null){
+            logger.warn("从启动命令未找到JMX Remote 配置:{}",String.join(" ",cmdline));
+            return null;
+        }
+        JMXConnectUrlInfo remoteUrlInfo = new JMXConnectUrlInfo();
+        remoteUrlInfo.setRemoteUrl("service:jmx:rmi:///jndi/rmi://" + ip + ":" + port.trim() + "/jmxrmi");
+        String authenticate = option(options,config,JMX_AUTHENTICATE);
+        boolean isAuth = authenticate == null || "true".equalsIgnoreCase(authenticate.trim());
+        remoteUrlInfo.setAuthentication(isAuth);
+        if(!isAuth){
+            return remoteUrlInfo;
+        }
+
+        String accessFile = option(options,config,JMX_ACCESS_FILE);
+        String passwordFile = option(options,config,JMX_PASSWORD_FILE);
+        String user = AbstractJmxCommand.getJmxUser(readFile(process,accessFile,javaHome,"jmxremote.access"));
+        String password = AbstractJmxCommand.getJmxPassword(readFile(process,passwordFile,javaHome,"jmxremote.password"),user);
+        if(user == null || password == null){
+            logger.error("JMX Remote Authentication 授权用户获取失败");
+            return null;
+        }
+        remoteUrlInfo.setJmxUser(user);
+        remoteUrlInfo.setJmxPassword(password);
+        return remoteUrlInfo;
+    }
+
+    private static String option(Properties options,Properties config,String key){
+        String value = options.getProperty(key);
+        return value != null ? value : config.getProperty(key);
+    }
+
+    /**
+     * JVM的JAVA_HOME
+     * 优先取进程实际执行的java命令(/proc/[pid]/exe)所在的目录,无法读取时取进程环境变量中的JAVA_HOME
+     * @param process
+     * @return
+     * 获取失败时返回null
+     */
+    private static String javaHome(File process){
+        try {
+            File bin = Files.readSymbolicLink(new File(process,"exe").toPath()).toFile().getParentFile();
+            if(bin != null && bin.getParentFile() != null){
+                return bin.getParentFile().getPath();
+            }
+        } catch (Exception e) {
+            logger.debug("读取 {} 失败: {}",new File(process,"exe"),e.getMessage());
+        }
+        try {
+            for (String env : readNullSeparated(new File(process,"environ"))) {
+                if(env.startsWith("JAVA_HOME=")){
+                    return env.substring("JAVA_HOME=".length());
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("读取 {} 失败: {}",new File(process,"environ"),e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 读取 com.sun.management.config.file 或 JDK 默认的 management.properties
+     * @param process
+     * @param options
+     * @param javaHome
+     * @return
+     */
+    private static Properties readManagementConfig(File process,Properties options,String javaHome){
+        Properties config = new Properties();
+        File file = options.getProperty(CONFIG_FILE) != null ?
+                processFile(process,options.getProperty(CONFIG_FILE)) : jdkFile(process,javaHome,"management.properties");
+        if(file != null && file.isFile()){
+            try (InputStream in = new FileInputStream(file)){
+                config.load(in);
+            } catch (IOException e) {
+                logger.warn("读取JMX配置文件 {} 失败: {}",file,e.getMessage());
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 读取授权文件内容
+     * @param process
+     * @param path
+     * 配置的文件路径,未配置时为null
+     * @param javaHome
+     * @param defaultName
+     * JDK目录下默认的文件名
+     * @return
+     * @throws IOException
+     */
+    private static String readFile(File process,String path,String javaHome,String defaultName) throws IOException {
+        File file = path != null ? processFile(process,path) : jdkFile(process,javaHome,defaultName);
+        if(file == null){
+            throw new IOException("JAVA_HOME 读取失败,无法找到 " + defaultName);
+        }
+        return new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8);
+    }
+
+    /**
+     * JDK management目录下的文件(Java 8为 jre/lib/management,Java 9+ 为 conf/management)
+     * @param process
+     * @param javaHome
+     * @param name
+     * @return
+     */
+    private static File jdkFile(File process,String javaHome,String name){
+        if(javaHome == null){
+            return null;
+        }
+        File root = new File(process,"root");
+        String[] dirs = {"/jre/lib/management/","/lib/management/","/conf/management/"};
+        for (String dir : dirs) {
+            File file = new File(root,javaHome + dir + name);
+            if(file.isFile()){
+                return file;
+            }
+        }
+        return new File(root,javaHome + dirs[0] + name);
+    }
+
+    /**
+     * 进程视角的文件路径对应的文件
+     * @param process
+     * @param path
+     * @return
+     */
+    private static File processFile(File process,String path){
+        return path.startsWith("/") ? new File(new File(process,"root"),path) : new File(new File(process,"cwd"),path);
+    }
+
+    private static String[] readNullSeparated(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8).split("\0");
+    }
+
+    /**
+     * 缓存的获取结果
+     */
+    private static class Resolved {
+        private final JMXConnectUrlInfo info;
+
+        Resolved(JMXConnectUrlInfo info) {
+            this.info = info;
+        }
+
+        /**
+         * JMXConnectUrlInfo可修改,返回副本
+         * @return
+         */
+        JMXConnectUrlInfo copy(){
+            if(info == null){
+                return null;
+            }
+            JMXConnectUrlInfo copy = new JMXConnectUrlInfo(info.getRemoteUrl());
+            copy.setAuthentication(info.isAuthentication());
+            copy.setJmxUser(info.getJmxUser());
+            copy.setJmxPassword(info.getJmxPassword());
+            return copy;
+        }
+    }
+}
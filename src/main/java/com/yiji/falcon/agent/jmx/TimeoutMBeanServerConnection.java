@@ -0,0 +1,141 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有超时时间的MBeanServerConnection
+ * 目标JVM长时间GC停顿或RMI连接半断开时,getAttribute等调用可能一直阻塞,JMXConnectWithTimeout只限制了连接的建立,
+ * 此类将MBeanServerConnection的每一次调用放到单独的线程中执行,超过超时时间未返回时抛出 {@link CallTimeoutException}(IOException),
+ * 调用方按连接异常处理(连接标记为不可用,上报不可用的监控报告)
+ *
+ * 连续超时达到指定次数时,认为连接已挂起,回调 onHung(由连接池关闭并移除连接,关闭后挂起的调用也将结束)
+ */
+public class TimeoutMBeanServerConnection implements InvocationHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeoutMBeanServerConnection.class);
+
+    /**
+     * 执行调用的线程池,挂起的调用占用的线程在连接关闭后释放
+     */
+    private static final ExecutorService executor = new ThreadPoolExecutor(0,Integer.MAX_VALUE,60L,TimeUnit.SECONDS,
+            new SynchronousQueue<>(),new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r,"jmxCall-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final AtomicLong timeoutCount = new AtomicLong();
+
+    private final MBeanServerConnection target;
+    private final long timeoutMillis;
+    private final int hungThreshold;
+    private final Runnable onHung;
+    private final AtomicInteger consecutiveTimeouts = new AtomicInteger();
+    private final AtomicBoolean hung = new AtomicBoolean(false);
+
+    private TimeoutMBeanServerConnection(MBeanServerConnection target, long timeoutMillis, int hungThreshold, Runnable onHung) {
+        this.target = target;
+        this.timeoutMillis = timeoutMillis;
+        this.hungThreshold = hungThreshold;
+        this.onHung = onHung;
+    }
+
+    /**
+     * 包装MBeanServerConnection
+     * @param target
+     * @param timeoutMillis
+     * 每一次调用的超时时间(毫秒)
+     * @param hungThreshold
+     * 连续超时多少次认为连接已挂起
+     * @param onHung
+     * 连接挂起时的回调,只调用一次
+     * @return
+     */
+    public static MBeanServerConnection wrap(MBeanServerConnection target, long timeoutMillis, int hungThreshold, Runnable onHung){
+        return (MBeanServerConnection) Proxy.newProxyInstance(TimeoutMBeanServerConnection.class.getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class},
+                new TimeoutMBeanServerConnection(target,timeoutMillis,hungThreshold,onHung));
+    }
+
+    /**
+     * 所有连接的调用超时次数
+     * @return
+     */
+    public static long getTimeoutCount(){
+        return timeoutCount.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if(method.getDeclaringClass() == Object.class){
+            switch (method.getName()){
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "TimeoutMBeanServerConnection{" + target + "}";
+            }
+        }
+        if(hung.get()){
+            throw new CallTimeoutException("JMX连接已挂起: " + method.getName());
+        }
+        Future<Object> future = executor.submit(() -> method.invoke(target,args));
+        try {
+            Object result = future.get(timeoutMillis,TimeUnit.MILLISECONDS);
+            consecutiveTimeouts.set(0);
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutCount.incrementAndGet();
+            int timeouts = consecutiveTimeouts.incrementAndGet();
+            log.warn("JMX调用 {} 超过 {} 毫秒未返回(连续第 {} 次)",method.getName(),timeoutMillis,timeouts);
+            if(timeouts >= hungThreshold && hung.compareAndSet(false,true)){
+                onHung.run();
+            }
+            throw new CallTimeoutException("JMX调用超时: " + method.getName());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("JMX调用被中断: " + method.getName());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof InvocationTargetException){
+                cause = ((InvocationTargetException) cause).getTargetException();
+            }
+            throw cause;
+        }
+    }
+
+    /**
+     * JMX调用超时
+     */
+    public static class CallTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CallTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
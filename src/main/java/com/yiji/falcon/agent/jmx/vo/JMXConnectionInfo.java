@@ -4,10 +4,15 @@
  */
 package com.yiji.falcon.agent.jmx.vo;
 
+import com.yiji.falcon.agent.jmx.GcNotificationCollector;
+import com.yiji.falcon.agent.jmx.MBeanCache;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
 import javax.management.MBeanServerConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
  * 修订记录:
@@ -24,7 +29,15 @@ public class JMXConnectionInfo {
     private String connectionServerName;//配置中指定的服务名
     private String name;//此jmx连接对监控展示的名称
     private int pid;//jmx的进程号
-    private boolean valid;
+    private volatile boolean valid;
+    private MBeanCache mBeanCache;//此jmx连接的MBean缓存
+    private volatile GcNotificationCollector.Accumulator gcAccumulator;//此jmx连接的GC通知汇总,未开启时为null
+    private final ReentrantLock collectLock = new ReentrantLock();//取值锁,同一个jmx连接同时只进行一次取值
+    /**
+     * 各插件计算的agentSignName,key为插件名
+     * 随连接创建,重新连接或进程号变化时为新的连接对象,将重新计算
+     */
+    private final Map<String,String> agentSignNames = new ConcurrentHashMap<>();
 
     @Override
     public String toString() {
@@ -126,4 +139,38 @@ public class JMXConnectionInfo {
     public void setPid(int pid) {
         this.pid = pid;
     }
+
+    public MBeanCache getmBeanCache() {
+        return mBeanCache;
+    }
+
+    public void setmBeanCache(MBeanCache mBeanCache) {
+        this.mBeanCache = mBeanCache;
+    }
+
+    public GcNotificationCollector.Accumulator getGcAccumulator() {
+        return gcAccumulator;
+    }
+
+    public void setGcAccumulator(GcNotificationCollector.Accumulator gcAccumulator) {
+        this.gcAccumulator = gcAccumulator;
+    }
+
+    public ReentrantLock getCollectLock() {
+        return collectLock;
+    }
+
+    /**
+     * 插件为此连接计算的agentSignName
+     * @param pluginName
+     * @return
+     * 未计算时返回null
+     */
+    public String getAgentSignName(String pluginName) {
+        return agentSignNames.get(pluginName);
+    }
+
+    public void setAgentSignName(String pluginName,String agentSignName) {
+        agentSignNames.put(pluginName,agentSignName);
+    }
 }
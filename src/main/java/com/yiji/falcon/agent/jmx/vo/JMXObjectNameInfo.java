@@ -4,6 +4,8 @@
  */
 package com.yiji.falcon.agent.jmx.vo;
 
+import com.yiji.falcon.agent.jmx.JMXAttributePath;
+
 import javax.management.ObjectName;
 import java.util.Map;
 
@@ -17,9 +19,9 @@ import java.util.Map;
  */
 public class JMXObjectNameInfo {
     /**
-     * 此jmx 连接下的 objectName 的所有监控值
+     * 此jmx 连接下的 objectName 的所有监控值(属性名及获取的原始属性值)
      */
-    private Map<String,String> metricsValue;
+    private Map<String,Object> metricsValue;
     /**
      * JMX ObjectName
      */
@@ -57,11 +59,22 @@ public class JMXObjectNameInfo {
         this.jmxConnectionInfo = jmxConnectionInfo;
     }
 
-    public Map<String, String> getMetricsValue() {
+    /**
+     * 获取属性路径对应的监控值,见 {@link JMXAttributePath}
+     * @param path
+     * 属性名或以 . 分隔的属性路径(如 HeapMemoryUsage.used)
+     * @return
+     * 不存在时返回null
+     */
+    public Object getValue(String path) {
+        return JMXAttributePath.resolve(metricsValue,path);
+    }
+
+    public Map<String, Object> getMetricsValue() {
         return metricsValue;
     }
 
-    public void setMetricsValue(Map<String, String> metricsValue) {
+    public void setMetricsValue(Map<String, Object> metricsValue) {
         this.metricsValue = metricsValue;
     }
 }
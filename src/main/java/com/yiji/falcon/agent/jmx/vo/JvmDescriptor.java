@@ -0,0 +1,93 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.jmx.vo;
+
+import java.io.File;
+
+/**
+ * 本地发现的JVM描述
+ * 创建后不再修改
+ */
+public class JvmDescriptor {
+
+    /**
+     * Agent所在命名空间(宿主机)的进程号
+     */
+    private final int pid;
+    /**
+     * JVM所在pid命名空间中的进程号,非容器内的JVM与pid相同
+     */
+    private final int nsPid;
+    /**
+     * JVM的启动命令(main类或jar及参数),与 VirtualMachineDescriptor.displayName() 一致
+     */
+    private final String displayName;
+    /**
+     * hsperfdata文件,未知时为null
+     */
+    private final File perfDataFile;
+    /**
+     * 是否为其他mount命名空间(容器)内的JVM
+     */
+    private final boolean container;
+    /**
+     * 进程启动时间(/proc/[pid]/stat 的 starttime,单位为系统时钟tick),未知时为0
+     * 与pid一起唯一标识一个JVM,用于区分被复用的进程号
+     */
+    private final long startTime;
+
+    public JvmDescriptor(int pid, int nsPid, String displayName, File perfDataFile, boolean container, long startTime) {
+        this.pid = pid;
+        this.nsPid = nsPid;
+        this.displayName = displayName == null ? "" : displayName;
+        this.perfDataFile = perfDataFile;
+        this.container = container;
+        this.startTime = startTime;
+    }
+
+    @Override
+    public String toString() {
+        return "JvmDescriptor{" +
+                "pid=" + pid +
+                ", nsPid=" + nsPid +
+                ", displayName='" + displayName + '\'' +
+                ", perfDataFile=" + perfDataFile +
+                ", container=" + container +
+                ", startTime=" + startTime +
+                '}';
+    }
+
+    /**
+     * 进程号的字符串形式,与 VirtualMachineDescriptor.id() 一致
+     * @return
+     */
+    public String id() {
+        return String.valueOf(pid);
+    }
+
+    public String displayName() {
+        return displayName;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public int getNsPid() {
+        return nsPid;
+    }
+
+    public File getPerfDataFile() {
+        return perfDataFile;
+    }
+
+    public boolean isContainer() {
+        return container;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+}
@@ -40,6 +40,7 @@ public interface JMXPlugin extends Plugin{
      * {jmxServerName} - 代表直接使用当前服务的jmxServerName
      * 如该服务运行的端口号等
      * 若不需要指定则可返回null
+     * 每个JMX连接只在第一次获取成功时调用,结果随连接缓存,连接重新建立或进程号变化时重新调用
      * @param mBeanServerConnection
      * 该服务连接的mBeanServerConnection对象
      * @param pid
@@ -10,10 +10,13 @@ package com.yiji.falcon.agent.plugins.job;
 
 import com.yiji.falcon.agent.falcon.ReportMetrics;
 import com.yiji.falcon.agent.jmx.JMXManager;
+import com.yiji.falcon.agent.jmx.JMXMetricsConfigIndex;
+import com.yiji.falcon.agent.jmx.vo.JMXConnectionInfo;
 import com.yiji.falcon.agent.jmx.vo.JMXMetricsValueInfo;
 import com.yiji.falcon.agent.plugins.JMXPlugin;
 import com.yiji.falcon.agent.plugins.metrics.JMXMetricsValue;
 import com.yiji.falcon.agent.plugins.metrics.MetricsCommon;
+import com.yiji.falcon.agent.util.StringUtils;
 import org.quartz.Job;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
@@ -21,6 +24,7 @@ import org.quartz.JobExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServerConnection;
 import java.util.List;
 
 /**
@@ -38,12 +42,12 @@ public class JMXPluginJob implements Job {
             JMXPlugin jmxPlugin = (JMXPlugin) jobDataMap.get("pluginObject");
             String jmxServerName = jobDataMap.getString("jmxServerName");
 
-            List<JMXMetricsValueInfo> jmxMetricsValueInfos = JMXManager.getJmxMetricValue(jmxServerName);
+            JMXMetricsConfigIndex configIndex = JMXMetricsValue.getMetricsConfigIndex(jmxPlugin);
+            List<JMXMetricsValueInfo> jmxMetricsValueInfos = JMXManager.getJmxMetricValue(jmxServerName,configIndex,jmxPlugin.step());
 
             //设置agentSignName
             for (JMXMetricsValueInfo jmxMetricsValueInfo : jmxMetricsValueInfos) {
-                String agentSignName = jmxPlugin.agentSignName(jmxMetricsValueInfo.getJmxConnectionInfo().getmBeanServerConnection(),
-                        jmxMetricsValueInfo.getJmxConnectionInfo().getPid());
+                String agentSignName = getAgentSignName(jmxPlugin,jmxMetricsValueInfo.getJmxConnectionInfo());
                 if ("{jmxServerName}".equals(agentSignName)) {
                     //设置变量
                     jmxMetricsValueInfo.getJmxConnectionInfo().setName(jmxServerName);
@@ -52,10 +56,30 @@ public class JMXPluginJob implements Job {
                 }
             }
 
-            MetricsCommon jmxMetricsValue = new JMXMetricsValue(jmxPlugin,jmxMetricsValueInfos);
+            MetricsCommon jmxMetricsValue = new JMXMetricsValue(jmxPlugin,jmxMetricsValueInfos,configIndex);
             ReportMetrics.push(jmxMetricsValue.getReportObjects());
         } catch (Exception e) {
             logger.error("插件 {} 运行异常",pluginName,e);
         }
     }
+
+    /**
+     * 获取插件对此连接的agentSignName
+     * 每个连接只在第一次成功获取时调用插件的 {@link JMXPlugin#agentSignName(MBeanServerConnection, int)},
+     * 连接重新建立或进程号变化时为新的连接对象,将重新获取
+     * @param jmxPlugin
+     * @param connectionInfo
+     * @return
+     */
+    private static String getAgentSignName(JMXPlugin jmxPlugin, JMXConnectionInfo connectionInfo){
+        String agentSignName = connectionInfo.getAgentSignName(jmxPlugin.pluginName());
+        if(agentSignName == null){
+            agentSignName = jmxPlugin.agentSignName(connectionInfo.getmBeanServerConnection(),connectionInfo.getPid());
+            //获取失败(如连接不可用)时不缓存,下一次重新获取
+            if(connectionInfo.isValid() && !StringUtils.isEmpty(agentSignName)){
+                connectionInfo.setAgentSignName(jmxPlugin.pluginName(),agentSignName);
+            }
+        }
+        return agentSignName;
+    }
 }
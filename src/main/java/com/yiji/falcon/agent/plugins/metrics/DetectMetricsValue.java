@@ -65,6 +65,7 @@ public class DetectMetricsValue extends MetricsCommon {
                             reportObject.setMetric(MetricsCommon.getMetricsName(metric.metricName));
                             reportObject.setCounterType(metric.counterType);
                             reportObject.setValue(metric.value);
+                            reportObject.setRate(metric.rate);
                             reportObject.setTimestamp(System.currentTimeMillis() / 1000);
                             //打默认tag
                             reportObject.appendTags(MetricsCommon.getTags(detectPlugin.agentSignName(address),detectPlugin,detectPlugin.serverName(), MetricsType.SQL_CONF))
@@ -8,24 +8,25 @@ import com.yiji.falcon.agent.config.AgentConfiguration;
 import com.yiji.falcon.agent.falcon.CounterType;
 import com.yiji.falcon.agent.falcon.FalconReportObject;
 import com.yiji.falcon.agent.falcon.MetricsType;
+import com.yiji.falcon.agent.jmx.GcNotificationCollector;
 import com.yiji.falcon.agent.jmx.JMXConnection;
+import com.yiji.falcon.agent.jmx.JMXMetricsConfigIndex;
+import com.yiji.falcon.agent.jmx.JvmMetricsPack;
 import com.yiji.falcon.agent.jmx.vo.JMXConnectionInfo;
 import com.yiji.falcon.agent.jmx.vo.JMXMetricsValueInfo;
 import com.yiji.falcon.agent.jmx.vo.JMXObjectNameInfo;
 import com.yiji.falcon.agent.plugins.JMXPlugin;
-import com.yiji.falcon.agent.util.Maths;
 import com.yiji.falcon.agent.util.StringUtils;
 import com.yiji.falcon.agent.vo.jmx.JMXMetricsConfiguration;
 import org.apache.commons.lang.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.management.openmbean.CompositeDataSupport;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.lang.management.MemoryUsage;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * 修订记录:
@@ -37,11 +38,17 @@ import java.util.*;
  * @author guqiu@yiji.com
  */
 public class JMXMetricsValue extends MetricsCommon{
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Logger log = LoggerFactory.getLogger(JMXMetricsValue.class);
 
 
+    /**
+     * 各插件的监控配置索引,插件配置文件或JMX公共配置文件变化时清除
+     */
+    private static final Map<String,JMXMetricsConfigIndex> configIndexCache = new ConcurrentHashMap<>();
+
     private JMXPlugin jmxPlugin;
     private List<JMXMetricsValueInfo> jmxMetricsValueInfos;
+    private JMXMetricsConfigIndex configIndex;
 
     /**
      * JMX监控值
@@ -49,15 +56,51 @@ public class JMXMetricsValue extends MetricsCommon{
      * @param jmxMetricsValueInfos
      */
     public JMXMetricsValue(JMXPlugin jmxPlugin, List<JMXMetricsValueInfo> jmxMetricsValueInfos) {
+        this(jmxPlugin,jmxMetricsValueInfos,getMetricsConfigIndex(jmxPlugin));
+    }
+
+    /**
+     * JMX监控值
+     * @param jmxPlugin
+     * @param jmxMetricsValueInfos
+     * @param configIndex
+     * 插件的监控配置索引,见 {@link #getMetricsConfigIndex(JMXPlugin)}
+     */
+    public JMXMetricsValue(JMXPlugin jmxPlugin, List<JMXMetricsValueInfo> jmxMetricsValueInfos, JMXMetricsConfigIndex configIndex) {
         this.jmxPlugin = jmxPlugin;
         this.jmxMetricsValueInfos = jmxMetricsValueInfos;
+        this.configIndex = configIndex;
+    }
+
+    /**
+     * 获取插件的监控配置索引
+     * 配置文件只在第一次获取及文件变化后(见 {@link #invalidateMetricsConfig(String)})进行读取
+     * @param jmxPlugin
+     * @return
+     */
+    public static JMXMetricsConfigIndex getMetricsConfigIndex(JMXPlugin jmxPlugin) {
+        return configIndexCache.computeIfAbsent(jmxPlugin.pluginName(),k -> new JMXMetricsConfigIndex(getMetricsConfig(jmxPlugin),JvmMetricsPack.ATTRIBUTES));
+    }
+
+    /**
+     * 清除插件的监控配置索引,下一次获取时重新读取配置文件
+     * @param pluginName
+     * 插件名,为null时清除所有插件的监控配置索引
+     */
+    public static void invalidateMetricsConfig(String pluginName) {
+        if(pluginName == null){
+            configIndexCache.clear();
+        }else{
+            configIndexCache.remove(pluginName);
+        }
     }
 
     /**
      * 获取配置文件配置的监控值
+     * @param jmxPlugin
      * @return
      */
-    private Set<JMXMetricsConfiguration> getMetricsConfig() {
+    private static Set<JMXMetricsConfiguration> getMetricsConfig(JMXPlugin jmxPlugin) {
         Set<JMXMetricsConfiguration> jmxMetricsConfigurations = new HashSet<>();
 
         setMetricsConfig("agent.common.metrics.type.",AgentConfiguration.INSTANCE.getJmxCommonMetricsConfPath(),jmxMetricsConfigurations);
@@ -77,28 +120,30 @@ public class JMXMetricsValue extends MetricsCommon{
      * 需要保存的集合对象
      * @throws IOException
      */
-    private void setMetricsConfig(String basePropertiesKey,String propertiesPath,Set<JMXMetricsConfiguration> jmxMetricsConfigurations) {
+    private static void setMetricsConfig(String basePropertiesKey,String propertiesPath,Set<JMXMetricsConfiguration> jmxMetricsConfigurations) {
 
         if(!StringUtils.isEmpty(basePropertiesKey) &&
                 !StringUtils.isEmpty(propertiesPath)){
             try (FileInputStream in = new FileInputStream(propertiesPath)){
                 Properties properties = new Properties();
                 properties.load(in);
-                for (int i = 1; i <= 100; i++) {
-                    String objectName = basePropertiesKey + i +".objectName";
-                    if(!StringUtils.isEmpty(properties.getProperty(objectName))){
-                        JMXMetricsConfiguration metricsConfiguration = new JMXMetricsConfiguration();
-                        metricsConfiguration.setObjectName(properties.getProperty(objectName));//设置ObjectName
-                        metricsConfiguration.setCounterType(properties.getProperty(basePropertiesKey + i + ".counterType"));//设置counterType
-                        metricsConfiguration.setMetrics(properties.getProperty(basePropertiesKey + i + ".metrics"));//设置metrics
-                        metricsConfiguration.setValueExpress(properties.getProperty(basePropertiesKey + i + ".valueExpress"));//设置metrics
-                        String tag = properties.getProperty(basePropertiesKey + i + ".tag");
-                        metricsConfiguration.setTag(StringUtils.isEmpty(tag) ? "" : tag);//设置tag
-                        String alias = properties.getProperty(basePropertiesKey + i + ".alias");
-                        metricsConfiguration.setAlias(StringUtils.isEmpty(alias) ? metricsConfiguration.getMetrics() : alias);
-
-                        jmxMetricsConfigurations.add(metricsConfiguration);
+                for (String key : properties.stringPropertyNames()) {
+                    //配置项格式: basePropertiesKey + 序号 + .objectName
+                    if(!key.startsWith(basePropertiesKey) || !key.endsWith(".objectName") || StringUtils.isEmpty(properties.getProperty(key))){
+                        continue;
                     }
+                    String prefix = key.substring(0,key.length() - "objectName".length());
+                    JMXMetricsConfiguration metricsConfiguration = new JMXMetricsConfiguration();
+                    metricsConfiguration.setObjectName(properties.getProperty(key));//设置ObjectName
+                    metricsConfiguration.setCounterType(properties.getProperty(prefix + "counterType"));//设置counterType
+                    metricsConfiguration.setMetrics(properties.getProperty(prefix + "metrics"));//设置metrics
+                    metricsConfiguration.setValueExpress(properties.getProperty(prefix + "valueExpress"));//设置metrics
+                    String tag = properties.getProperty(prefix + "tag");
+                    metricsConfiguration.setTag(StringUtils.isEmpty(tag) ? "" : tag);//设置tag
+                    String alias = properties.getProperty(prefix + "alias");
+                    metricsConfiguration.setAlias(StringUtils.isEmpty(alias) ? metricsConfiguration.getMetrics() : alias);
+
+                    jmxMetricsConfigurations.add(metricsConfiguration);
                 }
             }catch (IOException e){
                 log.error("配置文件读取失败",e);
@@ -117,17 +162,18 @@ public class JMXMetricsValue extends MetricsCommon{
     /**
      * 获取监控值报告的中间对象的辅助方法
      * @param jmxObjectNameInfos
-     * @param metricsConfiguration
      * @return
      */
-    private Set<KitObjectNameMetrics> getKitObjectNameMetrics(Collection<JMXObjectNameInfo> jmxObjectNameInfos, JMXMetricsConfiguration metricsConfiguration){
+    private Set<KitObjectNameMetrics> getKitObjectNameMetrics(Collection<JMXObjectNameInfo> jmxObjectNameInfos){
         Set<KitObjectNameMetrics> kitObjectNameMetricsSet = new HashSet<>();
         for (JMXObjectNameInfo jmxObjectNameInfo : jmxObjectNameInfos) {
-            String objectName = jmxObjectNameInfo.getObjectName().toString();
-            Map<String,String> metricsMap = jmxObjectNameInfo.getMetricsValue();
-            if(objectName.contains(metricsConfiguration.getObjectName())){
-                if(metricsMap.get(metricsConfiguration.getMetrics()) != null ||
-                        metricsMap.get(metricsConfiguration.getAlias()) != null){
+            Map<String,Object> metricsMap = jmxObjectNameInfo.getMetricsValue();
+            if(metricsMap == null || metricsMap.isEmpty()){
+                continue;
+            }
+            for (JMXMetricsConfiguration metricsConfiguration : configIndex.match(jmxObjectNameInfo.getObjectName())) {
+                if(jmxObjectNameInfo.getValue(metricsConfiguration.getMetrics()) != null ||
+                        jmxObjectNameInfo.getValue(metricsConfiguration.getAlias()) != null){
                     KitObjectNameMetrics kitObjectNameMetrics = new KitObjectNameMetrics();
                     kitObjectNameMetrics.jmxObjectNameInfo = jmxObjectNameInfo;
                     kitObjectNameMetrics.jmxMetricsConfiguration = metricsConfiguration;
@@ -153,7 +199,7 @@ public class JMXMetricsValue extends MetricsCommon{
         for (KitObjectNameMetrics kitObjectNameMetrics : kitObjectNameMetricses) {
             JMXObjectNameInfo jmxObjectNameInfo = kitObjectNameMetrics.jmxObjectNameInfo;
             JMXMetricsConfiguration jmxMetricsConfiguration = kitObjectNameMetrics.jmxMetricsConfiguration;
-            String metricsValue = jmxObjectNameInfo.getMetricsValue().get(jmxMetricsConfiguration.getMetrics());
+            Object metricsValue = jmxObjectNameInfo.getValue(jmxMetricsConfiguration.getMetrics());
             if(metricsValue != null){
                 //服务的标识后缀名
                 String name = metricsValueInfo.getJmxConnectionInfo().getName();
@@ -170,7 +216,9 @@ public class JMXMetricsValue extends MetricsCommon{
                 }
                 requestObject.setTimestamp(System.currentTimeMillis() / 1000);
                 requestObject.setObjectName(jmxObjectNameInfo.getObjectName());
-                Object newValue = executeJsExpress(kitObjectNameMetrics.jmxMetricsConfiguration.getValueExpress(),metricsValue);
+                String valueExpress = jmxMetricsConfiguration.getValueExpress();
+                //表达式中的value仍为属性值的字符串形式,与原有配置保持一致
+                Object newValue = StringUtils.isEmpty(valueExpress) ? metricsValue : executeJsExpress(valueExpress,String.valueOf(metricsValue));
                 if(NumberUtils.isNumber(String.valueOf(newValue))){
                     requestObject.setValue(String.valueOf(newValue));
                 }else{
@@ -255,11 +303,8 @@ public class JMXMetricsValue extends MetricsCommon{
                 result.add(reportObject);
             }else{
 
-                Set<KitObjectNameMetrics> kitObjectNameMetricsSet = new HashSet<>();
-
-                for (JMXMetricsConfiguration metricsConfiguration : getMetricsConfig()) {// 配置文件配置的需要监控的
-                    kitObjectNameMetricsSet.addAll(getKitObjectNameMetrics(metricsValueInfo.getJmxObjectNameInfoList(),metricsConfiguration));
-                }
+                // 配置文件配置的需要监控的
+                Set<KitObjectNameMetrics> kitObjectNameMetricsSet = getKitObjectNameMetrics(metricsValueInfo.getJmxObjectNameInfoList());
 
                 result.addAll(generatorReportObject(kitObjectNameMetricsSet,metricsValueInfo));
 
@@ -268,6 +313,7 @@ public class JMXMetricsValue extends MetricsCommon{
 
                 //添加內建报告
                 result.addAll(getInbuiltReportObjects(metricsValueInfo));
+                result.addAll(getGcReportObjects(metricsValueInfo));
                 Collection<FalconReportObject> inbuilt = jmxPlugin.inbuiltReportObjectsForValid(metricsValueInfo);
                 if(inbuilt != null && !inbuilt.isEmpty()){
                     for (FalconReportObject reportObject : inbuilt) {
@@ -285,15 +331,8 @@ public class JMXMetricsValue extends MetricsCommon{
     }
 
     /**
-     * 內建监控报告
-     * HeapMemoryCommitted
-     * NonHeapMemoryCommitted
-     * HeapMemoryFree
-     * NonHeapMemoryFree
-     * HeapMemoryMax
-     * NonHeapMemoryMax
-     * HeapMemoryUsed
-     * NonHeapMemoryUsed
+     * 內建的JVM监控报告,见 {@link JvmMetricsPack}
+     * 需要的属性已随监控配置的属性一起获取
      *
      * @return
      */
@@ -303,62 +342,85 @@ public class JMXMetricsValue extends MetricsCommon{
             return result;
         }
         try {
-            for (JMXObjectNameInfo objectNameInfo : metricsValueInfo.getJmxObjectNameInfoList()) {
-                if("java.lang:type=Memory".equals(objectNameInfo.getObjectName().toString())){
-                    //服务的标识后缀名
-                    String name = objectNameInfo.getJmxConnectionInfo().getName();
-
-                    MemoryUsage heapMemoryUsage =  MemoryUsage.from((CompositeDataSupport)objectNameInfo.
-                            getJmxConnectionInfo().getmBeanServerConnection().getAttribute(objectNameInfo.getObjectName(), "HeapMemoryUsage"));
-                    MemoryUsage nonHeapMemoryUsage =  MemoryUsage.from((CompositeDataSupport)objectNameInfo.
-                            getJmxConnectionInfo().getmBeanServerConnection().getAttribute(objectNameInfo.getObjectName(), "NonHeapMemoryUsage"));
-                    FalconReportObject falconReportObject = new FalconReportObject();
-                    setReportCommonValue(falconReportObject,jmxPlugin.step());
-                    falconReportObject.setCounterType(CounterType.GAUGE);
-                    falconReportObject.setTimestamp(System.currentTimeMillis() / 1000);
-                    falconReportObject.setObjectName(objectNameInfo.getObjectName());
-
-                    falconReportObject.appendTags(getTags(name,jmxPlugin,jmxPlugin.serverName(),MetricsType.JMX_OBJECT_IN_BUILD));
-                    String dirName = jmxPlugin.serverDirName(metricsValueInfo.getJmxConnectionInfo().getPid());
-                    if(!StringUtils.isEmpty(dirName)){
-                        falconReportObject.appendTags("dir=" + dirName);
-                    }
+            FalconReportObject falconReportObject = new FalconReportObject();
+            setReportCommonValue(falconReportObject,jmxPlugin.step());
+            falconReportObject.setTimestamp(System.currentTimeMillis() / 1000);
+            //服务的标识后缀名
+            falconReportObject.appendTags(getTags(metricsValueInfo.getJmxConnectionInfo().getName(),jmxPlugin,jmxPlugin.serverName(),MetricsType.JMX_OBJECT_IN_BUILD));
+            String dirName = jmxPlugin.serverDirName(metricsValueInfo.getJmxConnectionInfo().getPid());
+            if(!StringUtils.isEmpty(dirName)){
+                falconReportObject.appendTags("dir=" + dirName);
+            }
 
-                    falconReportObject.setMetric(getMetricsName("HeapMemoryCommitted"));
-                    falconReportObject.setValue(String.valueOf(heapMemoryUsage.getCommitted()));
-                    result.add(falconReportObject.clone());
+            for (JvmMetricsPack.Metric metric : JvmMetricsPack.compute(metricsValueInfo.getJmxObjectNameInfoList())) {
+                FalconReportObject reportObject = falconReportObject.clone();
+                reportObject.setMetric(getMetricsName(metric.getMetric()));
+                reportObject.setValue(metric.getValue());
+                reportObject.setCounterType(metric.getCounterType());
+                reportObject.setObjectName(metric.getObjectName());
+                reportObject.appendTags(metric.getTags());
+                result.add(reportObject);
+            }
+        } catch (Exception e) {
+            log.error("获取jmx 内置监控数据异常",e);
+        }
+        return result;
+    }
 
-                    falconReportObject.setMetric(getMetricsName("NonHeapMemoryCommitted"));
-                    falconReportObject.setValue(String.valueOf(nonHeapMemoryUsage.getCommitted()));
-                    result.add(falconReportObject.clone());
+    /**
+     * GC通知的汇总报告(见 {@link GcNotificationCollector}),每个周期上报上一周期以来的汇总
+     * GcPauseCount
+     * GcPauseMax
+     * GcPauseP99
+     * GcPauseTime
+     * GcPromotedBytes
+     * MemoryThresholdExceeded
+     *
+     * @param metricsValueInfo
+     * @return
+     */
+    private Collection<FalconReportObject> getGcReportObjects(JMXMetricsValueInfo metricsValueInfo) {
+        List<FalconReportObject> result = new ArrayList<>();
+        GcNotificationCollector.Accumulator gcAccumulator = metricsValueInfo.getJmxConnectionInfo().getGcAccumulator();
+        if(gcAccumulator == null || !gcAccumulator.isListening()){
+            return result;
+        }
+        GcNotificationCollector.Summary summary = gcAccumulator.drain();
+
+        FalconReportObject falconReportObject = new FalconReportObject();
+        setReportCommonValue(falconReportObject,jmxPlugin.step());
+        falconReportObject.setCounterType(CounterType.GAUGE);
+        falconReportObject.setTimestamp(System.currentTimeMillis() / 1000);
+        falconReportObject.appendTags(getTags(metricsValueInfo.getJmxConnectionInfo().getName(),jmxPlugin,jmxPlugin.serverName(),MetricsType.JMX_OBJECT_IN_BUILD));
+        String dirName = jmxPlugin.serverDirName(metricsValueInfo.getJmxConnectionInfo().getPid());
+        if(!StringUtils.isEmpty(dirName)){
+            falconReportObject.appendTags("dir=" + dirName);
+        }
 
-                    falconReportObject.setMetric(getMetricsName("HeapMemoryFree"));
-                    falconReportObject.setValue(String.valueOf(heapMemoryUsage.getMax() - heapMemoryUsage.getUsed()));
-                    result.add(falconReportObject.clone());
+        falconReportObject.setMetric(getMetricsName("GcPauseCount"));
+        falconReportObject.setValue(String.valueOf(summary.getPauseCount()));
+        result.add(falconReportObject.clone());
 
-                    falconReportObject.setMetric(getMetricsName("HeapMemoryMax"));
-                    falconReportObject.setValue(String.valueOf(heapMemoryUsage.getMax()));
-                    result.add(falconReportObject.clone());
+        falconReportObject.setMetric(getMetricsName("GcPauseMax"));
+        falconReportObject.setValue(String.valueOf(summary.getPauseMax()));
+        result.add(falconReportObject.clone());
 
-                    falconReportObject.setMetric(getMetricsName("HeapMemoryUsed"));
-                    falconReportObject.setValue(String.valueOf(heapMemoryUsage.getUsed()));
-                    result.add(falconReportObject.clone());
+        falconReportObject.setMetric(getMetricsName("GcPauseP99"));
+        falconReportObject.setValue(String.valueOf(summary.getPauseP99()));
+        result.add(falconReportObject.clone());
 
-                    falconReportObject.setMetric(getMetricsName("NonHeapMemoryUsed"));
-                    falconReportObject.setValue(String.valueOf(nonHeapMemoryUsage.getUsed()));
-                    result.add(falconReportObject.clone());
+        falconReportObject.setMetric(getMetricsName("GcPauseTime"));
+        falconReportObject.setValue(String.valueOf(summary.getPauseTotal()));
+        result.add(falconReportObject.clone());
 
-                    //堆内存使用比例
-                    falconReportObject.setMetric(getMetricsName("HeapMemoryUsedRatio"));
-                    falconReportObject.setValue(String.valueOf(Maths.div(heapMemoryUsage.getUsed(),heapMemoryUsage.getMax(),2) * 100));
-                    result.add(falconReportObject.clone());
+        falconReportObject.setMetric(getMetricsName("GcPromotedBytes"));
+        falconReportObject.setValue(String.valueOf(summary.getPromotedBytes()));
+        result.add(falconReportObject.clone());
 
-                }
-            }
+        falconReportObject.setMetric(getMetricsName("MemoryThresholdExceeded"));
+        falconReportObject.setValue(String.valueOf(summary.getThresholdExceeded()));
+        result.add(falconReportObject.clone());
 
-        } catch (Exception e) {
-            log.error("获取jmx 内置监控数据异常",e);
-        }
         return result;
     }
 
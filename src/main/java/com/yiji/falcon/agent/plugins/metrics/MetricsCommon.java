@@ -14,10 +14,6 @@ import com.yiji.falcon.agent.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Collection;
@@ -255,7 +251,8 @@ public abstract class MetricsCommon {
     }
 
     /**
-     * 执行js表达式并返回执行后的结果
+     * 执行监控值转换表达式并返回执行后的结果
+     * 表达式只在第一次执行时编译,见 {@link ValueExpress}
      * @param express
      * 表达式
      * @param value
@@ -264,22 +261,7 @@ public abstract class MetricsCommon {
      * 返回新值或返回原值(执行失败时)
      */
     public static Object executeJsExpress(String express, Object value){
-        Object newValue = value;
-        if(!StringUtils.isEmpty(express)){
-            try {
-                ScriptEngineManager manager = new ScriptEngineManager();
-                ScriptEngine engine = manager.getEngineByName("nashorn");
-                engine.put("value", value);
-                engine.put("newValue", "");
-                engine.getBindings(ScriptContext.ENGINE_SCOPE);
-                engine.eval(express);
-                newValue = engine.get("newValue");
-            } catch (ScriptException e) {
-                logger.error("执行js表达式错误",e);
-            }
-        }
-
-        return newValue;
+        return ValueExpress.compile(express).evaluate(value);
     }
 
     /**
@@ -149,6 +149,8 @@ public class SNMPV3MetricsValue extends MetricsCommon {
 
             String ifName = statVO.getIfName();
             long time = statVO.getTime().getTime() / 1000;
+            //接口的流量及包数为累计值,上报前转换为速率
+            reportObject.setRate(true);
 
             reportObject.setMetric(String.format("%s.if.HCInBroadcastPkts", ifName));
             reportObject.setValue(statVO.getIfHCInBroadcastPkts());
@@ -188,7 +190,9 @@ public class SNMPV3MetricsValue extends MetricsCommon {
             reportObject.setMetric(String.format("%s.if.OperStatus", ifName));
             reportObject.setValue(statVO.getIfOperStatus());
             reportObject.setTimestamp(time);
+            reportObject.setRate(false);
             reportObjects.add(reportObject.clone());
+            reportObject.setRate(true);
 
             reportObject.setMetric(String.format("%s.if.HCOutOctets", ifName));
             reportObject.setValue(statVO.getIfHCOutOctets());
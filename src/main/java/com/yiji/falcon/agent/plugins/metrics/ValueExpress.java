@@ -0,0 +1,758 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.plugins.metrics;
+
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import com.yiji.falcon.agent.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 监控值转换表达式(valueExpress)
+ * 表达式只编译一次,编译结果按表达式文本缓存,之后每个监控值只执行编译后的语法树
+ *
+ * 支持js语法的一个安全子集,原值为变量value,新值赋值给变量newValue:
+ * if/else if/else、var 及变量赋值、数字与字符串常量、true/false/null,
+ * 运算符 + - * / % ! < > <= >= == != === !== && || ?: 及括号,
+ * 函数 Math.abs Math.round Math.floor Math.ceil Math.min Math.max
+ * 运算规则与js一致(如字符串与数字比较时转为数字比较,+ 有字符串时为字符串拼接)
+ * 表达式只有一个算式时(如 value / 1024),算式的值即为新值
+ * 整个表达式被引号包围时(如 "if(value == 0){newValue = 1}"),按引号内的内容编译
+ *
+ * 兼容模式(agent.valueExpress.jsCompatible):超出上述语法的表达式,使用js脚本引擎编译一次后执行,
+ * 脚本引擎不可用(JDK 15及以上版本不再自带Nashorn)或关闭兼容模式时,该表达式不进行转换
+ */
+public abstract class ValueExpress {
+
+    private static final Logger log = LoggerFactory.getLogger(ValueExpress.class);
+
+    /**
+     * 编译结果缓存的最大表达式个数,超过时清空缓存
+     */
+    private static final int CACHE_LIMIT = 1024;
+    private static final Map<String,ValueExpress> cache = new ConcurrentHashMap<>();
+
+    private static final ValueExpress IDENTITY = new ValueExpress() {
+        @Override
+        public Object evaluate(Object value) {
+            return value;
+        }
+    };
+
+    /**
+     * 执行表达式
+     * @param value
+     * 原值
+     * @return
+     * 返回新值或返回原值(执行失败时)
+     */
+    public abstract Object evaluate(Object value);
+
+    /**
+     * 获取表达式的编译结果,相同的表达式只编译一次
+     * @param express
+     * @return
+     */
+    public static ValueExpress compile(String express){
+        if(StringUtils.isEmpty(express)){
+            return IDENTITY;
+        }
+        ValueExpress valueExpress = cache.get(express);
+        if(valueExpress == null){
+            valueExpress = compile(express,AgentConfiguration.INSTANCE.isValueExpressJsCompatible());
+            if(cache.size() >= CACHE_LIMIT){
+                cache.clear();
+            }
+            cache.put(express,valueExpress);
+        }
+        return valueExpress;
+    }
+
+    /**
+     * 编译表达式(不使用缓存)
+     * @param express
+     * @param jsCompatible
+     * 无法编译的表达式是否使用js脚本引擎执行
+     * @return
+     */
+    public static ValueExpress compile(String express,boolean jsCompatible){
+        if(StringUtils.isEmpty(express)){
+            return IDENTITY;
+        }
+        try {
+            return new Parser(express).parse();
+        } catch (IllegalArgumentException e) {
+            if(jsCompatible){
+                ValueExpress script = ScriptExpress.compileScript(express);
+                if(script != null){
+                    log.info("表达式 {} 不支持编译({}),将使用js脚本引擎执行",express,e.getMessage());
+                    return script;
+                }
+            }
+            log.error("表达式 {} 编译失败,将不对监控值进行转换: {}",express,e.getMessage());
+            return IDENTITY;
+        }
+    }
+
+    /**
+     * 兼容模式:使用js脚本引擎编译一次后执行
+     */
+    private static class ScriptExpress extends ValueExpress {
+
+        private static ScriptEngineManager manager;
+
+        private final String express;
+        private final ScriptEngine engine;
+        private final CompiledScript script;
+
+        private ScriptExpress(String express, ScriptEngine engine, CompiledScript script) {
+            this.express = express;
+            this.engine = engine;
+            this.script = script;
+        }
+
+        static synchronized ValueExpress compileScript(String express){
+            if(manager == null){
+                manager = new ScriptEngineManager();
+            }
+            ScriptEngine engine = manager.getEngineByName("nashorn");
+            if(!(engine instanceof Compilable)){
+                log.warn("js脚本引擎不可用");
+                return null;
+            }
+            try {
+                return new ScriptExpress(express,engine,((Compilable) engine).compile(express));
+            } catch (ScriptException e) {
+                log.warn("js表达式 {} 编译失败: {}",express,e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public Object evaluate(Object value) {
+            try {
+                Bindings bindings = engine.createBindings();
+                bindings.put("value",value);
+                bindings.put("newValue","");
+                script.eval(bindings);
+                return bindings.get("newValue");
+            } catch (ScriptException e) {
+                log.error("执行js表达式 {} 错误",express,e);
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 编译后的表达式
+     */
+    private static class Compiled extends ValueExpress {
+
+        private final String express;
+        private final Statement[] statements;
+        /**
+         * 只有一个表达式时,表达式的值即为新值
+         */
+        private final Node result;
+        private final int slots;
+
+        Compiled(String express, Statement[] statements, Node result, int slots) {
+            this.express = express;
+            this.statements = statements;
+            this.result = result;
+            this.slots = slots;
+        }
+
+        @Override
+        public Object evaluate(Object value) {
+            Object[] vars = new Object[slots];
+            vars[Parser.VALUE] = value;
+            vars[Parser.NEW_VALUE] = "";
+            try {
+                if(result != null){
+                    return normalize(result.eval(vars));
+                }
+                for (Statement statement : statements) {
+                    statement.exec(vars);
+                }
+                return normalize(vars[Parser.NEW_VALUE]);
+            } catch (RuntimeException e) {
+                log.error("执行表达式 {} 错误",express,e);
+                return value;
+            }
+        }
+
+        /**
+         * 整数的计算结果以整数形式返回,与js脚本引擎的结果一致
+         */
+        private static Object normalize(Object value){
+            if(value instanceof Double){
+                double d = (Double) value;
+                if(d == Math.rint(d) && Math.abs(d) < 9007199254740992D && !(d == 0 && 1 / d < 0)){
+                    return (long) d;
+                }
+            }
+            return value;
+        }
+    }
+
+    private interface Node {
+        Object eval(Object[] vars);
+    }
+
+    private interface Statement {
+        void exec(Object[] vars);
+    }
+
+    // ---------------------------------------- 运算规则(与js一致) ----------------------------------------
+
+    static double toNumber(Object value){
+        if(value == null){
+            return 0;
+        }
+        if(value instanceof Number){
+            return ((Number) value).doubleValue();
+        }
+        if(value instanceof Boolean){
+            return (Boolean) value ? 1 : 0;
+        }
+        String s = value.toString().trim();
+        if(s.isEmpty()){
+            return 0;
+        }
+        try {
+            if(s.startsWith("0x") || s.startsWith("0X")){
+                return Long.parseLong(s.substring(2),16);
+            }
+            char last = s.charAt(s.length() - 1);
+            if(last != 'y' && last != '.' && !Character.isDigit(last)){
+                //排除Java支持而js不支持的 1d 1f 等格式
+                return Double.NaN;
+            }
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    static String toStr(Object value){
+        if(value instanceof Double){
+            double d = (Double) value;
+            if(Double.isNaN(d)){
+                return "NaN";
+            }
+            if(Double.isInfinite(d)){
+                return d > 0 ? "Infinity" : "-Infinity";
+            }
+            if(d == Math.rint(d) && Math.abs(d) < 1e21){
+                return String.valueOf((long) d);
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    static boolean truthy(Object value){
+        if(value == null){
+            return false;
+        }
+        if(value instanceof Boolean){
+            return (Boolean) value;
+        }
+        if(value instanceof Number){
+            double d = ((Number) value).doubleValue();
+            return d != 0 && !Double.isNaN(d);
+        }
+        return !value.toString().isEmpty();
+    }
+
+    static boolean looseEquals(Object a, Object b){
+        if(a == null || b == null){
+            return a == b;
+        }
+        if(a instanceof String && b instanceof String || a instanceof Boolean && b instanceof Boolean){
+            return a.equals(b);
+        }
+        return toNumber(a) == toNumber(b);
+    }
+
+    static boolean strictEquals(Object a, Object b){
+        if(a == null || b == null){
+            return a == b;
+        }
+        if(a instanceof Number && b instanceof Number){
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+        return a.getClass() == b.getClass() && a.equals(b);
+    }
+
+    /**
+     * @return
+     * 小于0、等于0、大于0,无法比较(NaN)时返回null
+     */
+    static Integer compare(Object a, Object b){
+        if(a instanceof String && b instanceof String){
+            return ((String) a).compareTo((String) b);
+        }
+        double x = toNumber(a);
+        double y = toNumber(b);
+        if(Double.isNaN(x) || Double.isNaN(y)){
+            return null;
+        }
+        return Double.compare(x == 0 ? 0 : x,y == 0 ? 0 : y);
+    }
+
+    static Object binary(String op, Object a, Object b){
+        switch (op){
+            case "+":
+                if(a instanceof String || b instanceof String){
+                    return toStr(a) + toStr(b);
+                }
+                return toNumber(a) + toNumber(b);
+            case "-": return toNumber(a) - toNumber(b);
+            case "*": return toNumber(a) * toNumber(b);
+            case "/": return toNumber(a) / toNumber(b);
+            case "%": return toNumber(a) % toNumber(b);
+            case "==": return looseEquals(a,b);
+            case "!=": return !looseEquals(a,b);
+            case "===": return strictEquals(a,b);
+            case "!==": return !strictEquals(a,b);
+            default:
+                Integer c = compare(a,b);
+                if(c == null){
+                    return false;
+                }
+                switch (op){
+                    case "<": return c < 0;
+                    case ">": return c > 0;
+                    case "<=": return c <= 0;
+                    default: return c >= 0;
+                }
+        }
+    }
+
+    static Object call(String function, Object[] args){
+        double x = args.length > 0 ? toNumber(args[0]) : Double.NaN;
+        switch (function){
+            case "Math.abs": return Math.abs(x);
+            case "Math.round": return Math.floor(x + 0.5);
+            case "Math.floor": return Math.floor(x);
+            case "Math.ceil": return Math.ceil(x);
+            case "Math.min":
+            case "Math.max":
+                boolean min = "Math.min".equals(function);
+                double r = min ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+                for (Object arg : args) {
+                    double d = toNumber(arg);
+                    if(Double.isNaN(d)){
+                        return Double.NaN;
+                    }
+                    r = min ? Math.min(r,d) : Math.max(r,d);
+                }
+                return r;
+            default:
+                throw new IllegalStateException(function);
+        }
+    }
+
+    // ---------------------------------------- 词法及语法分析 ----------------------------------------
+
+    private static class Token {
+        static final int NUMBER = 0;
+        static final int STRING = 1;
+        static final int IDENT = 2;
+        static final int OP = 3;
+        static final int EOF = 4;
+
+        final int type;
+        final String text;
+        final Object value;
+
+        Token(int type, String text, Object value) {
+            this.type = type;
+            this.text = text;
+            this.value = value;
+        }
+
+        boolean is(String op){
+            return (type == OP || type == IDENT) && text.equals(op);
+        }
+    }
+
+    private static class Parser {
+
+        static final int VALUE = 0;
+        static final int NEW_VALUE = 1;
+
+        private static final String[] OPERATORS = {"===","!==","==","!=","<=",">=","&&","||",
+                "<",">","=","+","-","*","/","%","!","?",":","(",")","{","}",";",","};
+        private static final String[] FUNCTIONS = {"Math.abs","Math.round","Math.floor","Math.ceil","Math.min","Math.max"};
+
+        private final String express;
+        private final List<Token> tokens = new ArrayList<>();
+        private final Map<String,Integer> variables = new HashMap<>();
+        private int pos = 0;
+
+        Parser(String express) {
+            this.express = express;
+            variables.put("value",VALUE);
+            variables.put("newValue",NEW_VALUE);
+            tokenize(express);
+        }
+
+        ValueExpress parse(){
+            if(tokens.size() == 2 && tokens.get(0).type == Token.STRING){
+                //整个表达式被引号包围
+                return new Parser((String) tokens.get(0).value).parse();
+            }
+            Token first = peek();
+            boolean statement = first.is(";") || first.is("{") || first.type == Token.IDENT
+                    && ("if".equals(first.text) || "var".equals(first.text) || tokens.get(pos + 1).is("="));
+            if(!statement){
+                //只有一个表达式时,表达式的值即为新值
+                Node expression = expression();
+                if(peek().is(";")){
+                    pos++;
+                }
+                if(peek().type == Token.EOF){
+                    return new Compiled(express,new Statement[0],expression,variables.size());
+                }
+                pos = 0;
+            }
+            List<Statement> statements = new ArrayList<>();
+            while (peek().type != Token.EOF){
+                statements.add(statement());
+            }
+            return new Compiled(express,statements.toArray(new Statement[statements.size()]),null,variables.size());
+        }
+
+        private Statement statement(){
+            Token token = peek();
+            if(token.is(";")){
+                pos++;
+                return vars -> {};
+            }
+            if(token.is("{")){
+                pos++;
+                List<Statement> block = new ArrayList<>();
+                while (!peek().is("}")){
+                    if(peek().type == Token.EOF){
+                        throw error("缺少 }");
+                    }
+                    block.add(statement());
+                }
+                pos++;
+                Statement[] statements = block.toArray(new Statement[block.size()]);
+                return vars -> {
+                    for (Statement statement : statements) {
+                        statement.exec(vars);
+                    }
+                };
+            }
+            if(token.type == Token.IDENT && "if".equals(token.text)){
+                pos++;
+                expect("(");
+                Node condition = expression();
+                expect(")");
+                Statement then = statement();
+                Statement otherwise = null;
+                if(peek().type == Token.IDENT && "else".equals(peek().text)){
+                    pos++;
+                    otherwise = statement();
+                }
+                Statement elseStatement = otherwise;
+                return vars -> {
+                    if(truthy(condition.eval(vars))){
+                        then.exec(vars);
+                    }else if(elseStatement != null){
+                        elseStatement.exec(vars);
+                    }
+                };
+            }
+            boolean declare = false;
+            if(token.type == Token.IDENT && "var".equals(token.text)){
+                pos++;
+                declare = true;
+                token = peek();
+                if(token.type != Token.IDENT){
+                    throw error("var 后应为变量名");
+                }
+            }
+            if(token.type == Token.IDENT && tokens.get(pos + 1).is("=")){
+                pos += 2;
+                Node node = expression();
+                if(!variables.containsKey(token.text)){
+                    checkName(token.text);
+                    variables.put(token.text,variables.size());
+                }
+                int slot = variables.get(token.text);
+                endStatement();
+                return vars -> vars[slot] = node.eval(vars);
+            }
+            if(declare){
+                throw error("var 变量应赋初始值");
+            }
+            Node node = expression();
+            endStatement();
+            return node::eval;
+        }
+
+        private void endStatement(){
+            if(peek().is(";")){
+                pos++;
+            }
+        }
+
+        private Node expression(){
+            Node condition = or();
+            if(peek().is("?")){
+                pos++;
+                Node then = expression();
+                expect(":");
+                Node otherwise = expression();
+                return vars -> truthy(condition.eval(vars)) ? then.eval(vars) : otherwise.eval(vars);
+            }
+            return condition;
+        }
+
+        private Node or(){
+            Node left = and();
+            while (peek().is("||")){
+                pos++;
+                Node l = left;
+                Node r = and();
+                left = vars -> {
+                    Object v = l.eval(vars);
+                    return truthy(v) ? v : r.eval(vars);
+                };
+            }
+            return left;
+        }
+
+        private Node and(){
+            Node left = binary(0);
+            while (peek().is("&&")){
+                pos++;
+                Node l = left;
+                Node r = binary(0);
+                left = vars -> {
+                    Object v = l.eval(vars);
+                    return truthy(v) ? r.eval(vars) : v;
+                };
+            }
+            return left;
+        }
+
+        private static final String[][] LEVELS = {
+                {"==","!=","===","!=="},
+                {"<",">","<=",">="},
+                {"+","-"},
+                {"*","/","%"}
+        };
+
+        private Node binary(int level){
+            if(level == LEVELS.length){
+                return unary();
+            }
+            Node left = binary(level + 1);
+            String op;
+            while ((op = operator(LEVELS[level])) != null){
+                pos++;
+                Node l = left;
+                Node r = binary(level + 1);
+                String o = op;
+                left = vars -> ValueExpress.binary(o,l.eval(vars),r.eval(vars));
+            }
+            return left;
+        }
+
+        private String operator(String[] ops){
+            Token token = peek();
+            if(token.type == Token.OP){
+                for (String op : ops) {
+                    if(op.equals(token.text)){
+                        return op;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private Node unary(){
+            Token token = peek();
+            if(token.type == Token.OP && ("!".equals(token.text) || "-".equals(token.text) || "+".equals(token.text))){
+                pos++;
+                Node node = unary();
+                switch (token.text){
+                    case "!": return vars -> !truthy(node.eval(vars));
+                    case "-": return vars -> -toNumber(node.eval(vars));
+                    default: return vars -> toNumber(node.eval(vars));
+                }
+            }
+            return primary();
+        }
+
+        private Node primary(){
+            Token token = tokens.get(pos++);
+            switch (token.type){
+                case Token.NUMBER:
+                case Token.STRING:
+                    Object constant = token.value;
+                    return vars -> constant;
+                case Token.IDENT:
+                    switch (token.text){
+                        case "true": return vars -> Boolean.TRUE;
+                        case "false": return vars -> Boolean.FALSE;
+                        case "null": return vars -> null;
+                    }
+                    if(peek().is("(")){
+                        return function(token.text);
+                    }
+                    Integer slot = variables.get(token.text);
+                    if(slot == null){
+                        throw error("未定义的变量 " + token.text);
+                    }
+                    int index = slot;
+                    return vars -> vars[index];
+                default:
+                    if(token.is("(")){
+                        Node node = expression();
+                        expect(")");
+                        return node;
+                    }
+                    throw error("不支持的语法 " + (token.type == Token.EOF ? "(表达式不完整)" : token.text));
+            }
+        }
+
+        private Node function(String name){
+            boolean supported = false;
+            for (String function : FUNCTIONS) {
+                supported |= function.equals(name);
+            }
+            if(!supported){
+                throw error("不支持的函数 " + name);
+            }
+            expect("(");
+            List<Node> args = new ArrayList<>();
+            if(!peek().is(")")){
+                args.add(expression());
+                while (peek().is(",")){
+                    pos++;
+                    args.add(expression());
+                }
+            }
+            expect(")");
+            Node[] nodes = args.toArray(new Node[args.size()]);
+            return vars -> {
+                Object[] values = new Object[nodes.length];
+                for (int i = 0; i < nodes.length; i++) {
+                    values[i] = nodes[i].eval(vars);
+                }
+                return call(name,values);
+            };
+        }
+
+        private void checkName(String name){
+            if(name.indexOf('.') != -1 || "if".equals(name) || "else".equals(name) || "var".equals(name)
+                    || "true".equals(name) || "false".equals(name) || "null".equals(name)){
+                throw error("不支持的赋值 " + name);
+            }
+        }
+
+        private Token peek(){
+            return tokens.get(pos);
+        }
+
+        private void expect(String op){
+            if(!peek().is(op)){
+                throw error("缺少 " + op);
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message){
+            return new IllegalArgumentException(message);
+        }
+
+        private void tokenize(String s){
+            int i = 0;
+            int length = s.length();
+            while (i < length){
+                char c = s.charAt(i);
+                if(Character.isWhitespace(c)){
+                    i++;
+                }else if(Character.isDigit(c) || c == '.' && i + 1 < length && Character.isDigit(s.charAt(i + 1))){
+                    int start = i;
+                    while (i < length && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '.')){
+                        i++;
+                    }
+                    if(i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')){
+                        i++;
+                        if(i < length && (s.charAt(i) == '+' || s.charAt(i) == '-')){
+                            i++;
+                        }
+                        while (i < length && Character.isDigit(s.charAt(i))){
+                            i++;
+                        }
+                    }
+                    String text = s.substring(start,i);
+                    try {
+                        tokens.add(new Token(Token.NUMBER,text,Double.parseDouble(text)));
+                    } catch (NumberFormatException e) {
+                        throw error("错误的数字 " + text);
+                    }
+                }else if(c == '\'' || c == '"'){
+                    StringBuilder sb = new StringBuilder();
+                    int start = i++;
+                    while (true){
+                        if(i >= length){
+                            throw error("字符串缺少结束引号");
+                        }
+                        char ch = s.charAt(i++);
+                        if(ch == c){
+                            break;
+                        }
+                        if(ch == '\\' && i < length){
+                            ch = s.charAt(i++);
+                            switch (ch){
+                                case 'n': ch = '\n'; break;
+                                case 't': ch = '\t'; break;
+                                case 'r': ch = '\r'; break;
+                            }
+                        }
+                        sb.append(ch);
+                    }
+                    tokens.add(new Token(Token.STRING,s.substring(start,i),sb.toString()));
+                }else if(Character.isJavaIdentifierStart(c)){
+                    int start = i;
+                    while (i < length && (Character.isJavaIdentifierPart(s.charAt(i)) || s.charAt(i) == '.')){
+                        i++;
+                    }
+                    tokens.add(new Token(Token.IDENT,s.substring(start,i),null));
+                }else{
+                    String op = null;
+                    for (String operator : OPERATORS) {
+                        if(s.startsWith(operator,i)){
+                            op = operator;
+                            break;
+                        }
+                    }
+                    if(op == null){
+                        throw error("不支持的字符 " + c);
+                    }
+                    tokens.add(new Token(Token.OP,op,null));
+                    i += op.length();
+                }
+            }
+            tokens.add(new Token(Token.EOF,"",null));
+        }
+    }
+}
@@ -165,6 +165,8 @@ public class DockerPlugin implements DetectPlugin {
                             collectObject.getValue(),
                             CounterType.GAUGE,
                             "containerName=" + collectObject.getContainerName() + collectObject.getTags());
+                    //网络接口的字节数及包数为累计值
+                    metric.rate = collectObject.getMetric().startsWith("net.if.");
                     metrics.add(metric);
                 }
                 detectResult.setMetricsList(metrics);
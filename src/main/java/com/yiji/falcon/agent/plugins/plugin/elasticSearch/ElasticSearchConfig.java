@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /*
  * 修订记录:
@@ -56,37 +55,21 @@ public class ElasticSearchConfig {
             result = new HashMap<>();
         }
 
-        String cmd = "lsof -p " + pid + " | grep elasticsearch";
-        CommandUtilForUnix.ExecuteResult executeResult = CommandUtilForUnix.execWithReadTimeLimit(cmd,false,10, TimeUnit.SECONDS);
-
-        if(executeResult.isSuccess){
-            String path = "";
-            String msg = executeResult.msg;
-            String[] ss = msg.split("\\s");
-            for (String s : ss) {
-                if(s.contains("elasticsearch") &&
-                        s.contains("jar") &&
-                        s.substring(s.lastIndexOf("elasticsearch"),s.lastIndexOf("jar")+3).
-                                matches("elasticsearch-[\\w*.]*\\.jar")){
-                    path = s;
-                    break;
-                }
-            }
-            if(!"".equals(path)){
-                path = path.substring(0,path.lastIndexOf(File.separator));
-                path = path.substring(0,path.lastIndexOf(File.separator));
-                path += File.separator + "config" + File.separator + "elasticsearch.yml";
-                try {
-                    result = Yaml.loadType(new FileInputStream(path), HashMap.class);
-                    cache.put(key,result);
-                } catch (YamlException e) {
-                    log.warn("配置文件解析失败,配置文件可能未配置任何内容",e);
-                }catch (FileNotFoundException e){
-                    log.error("elasticSearch配置文件查找失败,请检查是否路径存在空格",e);
-                }
+        String path = CommandUtilForUnix.getOpenFileByPid(pid,name -> name.matches("elasticsearch-[\\w*.]*\\.jar"));
+        if(path != null){
+            path = path.substring(0,path.lastIndexOf(File.separator));
+            path = path.substring(0,path.lastIndexOf(File.separator));
+            path += File.separator + "config" + File.separator + "elasticsearch.yml";
+            try {
+                result = Yaml.loadType(new FileInputStream(path), HashMap.class);
+                cache.put(key,result);
+            } catch (YamlException e) {
+                log.warn("配置文件解析失败,配置文件可能未配置任何内容",e);
+            }catch (FileNotFoundException e){
+                log.error("elasticSearch配置文件查找失败,请检查是否路径存在空格",e);
             }
         }else{
-            log.error("命令 {} 执行失败,错误信息:\r\n{}",cmd,executeResult.msg);
+            log.error("进程 {} 未找到elasticsearch的jar文件",pid);
         }
         return result;
     }
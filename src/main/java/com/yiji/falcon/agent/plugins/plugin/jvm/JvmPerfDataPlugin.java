@@ -0,0 +1,338 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.plugins.plugin.jvm;
+
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.jmx.LocalJvmDiscovery;
+import com.yiji.falcon.agent.jmx.PerfDataReader;
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
+import com.yiji.falcon.agent.plugins.DetectPlugin;
+import com.yiji.falcon.agent.vo.detect.DetectResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 基于hsperfdata的JVM监控插件
+ * 直接读取本地(含容器内)所有JVM的hsperfdata文件(见 {@link PerfDataReader}),不建立JMX连接,
+ * 上报堆内存、Metaspace、GC次数及时间、线程数、类加载及safepoint
+ * 目标JVM使用 -XX:-UsePerfData 或 -XX:+PerfDisableSharedMem 启动时无法监控
+ */
+public class JvmPerfDataPlugin implements DetectPlugin {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private int step;
+    private boolean enable;
+    /**
+     * 各JVM的计数器,key为进程号
+     */
+    private final Map<Integer,Counters> countersCache = new ConcurrentHashMap<>();
+    /**
+     * 各JVM的agentSignName,key为进程号
+     */
+    private volatile Map<Integer,String> signNames = Collections.emptyMap();
+
+    /**
+     * 自动探测地址的实现
+     * 探测地址为本地发现的有hsperfdata文件的JVM的进程号
+     *
+     * @return
+     */
+    @Override
+    public Collection<String> autoDetectAddress() {
+        List<String> addresses = new ArrayList<>();
+        if(!enable){
+            return addresses;
+        }
+        Map<Integer,String> names = new HashMap<>();
+        Map<String,Integer> nameCount = new HashMap<>();
+        for (JvmDescriptor descriptor : LocalJvmDiscovery.getSnapshot().getJvms().values()) {
+            if(descriptor.getPerfDataFile() != null){
+                addresses.add(descriptor.id());
+                String name = signName(descriptor.displayName());
+                names.put(descriptor.getPid(),name);
+                nameCount.merge(name,1,Integer::sum);
+            }
+        }
+        //启动命令相同的多个JVM以进程号区分
+        names.replaceAll((pid,name) -> nameCount.get(name) > 1 ? name + "-" + pid : name);
+        signNames = names;
+        countersCache.keySet().retainAll(names.keySet());
+        return addresses;
+    }
+
+    /**
+     * 启动命令的main类名或jar文件名
+     * @param displayName
+     * @return
+     */
+    private static String signName(String displayName){
+        String name = displayName.trim().split("\\s+")[0];
+        if(name.isEmpty()){
+            return "unknown";
+        }
+        return name.endsWith(".jar") ? new File(name).getName() : name;
+    }
+
+    /**
+     * 监控的具体服务的agentSignName tag值
+     *
+     * @param address 被监控的探测地址
+     * @return 根据地址提炼的标识, 如域名等
+     */
+    @Override
+    public String agentSignName(String address) {
+        String name = signNames.get(Integer.parseInt(address));
+        return name == null ? address : name;
+    }
+
+    /**
+     * 一次地址的探测结果
+     *
+     * @param address 被探测的地址,地址来源于方法 {@link DetectPlugin#detectAddressCollection()}
+     * @return 返回被探测的地址的探测结果, 将用于上报监控状态
+     */
+    @Override
+    public DetectResult detectResult(String address) {
+        DetectResult detectResult = new DetectResult();
+        int pid = Integer.parseInt(address);
+        JvmDescriptor descriptor = LocalJvmDiscovery.getSnapshot().get(pid);
+        if(descriptor == null || descriptor.getPerfDataFile() == null){
+            countersCache.remove(pid);
+            detectResult.setSuccess(false);
+            return detectResult;
+        }
+        try {
+            Counters counters = countersCache.get(pid);
+            if(counters == null || !counters.reader.getFile().equals(descriptor.getPerfDataFile()) || !counters.isSameVm()){
+                counters = new Counters(new PerfDataReader(descriptor.getPerfDataFile()));
+                countersCache.put(pid,counters);
+            }
+            if(!counters.reader.isAccessible()){
+                detectResult.setSuccess(false);
+                return detectResult;
+            }
+            detectResult.setMetricsList(counters.read());
+            detectResult.setSuccess(true);
+        } catch (IOException e) {
+            logger.warn("读取JVM(pid:{})的hsperfdata失败: {}",pid,e.getMessage());
+            countersCache.remove(pid);
+            detectResult.setSuccess(false);
+        }
+        return detectResult;
+    }
+
+    /**
+     * 被探测的地址集合
+     *
+     * @return 只要该集合不为空, 就会触发监控
+     * pluginActivateType属性将不起作用
+     */
+    @Override
+    public Collection<String> detectAddressCollection() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * 插件初始化操作
+     * 该方法将会在插件运行前进行调用
+     *
+     * @param properties 包含的配置:
+     *                   1、插件目录绝对路径的(key 为 pluginDir),可利用此属性进行插件自定制资源文件读取
+     *                   2、插件指定的配置文件的全部配置信息(参见 {@link com.yiji.falcon.agent.plugins.Plugin#configFileName()} 接口项)
+     *                   3、授权配置项(参见 {@link com.yiji.falcon.agent.plugins.Plugin#authorizationKeyPrefix()} 接口项
+     */
+    @Override
+    public void init(Map<String, String> properties) {
+        this.step = Integer.parseInt(properties.get("step"));
+        this.enable = !"false".equals(properties.get("enable"));
+    }
+
+    /**
+     * 该插件监控的服务名
+     * 该服务名会上报到Falcon监控值的tag(service)中,可用于区分监控值服务
+     *
+     * @return
+     */
+    @Override
+    public String serverName() {
+        return "jvm";
+    }
+
+    /**
+     * 监控值的获取和上报周期(秒)
+     *
+     * @return
+     */
+    @Override
+    public int step() {
+        return this.step;
+    }
+
+    /**
+     * Agent关闭时的调用钩子
+     * 如，可用于插件的资源释放等操作
+     */
+    @Override
+    public void agentShutdownHook() {
+        countersCache.clear();
+    }
+
+    /**
+     * 一个JVM需要读取的计数器
+     * 计数器的位置在hsperfdata的计数器个数变化时重新解析,每次读取只从mmap的文件中读取long值到复用的数组
+     */
+    static class Counters {
+
+        private static final Pattern SPACE_USED = Pattern.compile("sun\\.gc\\.generation\\.\\d+\\.space\\.\\d+\\.used");
+        private static final Pattern GENERATION_CAPACITY = Pattern.compile("sun\\.gc\\.generation\\.\\d+\\.capacity");
+        private static final Pattern GENERATION_MAX_CAPACITY = Pattern.compile("sun\\.gc\\.generation\\.\\d+\\.maxCapacity");
+        private static final Pattern COLLECTOR_INVOCATIONS = Pattern.compile("sun\\.gc\\.collector\\.\\d+\\.invocations");
+
+        /**
+         * 单个计数器:监控项名称、计数器名称、是否为累计值、是否为时间(tick)
+         */
+        private static final String[][] SINGLE = {
+                {"jvm.metaspace.used","sun.gc.metaspace.used","",""},
+                {"jvm.metaspace.committed","sun.gc.metaspace.capacity","",""},
+                {"jvm.threads.live","java.threads.live","",""},
+                {"jvm.threads.daemon","java.threads.daemon","",""},
+                {"jvm.threads.peak","java.threads.livePeak","",""},
+                {"jvm.classes.loaded","java.cls.loadedClasses","",""},
+                {"jvm.classes.unloaded","java.cls.unloadedClasses","rate",""},
+                {"jvm.safepoint.count","sun.rt.safepoints","rate",""},
+                {"jvm.safepoint.time","sun.rt.safepointTime","rate","ticks"},
+                {"jvm.safepoint.syncTime","sun.rt.safepointSyncTime","rate","ticks"}
+        };
+
+        final PerfDataReader reader;
+        private final long vmBeginTime;
+        private int frequencyOffset;
+        private int vmBeginTimeOffset;
+        private int[] singleOffsets;
+        private int[] spaceUsedOffsets;
+        private int[] capacityOffsets;
+        private int[] maxCapacityOffsets;
+        private int[] collectorCountOffsets;
+        private int[] collectorTimeOffsets;
+        private String[] collectorNames;
+        private long[] values;
+
+        Counters(PerfDataReader reader) {
+            this.reader = reader;
+            resolve();
+            this.vmBeginTime = reader.getLong(vmBeginTimeOffset);
+        }
+
+        /**
+         * 进程号被新的JVM复用时,hsperfdata的JVM启动时间不同
+         * @return
+         */
+        boolean isSameVm(){
+            reader.index();
+            return reader.getLong(reader.offsetOf("sun.rt.createVmBeginTime")) == vmBeginTime;
+        }
+
+        private void resolve(){
+            frequencyOffset = reader.offsetOf("sun.os.hrt.frequency");
+            vmBeginTimeOffset = reader.offsetOf("sun.rt.createVmBeginTime");
+            singleOffsets = new int[SINGLE.length];
+            for (int i = 0; i < SINGLE.length; i++) {
+                singleOffsets[i] = reader.offsetOf(SINGLE[i][1]);
+            }
+            spaceUsedOffsets = offsets(reader.names(SPACE_USED));
+            capacityOffsets = offsets(reader.names(GENERATION_CAPACITY));
+            maxCapacityOffsets = offsets(reader.names(GENERATION_MAX_CAPACITY));
+            List<String> collectors = reader.names(COLLECTOR_INVOCATIONS);
+            collectorCountOffsets = new int[collectors.size()];
+            collectorTimeOffsets = new int[collectors.size()];
+            collectorNames = new String[collectors.size()];
+            for (int i = 0; i < collectors.size(); i++) {
+                String prefix = collectors.get(i).substring(0,collectors.get(i).length() - "invocations".length());
+                collectorCountOffsets[i] = reader.offsetOf(collectors.get(i));
+                collectorTimeOffsets[i] = reader.offsetOf(prefix + "time");
+                String name = reader.getString(prefix + "name");
+                collectorNames[i] = name == null ? prefix.substring("sun.gc.".length(),prefix.length() - 1) : name.replace(' ','_');
+            }
+            values = new long[SINGLE.length + 3 + collectorNames.length * 2];
+        }
+
+        private int[] offsets(List<String> names){
+            int[] offsets = new int[names.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = reader.offsetOf(names.get(i));
+            }
+            return offsets;
+        }
+
+        /**
+         * 读取所有计数器的当前值到复用的数组,不产生对象分配
+         */
+        private void readValues(){
+            if(reader.index()){
+                resolve();
+            }
+            long frequency = Math.max(reader.getLong(frequencyOffset) / 1000,1);
+            int index = 0;
+            for (int i = 0; i < SINGLE.length; i++) {
+                long value = reader.getLong(singleOffsets[i]);
+                values[index++] = SINGLE[i][3].isEmpty() ? value : value / frequency;
+            }
+            values[index++] = sum(spaceUsedOffsets);
+            values[index++] = sum(capacityOffsets);
+            values[index++] = sum(maxCapacityOffsets);
+            for (int i = 0; i < collectorNames.length; i++) {
+                values[index++] = reader.getLong(collectorCountOffsets[i]);
+                values[index++] = reader.getLong(collectorTimeOffsets[i]) / frequency;
+            }
+        }
+
+        private long sum(int[] offsets){
+            long sum = 0;
+            for (int offset : offsets) {
+                sum += reader.getLong(offset);
+            }
+            return sum;
+        }
+
+        /**
+         * 读取计数器并转换为监控值
+         * 时间类计数器转换为毫秒,累计值标记为速率上报
+         * @return
+         */
+        List<DetectResult.Metric> read(){
+            readValues();
+            List<DetectResult.Metric> metrics = new ArrayList<>(values.length);
+            int index = 0;
+            for (String[] single : SINGLE) {
+                long value = values[index++];
+                if(singleOffsets[index - 1] < 0){
+                    continue;
+                }
+                DetectResult.Metric metric = new DetectResult.Metric(single[0],String.valueOf(value),CounterType.GAUGE,null);
+                metric.rate = !single[2].isEmpty();
+                metrics.add(metric);
+            }
+            metrics.add(new DetectResult.Metric("jvm.heap.used",String.valueOf(values[index++]),CounterType.GAUGE,null));
+            metrics.add(new DetectResult.Metric("jvm.heap.committed",String.valueOf(values[index++]),CounterType.GAUGE,null));
+            metrics.add(new DetectResult.Metric("jvm.heap.max",String.valueOf(values[index++]),CounterType.GAUGE,null));
+            for (String collectorName : collectorNames) {
+                DetectResult.Metric count = new DetectResult.Metric("jvm.gc.count",String.valueOf(values[index++]),CounterType.GAUGE,"collector=" + collectorName);
+                count.rate = true;
+                metrics.add(count);
+                DetectResult.Metric time = new DetectResult.Metric("jvm.gc.time",String.valueOf(values[index++]),CounterType.GAUGE,"collector=" + collectorName);
+                time.rate = true;
+                metrics.add(time);
+            }
+            return metrics;
+        }
+    }
+}
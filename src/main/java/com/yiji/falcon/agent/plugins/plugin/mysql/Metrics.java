@@ -28,6 +28,17 @@ import java.util.Set;
  */
 class Metrics {
 
+    /**
+     * GLOBAL STATUS中为累计值的监控项(前缀),上报前转换为速率
+     */
+    private static final String[] CUMULATIVE_STATUS_PREFIX = {
+            "Com_", "Handler_", "Bytes_", "Select_", "Sort_", "Created_tmp_", "Aborted_", "Opened_", "Table_locks_",
+            "Key_read", "Key_write", "Innodb_rows_", "Innodb_pages_", "Innodb_data_read", "Innodb_data_writ",
+            "Innodb_data_fsyncs", "Innodb_buffer_pool_read", "Innodb_buffer_pool_write_requests",
+            "Innodb_log_writes", "Innodb_os_log_written", "Innodb_row_lock_waits", "Qcache_hits", "Qcache_inserts",
+            "Questions", "Queries", "Connections", "Slow_queries", "Threads_created"
+    };
+
     private JDBCPlugin plugin;
 
     Metrics(JDBCPlugin plugin) {
@@ -149,6 +160,7 @@ class Metrics {
                 falconReportObject.setTimestamp(System.currentTimeMillis() / 1000);
                 falconReportObject.setMetric(metric);
                 falconReportObject.setValue(value);
+                falconReportObject.setRate(isCumulativeStatus(metric));
                 falconReportObject.appendTags(MetricsCommon.getTags(plugin.agentSignName(),plugin,plugin.serverName(), MetricsType.SQL_IN_BUILD));
                 reportObjectSet.add(falconReportObject);
             }
@@ -158,4 +170,17 @@ class Metrics {
         return reportObjectSet;
     }
 
+    /**
+     * GLOBAL STATUS的监控项是否为累计值
+     * @param metric
+     * @return
+     */
+    static boolean isCumulativeStatus(String metric){
+        for (String prefix : CUMULATIVE_STATUS_PREFIX) {
+            if(metric.startsWith(prefix)){
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -26,7 +26,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author guqiu@yiji.com
@@ -190,18 +189,7 @@ public class StandaloneJarPlugin implements JMXPlugin {
         String dirPath = serverDirPathCatch.get(key);
         if(StringUtils.isEmpty(dirPath)){
             try {
-                String cmd = "lsof -p " + pid + " | grep " + serverName;
-                CommandUtilForUnix.ExecuteResult executeResult = CommandUtilForUnix.execWithReadTimeLimit(cmd,false,10, TimeUnit.SECONDS);
-                String msg = executeResult.msg;
-                String[] ss = msg.split("\n");
-                for (String s : ss) {
-                    if(!StringUtils.isEmpty(s)){
-                        String[] split = s.split("\\s+");
-                        dirPath = split[split.length - 1];
-                        break;
-                    }
-                }
-
+                dirPath = CommandUtilForUnix.getOpenFileByPid(pid,name -> name.contains(serverName));
                 if (dirPath != null) {
                     dirPath += File.separator + serverName;
                     serverDirPathCatch.put(key,dirPath);
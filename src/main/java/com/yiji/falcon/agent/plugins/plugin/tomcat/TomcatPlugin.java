@@ -17,15 +17,13 @@ import com.yiji.falcon.agent.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.management.MBeanAttributeInfo;
+import javax.management.AttributeNotFoundException;
 import javax.management.MBeanServerConnection;
-import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -134,20 +132,18 @@ public class TomcatPlugin implements JMXPlugin {
     public String agentSignName(MBeanServerConnection mBeanServerConnection, int pid) {
         try {
             StringBuilder name = new StringBuilder();
-            Set<ObjectInstance> beanSet = mBeanServerConnection.queryMBeans(null, null);
-            for (ObjectInstance mbean : beanSet) {
-                ObjectName objectName = mbean.getObjectName();
-                if(objectName.toString().contains("Catalina:type=Connector")){
-                    for (MBeanAttributeInfo mBeanAttributeInfo : mBeanServerConnection.getMBeanInfo(objectName).getAttributes()) {
-                        String key = mBeanAttributeInfo.getName();
-                        if("port".equals(key)){
-                            String value = mBeanServerConnection.getAttribute(mbean.getObjectName(),key).toString();
-                            if("".equals(name.toString())){
-                                name.append(value);
-                            }else{
-                                name.append("-").append(value);
-                            }
-                        }
+            for (ObjectName objectName : mBeanServerConnection.queryNames(new ObjectName("Catalina:type=Connector,*"), null)) {
+                Object port;
+                try {
+                    port = mBeanServerConnection.getAttribute(objectName,"port");
+                } catch (AttributeNotFoundException e) {
+                    continue;
+                }
+                if(port != null){
+                    if("".equals(name.toString())){
+                        name.append(port);
+                    }else{
+                        name.append("-").append(port);
                     }
                 }
             }
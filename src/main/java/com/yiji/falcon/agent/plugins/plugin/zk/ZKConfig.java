@@ -18,7 +18,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /*
  * 修订记录:
@@ -51,43 +50,26 @@ public class ZKConfig {
             result = new HashMap<>();
         }
 
-        String cmd = "lsof -p " + pid + " | grep zookeeper";
-        CommandUtilForUnix.ExecuteResult executeResult = CommandUtilForUnix.execWithReadTimeLimit(cmd,false,10, TimeUnit.SECONDS);
+        String path = CommandUtilForUnix.getOpenFileByPid(pid,name -> name.matches("zookeeper-[\\w*.]*\\.jar"));
+        if(path != null){
+            path = path.substring(0,path.lastIndexOf(File.separator));
+            path += File.separator + "conf" + File.separator + "zoo.cfg";
 
-        if(executeResult.isSuccess){
-            String path = "";
-            String msg = executeResult.msg;
-            String[] ss = msg.split("\\s");
-            for (String s : ss) {
-                if(s.contains("zookeeper") &&
-                        s.contains("jar") &&
-                        s.substring(s.lastIndexOf("zookeeper"),s.lastIndexOf("jar")+3).
-                                matches("zookeeper-[\\w*.]*\\.jar")){
-                    path = s;
-                    break;
+            Properties pps = new Properties();
+            try (FileInputStream in = new FileInputStream(path)){
+                pps.load(in);
+                Enumeration en = pps.propertyNames(); //得到配置文件的名字
+                while(en.hasMoreElements()) {
+                    String strKey = (String) en.nextElement();
+                    String strValue = pps.getProperty(strKey);
+                    result.put(strKey,strValue);
                 }
-            }
-            if(!"".equals(path)){
-                path = path.substring(0,path.lastIndexOf(File.separator));
-                path += File.separator + "conf" + File.separator + "zoo.cfg";
-
-                Properties pps = new Properties();
-                try (FileInputStream in = new FileInputStream(path)){
-                    pps.load(in);
-                    Enumeration en = pps.propertyNames(); //得到配置文件的名字
-                    while(en.hasMoreElements()) {
-                        String strKey = (String) en.nextElement();
-                        String strValue = pps.getProperty(strKey);
-                        result.put(strKey,strValue);
-                    }
-                    cache.put(key,result);
-                } catch (IOException e) {
-                    log.error("zookeeper配置文件查找失败,请检查是否路径存在空格",e);
-                }
-
+                cache.put(key,result);
+            } catch (IOException e) {
+                log.error("zookeeper配置文件查找失败,请检查是否路径存在空格",e);
             }
         }else{
-            log.error("命令 {} 执行失败,错误信息:\r\n{}",cmd,executeResult.msg);
+            log.error("进程 {} 未找到zookeeper的jar文件",pid);
         }
         return result;
     }
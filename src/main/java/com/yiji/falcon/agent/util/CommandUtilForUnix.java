@@ -18,6 +18,7 @@ import java.util.StringTokenizer;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /*
  * 修订记录:
@@ -56,11 +57,16 @@ public class CommandUtilForUnix {
 
     /**
      * 获取指定进程的命令行目录
+     * 支持/proc时读取进程的工作目录(见 {@link ProcessMetadata}),否则通过 lsof 命令获取
      * @param pid
      * @return
      * @throws IOException
      */
     public static String getCmdDirByPid(int pid) throws IOException {
+        if(ProcessMetadata.isSupported()){
+            ProcessMetadata metadata = ProcessMetadata.get(pid);
+            return metadata == null ? null : metadata.getCwd();
+        }
         String cmd = "lsof -p " + pid;
         CommandUtilForUnix.ExecuteResult executeResult = CommandUtilForUnix.execWithReadTimeLimit(cmd,false,10, TimeUnit.SECONDS);
         String msg = executeResult.msg;
@@ -75,6 +81,36 @@ public class CommandUtilForUnix {
         return null;
     }
 
+    /**
+     * 获取指定进程打开的文件
+     * 支持/proc时读取进程信息(见 {@link ProcessMetadata#getOpenFiles()}),否则通过 lsof 命令获取
+     * @param pid
+     * @param fileNameFilter
+     * 文件名(不含目录)的过滤条件
+     * @return
+     * 文件名满足条件的第一个文件,不存在时返回null
+     * @throws IOException
+     */
+    public static String getOpenFileByPid(int pid, Predicate<String> fileNameFilter) throws IOException {
+        if(ProcessMetadata.isSupported()){
+            ProcessMetadata metadata = ProcessMetadata.get(pid);
+            return metadata == null ? null : metadata.findOpenFile(fileNameFilter);
+        }
+        String cmd = "lsof -p " + pid;
+        CommandUtilForUnix.ExecuteResult executeResult = CommandUtilForUnix.execWithReadTimeLimit(cmd,false,10, TimeUnit.SECONDS);
+        if(!executeResult.isSuccess){
+            logger.error("命令 {} 执行失败,错误信息:\r\n{}",cmd,executeResult.msg);
+            return null;
+        }
+        for (String s : executeResult.msg.split("\n")) {
+            String[] split = s.trim().split("\\s+");
+            String path = split[split.length - 1];
+            if(path.startsWith("/") && fileNameFilter.test(path.substring(path.lastIndexOf('/') + 1))){
+                return path;
+            }
+        }
+        return null;
+    }
 
     /**
      * 执行命令,给定最大的命令结果读取时间
@@ -0,0 +1,324 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.util;
+
+import com.yiji.falcon.agent.vo.HttpResult;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长连接的HTTP连接池
+ * 按目标主机(route)维护keep-alive连接,超时时间由每次调用指定
+ * {@link HttpUtil} 的所有请求均通过此连接池发送:
+ * postJSON(数据上报)使用校验证书和主机名的连接池,get/post(插件采集)使用信任所有证书和主机名的连接池
+ */
+public class HttpClientPool {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpClientPool.class);
+
+    private static final AtomicLong requestCount = new AtomicLong();
+    private static final AtomicLong createdConnectionCount = new AtomicLong();
+    private static final AtomicLong leaseCount = new AtomicLong();
+    private static final AtomicLong leaseWaitNanos = new AtomicLong();
+
+    private static volatile long keepAliveMs = 30000;
+
+    /**
+     * 校验证书和主机名的连接池
+     */
+    private static final MeteredConnectionManager connectionManager;
+    private static final CloseableHttpClient httpClient;
+    /**
+     * 信任所有证书和主机名的连接池
+     */
+    private static final MeteredConnectionManager trustAllConnectionManager;
+    private static final CloseableHttpClient trustAllHttpClient;
+
+    static {
+        SSLConnectionSocketFactory trustAllSocketFactory;
+        try {
+            SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, (chain, authType) -> true).build();
+            trustAllSocketFactory = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
+        } catch (Exception e) {
+            log.error("信任所有证书的SSLContext创建失败,使用系统默认的SSL配置",e);
+            trustAllSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
+        }
+        connectionManager = createConnectionManager(SSLConnectionSocketFactory.getSocketFactory());
+        httpClient = createHttpClient(connectionManager);
+        trustAllConnectionManager = createConnectionManager(trustAllSocketFactory);
+        trustAllHttpClient = createHttpClient(trustAllConnectionManager);
+    }
+
+    private static MeteredConnectionManager createConnectionManager(SSLConnectionSocketFactory sslSocketFactory){
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslSocketFactory)
+                .build();
+        //记录新建的连接数,用于计算连接复用率
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = (route, config) -> {
+            createdConnectionCount.incrementAndGet();
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+        };
+        MeteredConnectionManager manager = new MeteredConnectionManager(registry, connectionFactory);
+        manager.setMaxTotal(100);
+        manager.setDefaultMaxPerRoute(10);
+        manager.setValidateAfterInactivity(2000);
+        return manager;
+    }
+
+    private static CloseableHttpClient createHttpClient(MeteredConnectionManager manager){
+        return HttpClients.custom()
+                .setConnectionManager(manager)
+                .setKeepAliveStrategy(new DefaultKeepAliveStrategy())
+                .evictExpiredConnections()
+                .evictIdleConnections(60, TimeUnit.SECONDS)
+                .disableCookieManagement()
+                .build();
+    }
+
+    /**
+     * 设置连接池的大小和默认的连接保持时间
+     * 校验证书和信任所有证书的两个连接池分别使用此配置
+     * @param maxTotal
+     * 最大连接数
+     * @param maxPerRoute
+     * 每个目标主机的最大连接数
+     * @param keepAlive
+     * 服务端未返回Keep-Alive时的连接保持时间(毫秒)
+     */
+    public static void configure(int maxTotal,int maxPerRoute,int keepAlive){
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        trustAllConnectionManager.setMaxTotal(maxTotal);
+        trustAllConnectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        keepAliveMs = keepAlive;
+        log.info("HTTP连接池配置 - 最大连接数:{},每个主机最大连接数:{},连接保持时间:{}ms",maxTotal,maxPerRoute,keepAlive);
+    }
+
+    /**
+     * 发送请求,校验服务端的证书和主机名,响应内容读取完毕后连接归还到连接池
+     * @param request
+     * @param connectTimeout
+     * 连接超时时间(毫秒),同时作为从连接池获取连接的等待时间
+     * @param readTimeout
+     * 读取超时时间(毫秒)
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult execute(HttpRequestBase request,int connectTimeout,int readTimeout) throws IOException {
+        return execute(httpClient,request,connectTimeout,readTimeout);
+    }
+
+    /**
+     * 发送请求,信任所有证书和主机名,响应内容读取完毕后连接归还到连接池
+     * @param request
+     * @param connectTimeout
+     * 连接超时时间(毫秒),同时作为从连接池获取连接的等待时间
+     * @param readTimeout
+     * 读取超时时间(毫秒)
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult executeTrustAll(HttpRequestBase request,int connectTimeout,int readTimeout) throws IOException {
+        return execute(trustAllHttpClient,request,connectTimeout,readTimeout);
+    }
+
+    private static HttpResult execute(CloseableHttpClient client,HttpRequestBase request,int connectTimeout,int readTimeout) throws IOException {
+        request.setConfig(RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build());
+        requestCount.incrementAndGet();
+        HttpResult result = new HttpResult();
+        long start = System.currentTimeMillis();
+        try (CloseableHttpResponse response = client.execute(request)) {
+            HttpEntity entity = response.getEntity();
+            result.setStatus(response.getStatusLine().getStatusCode());
+            result.setResult(entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8));
+        }
+        result.setResponseTime(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * 已租用(正在使用)的连接数
+     * @return
+     */
+    public static int getLeasedConnections(){
+        return totalStats().getLeased();
+    }
+
+    /**
+     * 连接池中空闲的连接数
+     * @return
+     */
+    public static int getAvailableConnections(){
+        return totalStats().getAvailable();
+    }
+
+    /**
+     * 等待获取连接的请求数
+     * @return
+     */
+    public static int getPendingRequests(){
+        return totalStats().getPending();
+    }
+
+    /**
+     * 累计的请求数
+     * @return
+     */
+    public static long getRequestCount(){
+        return requestCount.get();
+    }
+
+    /**
+     * 累计新建的连接数
+     * @return
+     */
+    public static long getCreatedConnectionCount(){
+        return createdConnectionCount.get();
+    }
+
+    /**
+     * 连接复用率,即未新建连接的请求所占的比例
+     * @return
+     */
+    public static double getReuseRatio(){
+        long requests = requestCount.get();
+        if(requests == 0){
+            return 0;
+        }
+        return Math.max(0, 1 - (double) createdConnectionCount.get() / requests);
+    }
+
+    /**
+     * 累计从连接池获取连接的等待时间(毫秒)
+     * @return
+     */
+    public static long getLeaseWaitMillis(){
+        return TimeUnit.NANOSECONDS.toMillis(leaseWaitNanos.get());
+    }
+
+    /**
+     * 累计从连接池获取连接的次数
+     * @return
+     */
+    public static long getLeaseCount(){
+        return leaseCount.get();
+    }
+
+    /**
+     * 关闭连接池
+     */
+    public static void shutdown(){
+        for (CloseableHttpClient client : new CloseableHttpClient[]{httpClient,trustAllHttpClient}) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                log.warn("HTTP连接池关闭异常",e);
+            }
+        }
+    }
+
+    private static PoolStats totalStats(){
+        PoolStats stats = connectionManager.getTotalStats();
+        PoolStats trustAllStats = trustAllConnectionManager.getTotalStats();
+        return new PoolStats(stats.getLeased() + trustAllStats.getLeased(),
+                stats.getPending() + trustAllStats.getPending(),
+                stats.getAvailable() + trustAllStats.getAvailable(),
+                stats.getMax() + trustAllStats.getMax());
+    }
+
+    /**
+     * 记录获取连接等待时间的连接池
+     */
+    private static class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+
+        MeteredConnectionManager(Registry<ConnectionSocketFactory> registry,
+                                 HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory) {
+            super(registry, connectionFactory);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest connectionRequest = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit timeUnit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return connectionRequest.get(timeout, timeUnit);
+                    } finally {
+                        leaseCount.incrementAndGet();
+                        leaseWaitNanos.addAndGet(System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return connectionRequest.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * 优先使用服务端返回的Keep-Alive timeout,未返回时使用配置的保持时间
+     */
+    private static class DefaultKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            BasicHeaderElementIterator iterator = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (iterator.hasNext()) {
+                HeaderElement element = iterator.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            return keepAliveMs;
+        }
+    }
+}
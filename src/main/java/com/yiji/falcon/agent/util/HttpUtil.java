@@ -4,14 +4,23 @@
  */
 package com.yiji.falcon.agent.util;
 
-import com.github.kevinsawicki.http.HttpRequest;
 import com.yiji.falcon.agent.vo.HttpResult;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -47,18 +56,50 @@ public class HttpUtil {
      * @throws IOException
      */
     public static HttpResult postJSON(String url,String data,int connectTimeout,int readTimeout) throws IOException {
-        HttpResult result = new HttpResult();
-        long start = System.currentTimeMillis();
-        HttpRequest httpRequest = new HttpRequest(new URL(url),"POST")
-                .connectTimeout(connectTimeout).readTimeout(readTimeout)
-                .acceptJson()
-                .contentType("application/json","UTF-8")
-                .send(data.getBytes("UTF-8"));
+        byte[] bytes = data.getBytes("UTF-8");
+        return postJSON(url,bytes,bytes.length,connectTimeout,readTimeout);
+    }
 
-        result.setStatus(httpRequest.code());
-        result.setResult(httpRequest.body());
-        result.setResponseTime(System.currentTimeMillis() - start);
-        return result;
+    /**
+     * 发送json post请求
+     * 请求体直接从字节缓冲区写出,不进行额外的编码和复制
+     * @param url
+     * @param data
+     * UTF-8编码的json数据所在的缓冲区
+     * @param length
+     * 有效数据的字节数
+     * @param connectTimeout
+     * @param readTimeout
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult postJSON(String url,byte[] data,int length,int connectTimeout,int readTimeout) throws IOException {
+        return postJSON(url,data,length,null,connectTimeout,readTimeout);
+    }
+
+    /**
+     * 发送json post请求
+     * @param url
+     * @param data
+     * json数据所在的缓冲区
+     * @param length
+     * 有效数据的字节数
+     * @param contentEncoding
+     * 数据的压缩方式(如gzip、deflate),为空代表未压缩
+     * @param connectTimeout
+     * @param readTimeout
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult postJSON(String url,byte[] data,int length,String contentEncoding,int connectTimeout,int readTimeout) throws IOException {
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader(HttpHeaders.ACCEPT,"application/json");
+        ByteArrayEntity entity = new ByteArrayEntity(data,0,length,ContentType.APPLICATION_JSON);
+        if(!StringUtils.isEmpty(contentEncoding)){
+            entity.setContentEncoding(contentEncoding);
+        }
+        httpPost.setEntity(entity);
+        return HttpClientPool.execute(httpPost,connectTimeout,readTimeout);
     }
 
     /**
@@ -83,13 +124,7 @@ public class HttpUtil {
         HttpResult result = new HttpResult();
 
         if(!StringUtils.isEmpty(url)){
-            URL requestUrl = new URL(url);
-            long start = System.currentTimeMillis();
-            HttpRequest httpRequest = new HttpRequest(requestUrl,"GET")
-                    .connectTimeout(connectTimeout).readTimeout(readTimeout).trustAllCerts().trustAllHosts();
-            result.setStatus(httpRequest.code());
-            result.setResult(httpRequest.body());
-            result.setResponseTime(System.currentTimeMillis() - start);
+            result = HttpClientPool.executeTrustAll(new HttpGet(url),connectTimeout,readTimeout);
         }
         return result;
     }
@@ -117,7 +152,6 @@ public class HttpUtil {
      * @return
      */
     public static HttpResult post(Map<String,String> params,String address,int connectTimeout,int readTimeout) throws IOException {
-        HttpResult result = new HttpResult();
         if(params == null){
             params = new HashMap<>();
         }
@@ -125,15 +159,13 @@ public class HttpUtil {
             log.error("请求地址不能为空");
             return null;
         }
-        URL requestUrl = new URL(address);
-        long start = System.currentTimeMillis();
-        HttpRequest httpRequest = new HttpRequest(requestUrl,"POST")
-                .connectTimeout(connectTimeout).readTimeout(readTimeout).trustAllCerts().trustAllHosts();
-        httpRequest.form(params,"UTF-8");
-        result.setStatus(httpRequest.code());
-        result.setResult(httpRequest.body());
-        result.setResponseTime(System.currentTimeMillis() - start);
-        return result;
+        List<NameValuePair> form = new ArrayList<>();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            form.add(new BasicNameValuePair(entry.getKey(),entry.getValue()));
+        }
+        HttpPost httpPost = new HttpPost(address);
+        httpPost.setEntity(new UrlEncodedFormEntity(form,StandardCharsets.UTF_8));
+        return HttpClientPool.executeTrustAll(httpPost,connectTimeout,readTimeout);
     }
 
     /**
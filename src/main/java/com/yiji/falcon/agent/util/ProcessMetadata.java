@@ -0,0 +1,250 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package com.yiji.falcon.agent.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 基于/proc文件系统的进程信息
+ * 代替 lsof 命令获取进程的工作目录、执行文件、命令行、启动时间及打开的文件
+ *
+ * 进程信息按进程号及进程启动时间缓存,进程号被新的进程复用时重新读取,
+ * 已退出进程的缓存在之后的获取中自动清除
+ */
+public class ProcessMetadata {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessMetadata.class);
+
+    private static final File PROC = new File("/proc");
+    /**
+     * 清除已退出进程缓存的间隔(毫秒)
+     */
+    private static final long SWEEP_INTERVAL = 60 * 1000;
+
+    private static final Map<Integer,ProcessMetadata> cache = new ConcurrentHashMap<>();
+    private static volatile long lastSweepTime = System.currentTimeMillis();
+
+    private final int pid;
+    private final long startTime;
+    private final String cwd;
+    private final String exe;
+    private final List<String> cmdline;
+    private volatile List<String> openFiles;
+
+    private ProcessMetadata(int pid, long startTime) {
+        this.pid = pid;
+        this.startTime = startTime;
+        File process = new File(PROC,String.valueOf(pid));
+        this.cwd = readLink(new File(process,"cwd"));
+        this.exe = readLink(new File(process,"exe"));
+        List<String> args = new ArrayList<>();
+        try {
+            for (String arg : new String(Files.readAllBytes(new File(process,"cmdline").toPath()),StandardCharsets.UTF_8).split("\0")) {
+                if(!arg.isEmpty()){
+                    args.add(arg);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("读取进程 {} 的cmdline失败: {}",pid,e.getMessage());
+        }
+        this.cmdline = Collections.unmodifiableList(args);
+    }
+
+    /**
+     * 是否可以使用/proc获取进程信息
+     * @return
+     */
+    public static boolean isSupported(){
+        return new File(PROC,"self/stat").exists();
+    }
+
+    /**
+     * 获取进程信息
+     * @param pid
+     * @return
+     * 进程不存在或不支持/proc时返回null
+     */
+    public static ProcessMetadata get(int pid){
+        sweep();
+        long startTime = startTime(pid);
+        if(startTime == 0){
+            cache.remove(pid);
+            return null;
+        }
+        ProcessMetadata metadata = cache.get(pid);
+        if(metadata == null || metadata.startTime != startTime){
+            metadata = new ProcessMetadata(pid,startTime);
+            cache.put(pid,metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * 进程启动时间(/proc/[pid]/stat 的第22列 starttime,单位为系统时钟tick)
+     * 与进程号一起唯一标识一个进程
+     * @param pid
+     * @return
+     * 进程不存在、非Linux或读取失败时返回0
+     */
+    public static long startTime(int pid){
+        try {
+            String stat = new String(Files.readAllBytes(new File(PROC,pid + "/stat").toPath()),StandardCharsets.UTF_8);
+            //第2列为括号中的进程名,可能包含空格
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[19]);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 清除已退出进程的缓存
+     */
+    private static void sweep(){
+        long now = System.currentTimeMillis();
+        if(now - lastSweepTime < SWEEP_INTERVAL){
+            return;
+        }
+        lastSweepTime = now;
+        cache.values().removeIf(metadata -> startTime(metadata.pid) != metadata.startTime);
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * 进程的工作目录(/proc/[pid]/cwd)
+     * @return
+     * 无权限读取时为null
+     */
+    public String getCwd() {
+        return cwd;
+    }
+
+    /**
+     * 进程的执行文件(/proc/[pid]/exe)
+     * @return
+     * 无权限读取时为null
+     */
+    public String getExe() {
+        return exe;
+    }
+
+    /**
+     * 进程的命令行参数
+     * @return
+     */
+    public List<String> getCmdline() {
+        return cmdline;
+    }
+
+    /**
+     * 进程打开的文件,相当于 lsof -p [pid] 的文件列:
+     * 工作目录、执行文件、映射的文件(/proc/[pid]/maps)及打开的文件描述符(/proc/[pid]/fd)
+     * 第一次获取时读取,之后使用缓存
+     * @return
+     */
+    public List<String> getOpenFiles() {
+        List<String> files = openFiles;
+        if(files == null){
+            files = readOpenFiles();
+            openFiles = files;
+        }
+        return files;
+    }
+
+    /**
+     * 打开的文件中,文件名满足条件的第一个文件
+     * 缓存中没有时重新读取打开的文件(如应用启动后加载的jar)
+     * @param fileNameFilter
+     * 文件名(不含目录)的过滤条件
+     * @return
+     * 不存在时返回null
+     */
+    public String findOpenFile(Predicate<String> fileNameFilter){
+        String file = findOpenFile(getOpenFiles(),fileNameFilter);
+        if(file == null){
+            openFiles = readOpenFiles();
+            file = findOpenFile(openFiles,fileNameFilter);
+        }
+        return file;
+    }
+
+    private static String findOpenFile(List<String> files,Predicate<String> fileNameFilter){
+        for (String file : files) {
+            if(fileNameFilter.test(file.substring(file.lastIndexOf('/') + 1))){
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private List<String> readOpenFiles(){
+        Set<String> files = new LinkedHashSet<>();
+        if(cwd != null){
+            files.add(cwd);
+        }
+        if(exe != null){
+            files.add(exe);
+        }
+        File process = new File(PROC,String.valueOf(pid));
+        try {
+            for (String line : Files.readAllLines(new File(process,"maps").toPath(),StandardCharsets.UTF_8)) {
+                //address perms offset dev inode pathname
+                int index = line.indexOf('/');
+                if(index != -1){
+                    String path = line.substring(index);
+                    files.add(path.endsWith(" (deleted)") ? path.substring(0,path.length() - " (deleted)".length()) : path);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("读取进程 {} 的maps失败: {}",pid,e.getMessage());
+        }
+        File[] fds = new File(process,"fd").listFiles();
+        if(fds != null){
+            for (File fd : fds) {
+                String path = readLink(fd);
+                if(path != null && path.startsWith("/")){
+                    files.add(path);
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    private static String readLink(File file){
+        try {
+            return Files.readSymbolicLink(Paths.get(file.getPath())).toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessMetadata{" +
+                "pid=" + pid +
+                ", startTime=" + startTime +
+                ", cwd='" + cwd + '\'' +
+                ", exe='" + exe + '\'' +
+                ", cmdline=" + cmdline +
+                '}';
+    }
+}
@@ -86,6 +86,10 @@ public class DetectResult {
          * 自定义监控值的tag
          */
         public String tags;
+        /**
+         * 自定义监控值是否为累计值,为true时上报前将转换为每秒的速率
+         */
+        public boolean rate;
 
         /**
          * @param metricName
@@ -107,6 +111,7 @@ public class DetectResult {
                     ", value=" + value +
                     ", counterType=" + counterType +
                     ", tags='" + tags + '\'' +
+                    ", rate=" + rate +
                     '}';
         }
     }
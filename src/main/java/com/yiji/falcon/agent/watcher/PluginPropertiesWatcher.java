@@ -8,7 +8,10 @@ package com.yiji.falcon.agent.watcher;
  * guqiu@yiji.com 2016-07-20 11:21 创建
  */
 
+import com.yiji.falcon.agent.config.AgentConfiguration;
+import com.yiji.falcon.agent.plugins.JMXPlugin;
 import com.yiji.falcon.agent.plugins.Plugin;
+import com.yiji.falcon.agent.plugins.metrics.JMXMetricsValue;
 import com.yiji.falcon.agent.plugins.util.PluginLibraryHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +23,7 @@ import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 /**
  * 插件配置文件的监听器
+ * 同时监听JMX公共监控配置文件,配置变化时清除JMX监控配置索引
  * @author guqiu@yiji.com
  */
 public class PluginPropertiesWatcher extends Thread{
@@ -41,10 +45,20 @@ public class PluginPropertiesWatcher extends Thread{
     public void run() {
         WatchService watchService;
         WatchKey key;
+        Path jmxCommonConf = null;
+        WatchKey jmxCommonKey = null;
         try {
             watchService = FileSystems.getDefault().newWatchService();
             Path dir = FileSystems.getDefault().getPath(pluginDir);
-            key = dir.register(watchService, ENTRY_MODIFY);
+            dir.register(watchService, ENTRY_MODIFY);
+            //JMX公共监控配置文件所在目录
+            String jmxCommonConfPath = AgentConfiguration.INSTANCE.getJmxCommonMetricsConfPath();
+            if(jmxCommonConfPath != null){
+                jmxCommonConf = FileSystems.getDefault().getPath(jmxCommonConfPath).toAbsolutePath();
+                if(jmxCommonConf.getParent() != null && !jmxCommonConf.getParent().equals(dir.toAbsolutePath())){
+                    jmxCommonKey = jmxCommonConf.getParent().register(watchService, ENTRY_MODIFY);
+                }
+            }
         } catch (IOException e) {
             logger.error("插件配置文件监听异常",e);
             return;
@@ -55,9 +69,19 @@ public class PluginPropertiesWatcher extends Thread{
                 for (WatchEvent<?> watchEvent : key.pollEvents()) {
                     if(watchEvent.kind() == ENTRY_MODIFY){
                         String fileName = watchEvent.context() == null ? "" : watchEvent.context().toString();
+                        if(key == jmxCommonKey){
+                            if(jmxCommonConf.getFileName().toString().equals(fileName)){
+                                JMXMetricsValue.invalidateMetricsConfig(null);
+                                logger.info("已完成JMX公共监控配置的重新加载");
+                            }
+                            continue;
+                        }
                         Plugin plugin = PluginLibraryHelper.getPluginByConfigFileName(fileName);
                         if(plugin != null){
                             plugin.init(PluginLibraryHelper.getPluginConfig(plugin));
+                            if(plugin instanceof JMXPlugin){
+                                JMXMetricsValue.invalidateMetricsConfig(plugin.pluginName());
+                            }
                             logger.info("已完成插件{}的配置重新加载",plugin.pluginName());
                         }
                     }
@@ -0,0 +1,46 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.ChangeSuppressor;
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.falcon.FalconReportObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChangeSuppressorTest {
+
+    private static FalconReportObject object(String metric,CounterType counterType,String value,long timestamp){
+        FalconReportObject falconReportObject = new FalconReportObject();
+        falconReportObject.setEndpoint("test-host");
+        falconReportObject.setMetric(metric);
+        falconReportObject.setCounterType(counterType);
+        falconReportObject.setValue(value);
+        falconReportObject.setStep(60);
+        falconReportObject.setTimestamp(timestamp);
+        falconReportObject.setTags("service=test");
+        return falconReportObject;
+    }
+
+    @Test
+    public void suppressAndHeartbeat(){
+        ChangeSuppressor suppressor = new ChangeSuppressor(3);
+        long timestamp = 1475000000;
+        assertFalse(suppressor.suppress(object("availability",CounterType.GAUGE,"1",timestamp)));
+        assertTrue(suppressor.suppress(object("availability",CounterType.GAUGE,"1",timestamp + 60)));
+        assertTrue(suppressor.suppress(object("availability",CounterType.GAUGE,"1",timestamp + 120)));
+        //达到心跳周期,强制上报
+        assertFalse(suppressor.suppress(object("availability",CounterType.GAUGE,"1",timestamp + 180)));
+        assertTrue(suppressor.suppress(object("availability",CounterType.GAUGE,"1",timestamp + 240)));
+        //值变化时立即上报
+        assertFalse(suppressor.suppress(object("availability",CounterType.GAUGE,"0",timestamp + 300)));
+        assertTrue(suppressor.suppress(object("availability",CounterType.GAUGE,"0",timestamp + 360)));
+
+        //COUNTER类型不抑制
+        assertFalse(suppressor.suppress(object("requests",CounterType.COUNTER,"5",timestamp)));
+        assertFalse(suppressor.suppress(object("requests",CounterType.COUNTER,"5",timestamp + 60)));
+        assertEquals(1,suppressor.size());
+    }
+}
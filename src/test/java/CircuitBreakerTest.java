@@ -0,0 +1,43 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.CircuitBreaker;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void openHalfOpenClose() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test",2,50,200);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED,breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN,breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(60);
+        //退避结束后只允许一个探测请求
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN,breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.allowRequest());
+
+        //探测失败,重新进入open
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN,breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(110);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED,breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.CounterRate;
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.falcon.FalconReportObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CounterRateTest {
+
+    private static FalconReportObject object(String metric,String value,long timestamp){
+        FalconReportObject falconReportObject = new FalconReportObject();
+        falconReportObject.setEndpoint("switch-1");
+        falconReportObject.setMetric(metric);
+        falconReportObject.setCounterType(CounterType.GAUGE);
+        falconReportObject.setValue(value);
+        falconReportObject.setStep(60);
+        falconReportObject.setTimestamp(timestamp);
+        falconReportObject.setRate(true);
+        return falconReportObject;
+    }
+
+    @Test
+    public void rate(){
+        CounterRate counterRate = new CounterRate(5);
+        long timestamp = System.currentTimeMillis() / 1000;
+        assertFalse(counterRate.rate(object("ge0.if.HCInOctets","1000",timestamp)));
+
+        FalconReportObject falconReportObject = object("ge0.if.HCInOctets","7000",timestamp + 60);
+        assertTrue(counterRate.rate(falconReportObject));
+        assertEquals("100",falconReportObject.getValue());
+
+        falconReportObject = object("ge0.if.HCInOctets","7030",timestamp + 120);
+        assertTrue(counterRate.rate(falconReportObject));
+        assertEquals("0.5",falconReportObject.getValue());
+
+        //计数器重置
+        assertFalse(counterRate.rate(object("ge0.if.HCInOctets","10",timestamp + 180)));
+        falconReportObject = object("ge0.if.HCInOctets","70",timestamp + 240);
+        assertTrue(counterRate.rate(falconReportObject));
+        assertEquals("1",falconReportObject.getValue());
+    }
+
+    @Test
+    public void wrap(){
+        CounterRate counterRate = new CounterRate(5);
+        long timestamp = System.currentTimeMillis() / 1000;
+        //32位计数器回绕
+        assertFalse(counterRate.rate(object("octets32",String.valueOf((1L << 32) - 60),timestamp)));
+        FalconReportObject falconReportObject = object("octets32","60",timestamp + 60);
+        assertTrue(counterRate.rate(falconReportObject));
+        assertEquals("2",falconReportObject.getValue());
+
+        //64位计数器回绕
+        assertFalse(counterRate.rate(object("octets64",Long.toUnsignedString(-600L),timestamp)));
+        falconReportObject = object("octets64","600",timestamp + 60);
+        assertTrue(counterRate.rate(falconReportObject));
+        assertEquals("20",falconReportObject.getValue());
+    }
+
+    @Test
+    public void grow(){
+        CounterRate counterRate = new CounterRate(5);
+        long timestamp = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < 5000; i++) {
+            counterRate.rate(object("metric" + i,"0",timestamp));
+        }
+        assertEquals(5000,counterRate.size());
+        for (int i = 0; i < 5000; i++) {
+            FalconReportObject falconReportObject = object("metric" + i,String.valueOf(i * 10),timestamp + 10);
+            assertTrue(counterRate.rate(falconReportObject));
+            assertEquals(String.valueOf(i),falconReportObject.getValue());
+        }
+    }
+}
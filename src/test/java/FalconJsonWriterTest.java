@@ -0,0 +1,48 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.falcon.FalconJsonWriter;
+import com.yiji.falcon.agent.falcon.FalconReportObject;
+import com.yiji.falcon.agent.falcon.RequestJson;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FalconJsonWriterTest {
+
+    @Test
+    public void sameAsRequestJson() throws Exception {
+        List<FalconReportObject> list = new ArrayList<>();
+        list.add(reportObject("host-1","jmx.heap.used","123.45",CounterType.GAUGE,"service=tomcat,port=8080",1474512000L));
+        list.add(reportObject("主机\"2\"","metric\\with\ttab\n","-1",CounterType.COUNTER,"tag=\u0001😀",-9L));
+        list.add(reportObject(null,"no.endpoint",null,null,"a=b",0L));
+
+        FalconJsonWriter writer = new FalconJsonWriter(16);
+        writer.writeArray(list);
+        String expected = RequestJson.getJsonString(list);
+        assertEquals(new JSONArray(expected).toString(),new JSONArray(new String(writer.toByteArray(),"UTF-8")).toString());
+
+        //缓冲区复用
+        writer.reset().writeArray(list.subList(0,1));
+        assertEquals(new JSONArray(RequestJson.getJsonString(list.subList(0,1))).toString(),new JSONArray(writer.toString()).toString());
+    }
+
+    private FalconReportObject reportObject(String endpoint,String metric,String value,CounterType counterType,String tags,long timestamp){
+        FalconReportObject reportObject = new FalconReportObject();
+        reportObject.setEndpoint(endpoint);
+        reportObject.setMetric(metric);
+        reportObject.setValue(value);
+        reportObject.setCounterType(counterType);
+        reportObject.setTags(tags);
+        reportObject.setTimestamp(timestamp);
+        reportObject.setStep(60);
+        return reportObject;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.GcNotificationCollector;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class GcNotificationCollectorTest {
+
+    @Test
+    public void drain() throws Exception {
+        GcNotificationCollector collector = new GcNotificationCollector(ManagementFactory.getPlatformMBeanServer(),0);
+        GcNotificationCollector.Accumulator first = collector.accumulator("first");
+        GcNotificationCollector.Accumulator second = collector.accumulator("second");
+        assertSame(first,collector.accumulator("first"));
+        assertTrue(first.isListening());
+
+        GcNotificationCollector.Summary summary = null;
+        for (int i = 0; i < 50; i++) {
+            System.gc();
+            Thread.sleep(100);
+            summary = first.drain();
+            if(summary.getPauseCount() > 0){
+                break;
+            }
+        }
+        assertTrue(summary.getPauseCount() > 0);
+        assertTrue(summary.getPauseTotal() >= summary.getPauseMax());
+        assertTrue(summary.getPauseMax() >= summary.getPauseP99());
+
+        //同一个订阅的各汇总独立
+        assertTrue(second.drain().getPauseCount() >= summary.getPauseCount());
+
+        //汇总后重新开始
+        assertEquals(0,first.drain().getPauseCount());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import com.yiji.falcon.agent.util.HttpClientPool;
+import com.yiji.falcon.agent.util.HttpUtil;
+import com.yiji.falcon.agent.vo.HttpResult;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+public class HttpClientPoolTest {
+
+    @Test
+    public void keepAliveReuse() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+        server.createContext("/v1/push",exchange -> {
+            byte[] body = new byte[1024];
+            int length = 0;
+            try (InputStream in = exchange.getRequestBody()) {
+                int read;
+                while ((read = in.read(body,length,body.length - length)) > 0){
+                    length += read;
+                }
+            }
+            exchange.sendResponseHeaders(200,length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body,0,length);
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/push";
+            long created = HttpClientPool.getCreatedConnectionCount();
+            for (int i = 0; i < 20; i++) {
+                HttpResult result = HttpUtil.postJSON(url,"[{\"i\":" + i + "}]");
+                assertEquals(200,result.getStatus());
+                assertEquals("[{\"i\":" + i + "}]",result.getResult());
+            }
+            //顺序请求只需一个长连接
+            assertEquals(1,HttpClientPool.getCreatedConnectionCount() - created);
+            assertEquals(0,HttpClientPool.getLeasedConnections());
+            assertTrue(HttpClientPool.getReuseRatio() > 0.9);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
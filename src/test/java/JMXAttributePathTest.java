@@ -0,0 +1,75 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.JMXAttributePath;
+import com.yiji.falcon.agent.jmx.JMXMetricsConfigIndex;
+import com.yiji.falcon.agent.vo.jmx.JMXMetricsConfiguration;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class JMXAttributePathTest {
+
+    private static Map<String,Object> getAttributes(ObjectName objectName,String[] attributeNames) throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        Map<String,Object> map = new HashMap<>();
+        for (Attribute attribute : mBeanServer.getAttributes(objectName,attributeNames).asList()) {
+            map.put(attribute.getName(),attribute.getValue());
+        }
+        return map;
+    }
+
+    @Test
+    public void attributeNames(){
+        assertEquals(Arrays.asList("LastGcInfo.memoryUsageAfterGc.PS Old Gen.used","LastGcInfo.memoryUsageAfterGc.PS Old Gen",
+                "LastGcInfo.memoryUsageAfterGc","LastGcInfo"),
+                JMXAttributePath.attributeNames("LastGcInfo.memoryUsageAfterGc.PS Old Gen.used"));
+        assertEquals(Collections.singletonList("ThreadCount"),JMXAttributePath.attributeNames("ThreadCount"));
+    }
+
+    @Test
+    public void memory() throws Exception {
+        JMXMetricsConfiguration configuration = new JMXMetricsConfiguration();
+        configuration.setObjectName("java.lang:type=Memory");
+        configuration.setMetrics("HeapMemoryUsage.used");
+        configuration.setAlias("HeapMemoryUsed");
+        JMXMetricsConfigIndex configIndex = new JMXMetricsConfigIndex(Collections.singletonList(configuration),
+                Collections.singletonMap("java.lang:type=Memory",new String[]{"NonHeapMemoryUsage"}));
+
+        ObjectName objectName = new ObjectName("java.lang:type=Memory");
+        Map<String,Object> attributes = getAttributes(objectName,configIndex.getAttributeNames(objectName));
+        assertTrue(attributes.containsKey("HeapMemoryUsage"));
+        assertTrue(attributes.containsKey("NonHeapMemoryUsage"));
+
+        Object used = JMXAttributePath.resolve(attributes,"HeapMemoryUsage.used");
+        assertTrue(used instanceof Long);
+        assertTrue((Long) used > 0);
+        assertTrue(JMXAttributePath.resolve(attributes,"NonHeapMemoryUsage.committed") instanceof Long);
+        assertNull(JMXAttributePath.resolve(attributes,"HeapMemoryUsage.unknown"));
+        assertNull(JMXAttributePath.resolve(attributes,"ObjectPendingFinalizationCount"));
+    }
+
+    @Test
+    public void lastGcInfo() throws Exception {
+        System.gc();
+        for (ObjectName objectName : ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("java.lang:type=GarbageCollector,*"),null)) {
+            Map<String,Object> attributes = getAttributes(objectName,new String[]{"LastGcInfo"});
+            if(attributes.get("LastGcInfo") == null){
+                continue;
+            }
+            assertTrue(JMXAttributePath.resolve(attributes,"LastGcInfo.duration") instanceof Long);
+            //TabularData 按内存池名称取行
+            String pool = ManagementFactory.getMemoryPoolMXBeans().get(0).getName();
+            assertTrue(JMXAttributePath.resolve(attributes,"LastGcInfo.memoryUsageAfterGc." + pool + ".used") instanceof Long);
+            return;
+        }
+    }
+}
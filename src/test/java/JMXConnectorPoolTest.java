@@ -0,0 +1,214 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.JMXConnectorPool;
+import com.yiji.falcon.agent.jmx.LocalJvmDiscovery;
+import com.yiji.falcon.agent.jmx.vo.JMXConnectionInfo;
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnector;
+import javax.security.auth.Subject;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * JMX连接池的健康检查、挂起连接的移除及泄漏连接数
+ * 测试的JVM描述均为容器内的JVM,被移除后的后台重连不会真正建立连接
+ */
+public class JMXConnectorPoolTest {
+
+    private static final int PID = Integer.MAX_VALUE - 100;
+
+    @After
+    public void tearDown(){
+        for (int i = 0; i < 5; i++) {
+            JMXConnectorPool.evict(PID + i);
+        }
+    }
+
+    @Test
+    public void leakedCount() throws Exception {
+        long leaked = JMXConnectorPool.getLeakedCount();
+        int size = JMXConnectorPool.size();
+        JvmDescriptor desc = desc(PID,1);
+        StubConnector first = new StubConnector(ManagementFactory.getPlatformMBeanServer());
+        assertNotNull(register(desc,first));
+        assertEquals(size + 1,JMXConnectorPool.size());
+        assertEquals(leaked,JMXConnectorPool.getLeakedCount());
+
+        //同一JVM已有连接,新的连接立即关闭
+        StubConnector duplicate = new StubConnector(ManagementFactory.getPlatformMBeanServer());
+        assertNull(register(desc,duplicate));
+        assertTrue(duplicate.closed);
+        assertEquals(size + 1,JMXConnectorPool.size());
+        assertEquals(leaked,JMXConnectorPool.getLeakedCount());
+
+        JMXConnectorPool.evict(PID);
+        assertTrue(first.closed);
+        assertEquals(size,JMXConnectorPool.size());
+        assertEquals(leaked,JMXConnectorPool.getLeakedCount());
+
+        //关闭失败的连接计为泄漏
+        StubConnector failClose = new StubConnector(ManagementFactory.getPlatformMBeanServer());
+        failClose.failClose = true;
+        assertNotNull(register(desc(PID + 1,1),failClose));
+        JMXConnectorPool.evict(PID + 1);
+        assertEquals(leaked + 1,JMXConnectorPool.getLeakedCount());
+    }
+
+    @Test
+    public void pidReuse() throws Exception {
+        JvmDescriptor old = desc(PID,1);
+        JvmDescriptor exited = desc(PID + 1,1);
+        JvmDescriptor alive = desc(PID + 2,1);
+        StubConnector oldConnector = new StubConnector(ManagementFactory.getPlatformMBeanServer());
+        StubConnector exitedConnector = new StubConnector(ManagementFactory.getPlatformMBeanServer());
+        register(old,oldConnector);
+        register(exited,exitedConnector);
+        JMXConnectionInfo aliveInfo = register(alive,new StubConnector(ManagementFactory.getPlatformMBeanServer())).getConnectionInfo("test");
+        aliveInfo.setValid(false);
+
+        long evictions = JMXConnectorPool.getEvictionCount();
+        long reconnects = JMXConnectorPool.getReconnectCount();
+        Map<Integer,JvmDescriptor> jvms = new HashMap<>();
+        //进程号被新的JVM复用
+        jvms.put(PID,desc(PID,2));
+        jvms.put(PID + 2,alive);
+        healthCheck(jvms);
+
+        assertNull(JMXConnectorPool.get(old));
+        assertTrue(oldConnector.closed);
+        assertNull(JMXConnectorPool.get(exited));
+        assertTrue(exitedConnector.closed);
+        assertEquals(evictions + 2,JMXConnectorPool.getEvictionCount());
+        assertEquals(reconnects,JMXConnectorPool.getReconnectCount());
+        //不可用的连接探测成功后恢复
+        assertNotNull(JMXConnectorPool.get(alive));
+        assertTrue(aliveInfo.isValid());
+    }
+
+    @Test
+    public void hungEviction() throws Exception {
+        MBeanServerConnection platform = ManagementFactory.getPlatformMBeanServer();
+        MBeanServerConnection hung = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class},(proxy, method, args) -> {
+                    if("getMBeanCount".equals(method.getName())){
+                        Thread.sleep(10000);
+                    }
+                    try {
+                        return method.invoke(platform,args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+        JvmDescriptor desc = desc(PID,1);
+        StubConnector connector = new StubConnector(hung);
+        JMXConnectionInfo info = register(desc,connector).getConnectionInfo("test");
+        long evictions = JMXConnectorPool.getEvictionCount();
+        long reconnects = JMXConnectorPool.getReconnectCount();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                info.getmBeanServerConnection().getMBeanCount();
+                fail();
+            } catch (IOException ignored) {
+            }
+        }
+        //连续两次超时,连接被移除并在后台关闭、重新连接
+        assertNull(JMXConnectorPool.get(desc));
+        assertFalse(info.isValid());
+        assertEquals(evictions + 1,JMXConnectorPool.getEvictionCount());
+        assertEquals(reconnects + 1,JMXConnectorPool.getReconnectCount());
+        for (int i = 0; i < 50 && !connector.closed; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(connector.closed);
+    }
+
+    private static JvmDescriptor desc(int pid,long startTime){
+        return new JvmDescriptor(pid,1,"JMXConnectorPoolTest",null,true,startTime);
+    }
+
+    private static JMXConnectorPool.PooledConnector register(JvmDescriptor desc,JMXConnector connector) throws Exception {
+        Method method = JMXConnectorPool.class.getDeclaredMethod("register",JvmDescriptor.class,JMXConnector.class,long.class,int.class,int.class);
+        method.setAccessible(true);
+        return (JMXConnectorPool.PooledConnector) method.invoke(null,desc,connector,100L,2,-1);
+    }
+
+    private static void healthCheck(Map<Integer,JvmDescriptor> jvms) throws Exception {
+        Constructor<LocalJvmDiscovery.Snapshot> constructor = LocalJvmDiscovery.Snapshot.class.getDeclaredConstructor(Map.class,long.class);
+        constructor.setAccessible(true);
+        Method method = JMXConnectorPool.class.getDeclaredMethod("healthCheck",LocalJvmDiscovery.Snapshot.class);
+        method.setAccessible(true);
+        method.invoke(null,constructor.newInstance(jvms,System.currentTimeMillis()));
+    }
+
+    private static class StubConnector implements JMXConnector {
+        private final MBeanServerConnection connection;
+        private volatile boolean closed = false;
+        private volatile boolean failClose = false;
+
+        StubConnector(MBeanServerConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void connect(Map<String, ?> env) {
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return connection;
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection(Subject delegationSubject) {
+            return connection;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(failClose){
+                throw new IOException("close failed");
+            }
+            closed = true;
+        }
+
+        @Override
+        public void addConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+        }
+
+        @Override
+        public void removeConnectionNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+        }
+
+        @Override
+        public void removeConnectionNotificationListener(NotificationListener l, NotificationFilter f, Object handback) throws ListenerNotFoundException {
+        }
+
+        @Override
+        public String getConnectionId() {
+            return "stub";
+        }
+    }
+}
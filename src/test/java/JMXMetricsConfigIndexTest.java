@@ -0,0 +1,62 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.JMXMetricsConfigIndex;
+import com.yiji.falcon.agent.vo.jmx.JMXMetricsConfiguration;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JMXMetricsConfigIndexTest {
+
+    private static JMXMetricsConfiguration config(String objectName,String metrics){
+        JMXMetricsConfiguration metricsConfiguration = new JMXMetricsConfiguration();
+        metricsConfiguration.setObjectName(objectName);
+        metricsConfiguration.setMetrics(metrics);
+        metricsConfiguration.setAlias(metrics);
+        return metricsConfiguration;
+    }
+
+    @Test
+    public void match() throws Exception {
+        JMXMetricsConfigIndex configIndex = new JMXMetricsConfigIndex(Arrays.asList(
+                config("Catalina:type=ThreadPool","currentThreadsBusy"),
+                config("Catalina:type=ThreadPool","maxThreads"),
+                config("org.apache.ZooKeeperService","NumAliveConnections"),
+                config("java.lang:type=Threading","ThreadCount"),
+                config("type=producer-topic-metrics","record-send-rate")
+        ));
+
+        assertArrayEquals(new String[]{"currentThreadsBusy","maxThreads"},
+                configIndex.getAttributeNames(new ObjectName("Catalina:name=\"http-nio-8080\",type=ThreadPool")));
+        assertEquals(0,configIndex.getAttributeNames(new ObjectName("Catalina:type=Manager,context=/")).length);
+        assertEquals(1,configIndex.match(new ObjectName("org.apache.ZooKeeperService:name0=StandaloneServer_port-1")).size());
+        assertEquals(1,configIndex.match(new ObjectName("java.lang:type=Threading")).size());
+        assertEquals(0,configIndex.match(new ObjectName("java.lang:type=Memory")).size());
+        //无法解析为domain及key properties的配置按包含匹配
+        assertArrayEquals(new String[]{"record-send-rate"},
+                configIndex.getAttributeNames(new ObjectName("kafka.producer:type=producer-topic-metrics,client-id=p1,topic=t1")));
+    }
+
+    @Test
+    public void partialMatch() throws Exception {
+        JMXMetricsConfigIndex configIndex = new JMXMetricsConfigIndex(Arrays.asList(
+                config("Catalina:type=ThreadPool,name=http","currentThreadsBusy"),
+                config("org.apache","NumAliveConnections")
+        ));
+
+        //key properties的值按包含匹配
+        assertArrayEquals(new String[]{"currentThreadsBusy"},
+                configIndex.getAttributeNames(new ObjectName("Catalina:type=ThreadPool,name=\"http-nio-8080\"")));
+        assertEquals(0,configIndex.match(new ObjectName("Catalina:type=ThreadPool,name=\"ajp-nio-8009\"")).size());
+        assertEquals(0,configIndex.match(new ObjectName("Catalina:type=ThreadPool")).size());
+        //domain按包含匹配
+        assertEquals(1,configIndex.match(new ObjectName("org.apache.ZooKeeperService:name0=StandaloneServer_port-1")).size());
+        assertEquals(0,configIndex.match(new ObjectName("java.lang:type=Threading")).size());
+    }
+}
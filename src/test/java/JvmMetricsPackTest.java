@@ -0,0 +1,62 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.jmx.JMXMetricsConfigIndex;
+import com.yiji.falcon.agent.jmx.JvmMetricsPack;
+import com.yiji.falcon.agent.jmx.vo.JMXObjectNameInfo;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用当前JVM的平台MBean计算內建JVM监控
+ */
+public class JvmMetricsPackTest {
+
+    @Test
+    public void compute() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        JMXMetricsConfigIndex index = new JMXMetricsConfigIndex(Collections.emptySet(),JvmMetricsPack.ATTRIBUTES);
+        List<JMXObjectNameInfo> infos = new ArrayList<>();
+        for (ObjectName objectName : server.queryNames(null,null)) {
+            String[] attributeNames = index.getAttributeNames(objectName);
+            if(attributeNames.length == 0){
+                continue;
+            }
+            Map<String,Object> values = new HashMap<>();
+            for (Attribute attribute : server.getAttributes(objectName,attributeNames).asList()) {
+                values.put(attribute.getName(),attribute.getValue());
+            }
+            JvmMetricsPack.collectDeadlockedThreads(server,objectName,values);
+            JMXObjectNameInfo info = new JMXObjectNameInfo();
+            info.setObjectName(objectName);
+            info.setMetricsValue(values);
+            infos.add(info);
+        }
+
+        Map<String,JvmMetricsPack.Metric> metrics = new HashMap<>();
+        for (JvmMetricsPack.Metric metric : JvmMetricsPack.compute(infos)) {
+            metrics.put(metric.getTags() == null ? metric.getMetric() : metric.getMetric() + "/" + metric.getTags(),metric);
+        }
+        assertTrue(Long.parseLong(metrics.get("HeapMemoryUsed").getValue()) > 0);
+        assertTrue(Long.parseLong(metrics.get("ThreadCount").getValue()) > 0);
+        assertEquals("0",metrics.get("DeadlockedThreadCount").getValue());
+        assertTrue(Long.parseLong(metrics.get("LoadedClassCount").getValue()) > 0);
+        assertEquals(CounterType.COUNTER,metrics.get("TotalLoadedClassCount").getCounterType());
+        assertNotNull(metrics.get("BufferPoolMemoryUsed/bufferPool=direct"));
+        assertTrue(metrics.keySet().stream().anyMatch(key -> key.startsWith("MemoryPoolUsed/pool=")));
+        assertTrue(metrics.keySet().stream().anyMatch(key -> key.startsWith("GcCollectionCount/collector=")));
+        for (String key : metrics.keySet()) {
+            assertFalse(key,key.contains(" "));
+        }
+    }
+}
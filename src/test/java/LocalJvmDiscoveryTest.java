@@ -0,0 +1,66 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.LocalJvmDiscovery;
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LocalJvmDiscoveryTest {
+
+    @Test
+    public void refresh(){
+        int pid = Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        LocalJvmDiscovery.Snapshot snapshot = LocalJvmDiscovery.refresh();
+        JvmDescriptor self = snapshot.get(pid);
+        assertNotNull(self);
+        assertEquals(String.valueOf(pid),self.id());
+        assertFalse(self.isContainer());
+        assertTrue(snapshot.find(self.displayName()).contains(self));
+        assertTrue(snapshot.getJvms().size() >= 1);
+        //进程启动时间不随扫描变化
+        assertEquals(self.getStartTime(),LocalJvmDiscovery.refresh().get(pid).getStartTime());
+        if(new File("/proc/self/stat").exists()){
+            assertTrue(self.getStartTime() > 0);
+        }
+    }
+
+    @Test
+    public void findExcludesContainer() throws Exception {
+        JvmDescriptor local = new JvmDescriptor(100,100,"org.apache.catalina.startup.Bootstrap start",null,false,1);
+        JvmDescriptor container = new JvmDescriptor(200,1,"org.apache.catalina.startup.Bootstrap start",new File("/tmp/1"),true,2);
+        Map<Integer,JvmDescriptor> jvms = new LinkedHashMap<>();
+        jvms.put(100,local);
+        jvms.put(200,container);
+        Constructor<LocalJvmDiscovery.Snapshot> constructor = LocalJvmDiscovery.Snapshot.class.getDeclaredConstructor(Map.class,long.class);
+        constructor.setAccessible(true);
+        LocalJvmDiscovery.Snapshot snapshot = constructor.newInstance(jvms,System.currentTimeMillis());
+        //容器内的JVM只用于hsperfdata监控,不作为JMX连接的目标
+        assertEquals(Collections.singletonList(local),snapshot.find("Bootstrap"));
+        assertSame(container,snapshot.get(200));
+        assertEquals(2,snapshot.getJvms().size());
+    }
+
+    @Test
+    public void javaCommand() throws Exception {
+        Method method = LocalJvmDiscovery.class.getDeclaredMethod("javaCommand",String[].class);
+        method.setAccessible(true);
+        assertEquals("org.apache.catalina.startup.Bootstrap start",method.invoke(null,(Object) new String[]{
+                "/usr/bin/java","-Xmx1g","-classpath","/opt/tomcat/bin/bootstrap.jar","-Dcatalina.base=/opt/tomcat",
+                "org.apache.catalina.startup.Bootstrap","start"}));
+        assertEquals("/opt/app/app.jar --server.port=8080",method.invoke(null,(Object) new String[]{
+                "java","-jar","/opt/app/app.jar","--server.port=8080"}));
+        assertEquals("",method.invoke(null,(Object) new String[]{"java","-version"}));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.JMXMetricsConfigIndex;
+import com.yiji.falcon.agent.jmx.MBeanCache;
+import com.yiji.falcon.agent.vo.jmx.JMXMetricsConfiguration;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MBeanCacheTest {
+
+    public interface DemoMBean {
+        int getCount();
+    }
+
+    public static class Demo implements DemoMBean {
+        @Override
+        public int getCount() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void registerAndUnregister() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        MBeanCache mBeanCache = new MBeanCache(mBeanServer);
+        ObjectName objectName = new ObjectName("test:type=Demo");
+        Set<ObjectName> objectNames = mBeanCache.getObjectNames();
+        assertFalse(objectNames.contains(objectName));
+
+        mBeanServer.registerMBean(new Demo(),objectName);
+        assertTrue(mBeanCache.getObjectNames().contains(objectName));
+        assertArrayEquals(new String[]{"Count"},mBeanCache.getAllAttributeNames(objectName));
+
+        JMXMetricsConfiguration metricsConfiguration = new JMXMetricsConfiguration();
+        metricsConfiguration.setObjectName("type=Demo");
+        metricsConfiguration.setMetrics("Count");
+        JMXMetricsConfigIndex configIndex = new JMXMetricsConfigIndex(Collections.singleton(metricsConfiguration));
+        assertArrayEquals(new String[]{"Count"},mBeanCache.getConfigAttributeNames(objectName,configIndex));
+        assertEquals(0,mBeanCache.getConfigAttributeNames(new ObjectName("java.lang:type=Memory"),configIndex).length);
+
+        mBeanServer.unregisterMBean(objectName);
+        assertFalse(mBeanCache.getObjectNames().contains(objectName));
+    }
+
+    @Test
+    public void configIndexes() throws Exception {
+        MBeanCache mBeanCache = new MBeanCache(ManagementFactory.getPlatformMBeanServer());
+        ObjectName memory = new ObjectName("java.lang:type=Memory");
+        JMXMetricsConfigIndex heap = index("type=Memory","HeapMemoryUsage");
+        JMXMetricsConfigIndex verbose = index("type=Memory","Verbose");
+        //同一JVM的多个插件交替取值,各自得到自己配置的属性
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(new String[]{"HeapMemoryUsage"},mBeanCache.getConfigAttributeNames(memory,heap));
+            assertArrayEquals(new String[]{"Verbose"},mBeanCache.getConfigAttributeNames(memory,verbose));
+        }
+        //缓存命中时返回同一结果
+        assertSame(mBeanCache.getConfigAttributeNames(memory,heap),mBeanCache.getConfigAttributeNames(memory,heap));
+    }
+
+    private static JMXMetricsConfigIndex index(String objectName,String metrics){
+        JMXMetricsConfiguration metricsConfiguration = new JMXMetricsConfiguration();
+        metricsConfiguration.setObjectName(objectName);
+        metricsConfiguration.setMetrics(metrics);
+        return new JMXMetricsConfigIndex(Collections.singleton(metricsConfiguration));
+    }
+}
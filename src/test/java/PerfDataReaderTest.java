@@ -0,0 +1,42 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.LocalJvmDiscovery;
+import com.yiji.falcon.agent.jmx.PerfDataReader;
+import com.yiji.falcon.agent.jmx.vo.JvmDescriptor;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * 读取当前JVM自己的hsperfdata文件
+ */
+public class PerfDataReaderTest {
+
+    @Test
+    public void readSelf() throws Exception {
+        int pid = Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        JvmDescriptor self = LocalJvmDiscovery.refresh().get(pid);
+        Assume.assumeTrue(self != null && self.getPerfDataFile() != null);
+
+        PerfDataReader reader = new PerfDataReader(self.getPerfDataFile());
+        assertTrue(reader.isAccessible());
+        assertFalse(reader.getString("sun.rt.javaCommand").isEmpty());
+        assertTrue(reader.getLong("java.threads.live") > 0);
+        assertTrue(reader.getLong("sun.os.hrt.frequency") > 0);
+        assertFalse(reader.names(Pattern.compile("sun\\.gc\\.collector\\.\\d+\\.invocations")).isEmpty());
+
+        int offset = reader.offsetOf("java.cls.loadedClasses");
+        assertTrue(offset > 0);
+        assertEquals(reader.getLong("java.cls.loadedClasses"),reader.getLong(offset));
+        assertEquals(-1,reader.offsetOf("sun.rt.javaCommand"));
+        assertEquals(0,reader.getLong("not.exist"));
+        assertFalse(reader.index());
+    }
+}
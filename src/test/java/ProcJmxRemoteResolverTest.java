@@ -0,0 +1,92 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.JMXConnectUrlInfo;
+import com.yiji.falcon.agent.jmx.ProcJmxRemoteResolver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用模拟的 /proc/[pid] 目录获取JMX Remote连接地址
+ */
+public class ProcJmxRemoteResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File process;
+
+    private JMXConnectUrlInfo resolve(String... cmdline) throws Exception {
+        process = folder.newFolder("proc");
+        write("cmdline",String.join("\0",cmdline) + "\0");
+        Files.createSymbolicLink(new File(process,"exe").toPath(),Paths.get("/opt/jdk/bin/java"));
+        write("root/opt/jdk/jre/lib/management/jmxremote.access","# 注释\nmonitorRole readonly\ncontrolRole readwrite\n");
+        write("root/opt/jdk/jre/lib/management/jmxremote.password","monitorRole pwd1\ncontrolRole  pwd2\n");
+        write("root/opt/app/jmx.access","admin readwrite\n");
+        write("root/opt/app/jmx.password","admin secret\n");
+        Method method = ProcJmxRemoteResolver.class.getDeclaredMethod("resolve",File.class,String.class);
+        method.setAccessible(true);
+        return (JMXConnectUrlInfo) method.invoke(null,process,"127.0.0.1");
+    }
+
+    private void write(String path,String content) throws IOException {
+        File file = new File(process,path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(),content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void noAuthentication() throws Exception {
+        JMXConnectUrlInfo info = resolve("java","-Dcom.sun.management.jmxremote.port=9999",
+                "-Dcom.sun.management.jmxremote.authenticate=false","org.apache.catalina.startup.Bootstrap","start");
+        assertEquals("service:jmx:rmi:///jndi/rmi://127.0.0.1:9999/jmxrmi",info.getRemoteUrl());
+        assertFalse(info.isAuthentication());
+    }
+
+    @Test
+    public void defaultCredentialFiles() throws Exception {
+        JMXConnectUrlInfo info = resolve("java","-Dcom.sun.management.jmxremote.port=9999","Main");
+        assertTrue(info.isAuthentication());
+        assertEquals("controlRole",info.getJmxUser());
+        assertEquals("pwd2",info.getJmxPassword());
+    }
+
+    @Test
+    public void configuredCredentialFiles() throws Exception {
+        JMXConnectUrlInfo info = resolve("java","-Dcom.sun.management.jmxremote.port=9999",
+                "-Dcom.sun.management.jmxremote.authenticate=true",
+                "-Dcom.sun.management.jmxremote.access.file=/opt/app/jmx.access",
+                "-Dcom.sun.management.jmxremote.password.file=/opt/app/jmx.password","Main");
+        assertEquals("admin",info.getJmxUser());
+        assertEquals("secret",info.getJmxPassword());
+    }
+
+    @Test
+    public void configFile() throws Exception {
+        JMXConnectUrlInfo info = resolve("java","-Dcom.sun.management.config.file=/opt/app/management.properties","Main");
+        assertNull(info);
+        write("root/opt/app/management.properties","com.sun.management.jmxremote.port=8888\ncom.sun.management.jmxremote.authenticate=false\n");
+        Method method = ProcJmxRemoteResolver.class.getDeclaredMethod("resolve",File.class,String.class);
+        method.setAccessible(true);
+        info = (JMXConnectUrlInfo) method.invoke(null,process,"127.0.0.1");
+        assertEquals("service:jmx:rmi:///jndi/rmi://127.0.0.1:8888/jmxrmi",info.getRemoteUrl());
+        assertFalse(info.isAuthentication());
+    }
+
+    @Test
+    public void noRemote() throws Exception {
+        assertNull(resolve("java","-Xmx1g","Main"));
+    }
+}
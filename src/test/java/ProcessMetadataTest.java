@@ -0,0 +1,39 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.util.ProcessMetadata;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * 读取当前进程的/proc信息
+ */
+public class ProcessMetadataTest {
+
+    @Test
+    public void self() throws Exception {
+        Assume.assumeTrue(ProcessMetadata.isSupported());
+        int pid = Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        ProcessMetadata metadata = ProcessMetadata.get(pid);
+        assertNotNull(metadata);
+        assertTrue(metadata.getStartTime() > 0);
+        assertSame(metadata,ProcessMetadata.get(pid));
+        assertEquals(new File(System.getProperty("user.dir")).getCanonicalPath(),metadata.getCwd());
+        assertTrue(metadata.getExe().endsWith("java"));
+        //与启动方式(IDE、surefire等)无关,只确认命令行的第一个参数为java命令
+        assertFalse(metadata.getCmdline().isEmpty());
+        assertTrue(metadata.getCmdline().get(0).endsWith("java"));
+        assertEquals(metadata.getCwd(),metadata.getOpenFiles().get(0));
+        //classpath中的jar已被打开
+        assertNotNull(metadata.findOpenFile(name -> name.startsWith("junit") && name.endsWith(".jar")));
+        assertNull(metadata.findOpenFile(name -> name.equals("not-exist.jar")));
+        assertNull(ProcessMetadata.get(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.CircuitBreaker;
+import com.yiji.falcon.agent.falcon.PushCluster;
+import com.yiji.falcon.agent.falcon.PushSink;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PushClusterTest {
+
+    private static PushCluster.Node node(String address){
+        return new PushCluster.Node(address,new PushSink() {
+            @Override
+            public boolean push(byte[] json, int length, int points) {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Test
+    public void shardAndFailover(){
+        List<PushCluster.Node> nodes = Arrays.asList(node("t1:8433"),node("t2:8433"),node("t3:8433"),node("t4:8433"));
+        PushCluster cluster = new PushCluster(nodes);
+
+        Map<String,PushCluster.Node> before = new HashMap<>();
+        Map<PushCluster.Node,Integer> counts = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            PushCluster.Node node = cluster.getNode("host-" + (i % 50),"metric." + i,"service=tomcat");
+            before.put("metric." + i,node);
+            counts.merge(node,1,Integer::sum);
+            //同一监控项始终分配到同一节点
+            assertSame(node,cluster.getNode("host-" + (i % 50),"metric." + i,"service=tomcat"));
+        }
+        for (PushCluster.Node node : nodes) {
+            assertTrue(counts.get(node) > 1500 && counts.get(node) < 3500);
+        }
+
+        //偶发的失败不移出节点
+        PushCluster.Node failed = nodes.get(1);
+        failed.getBreaker().onFailure();
+        failed.getBreaker().onFailure();
+        failed.getBreaker().onSuccess();
+        failed.getBreaker().onFailure();
+        assertEquals(4,cluster.getHealthyCount());
+
+        //熔断器进入open时移出,只有其负责的监控值转移
+        failed.getBreaker().onFailure();
+        failed.getBreaker().onFailure();
+        assertEquals(CircuitBreaker.State.OPEN,failed.getBreaker().getState());
+        assertEquals(3,cluster.getHealthyCount());
+        for (int i = 0; i < 10000; i++) {
+            PushCluster.Node node = cluster.getNode("host-" + (i % 50),"metric." + i,"service=tomcat");
+            assertNotSame(failed,node);
+            if(before.get("metric." + i) != failed){
+                assertSame(before.get("metric." + i),node);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.PushCompressor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class PushCompressorTest {
+
+    @Test
+    public void gzipAndDeflate() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            json.append("{\"endpoint\":\"host-1\",\"metric\":\"jmx.metric.").append(i)
+                    .append("\",\"timestamp\":1474512000,\"step\":60,\"value\":\"").append(i)
+                    .append("\",\"counterType\":\"GAUGE\",\"tags\":\"service=tomcat\"},");
+        }
+        json.append("]");
+        byte[] data = json.toString().getBytes("UTF-8");
+
+        PushCompressor compressor = new PushCompressor();
+        //多次压缩复用同一实例
+        for (int i = 0; i < 3; i++) {
+            compressor.compress(data,data.length,PushCompressor.GZIP);
+            assertTrue(compressor.size() < data.length / 5);
+            assertArrayEquals(data,read(new GZIPInputStream(new ByteArrayInputStream(compressor.buffer(),0,compressor.size()))));
+
+            compressor.compress(data,data.length,PushCompressor.DEFLATE);
+            assertArrayEquals(data,read(new InflaterInputStream(new ByteArrayInputStream(compressor.buffer(),0,compressor.size()))));
+        }
+        compressor.end();
+        assertTrue(PushCompressor.getCompressRatio() < 0.2);
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0){
+            out.write(buffer,0,read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.falcon.ReportSpool;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SpoolTest {
+
+    @Test
+    public void replayAfterReopen() throws IOException {
+        File dir = Files.createTempDirectory("spool").toFile();
+        ReportSpool spool = new ReportSpool(dir,1024,1024 * 1024);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(spool.append(("[batch-" + i + "]").getBytes("UTF-8"),i + 1));
+        }
+        assertEquals("[batch-0]",new String(spool.peek().getData(),"UTF-8"));
+        spool.commit();
+        spool.close();
+
+        //重启后从未确认的批次继续重放
+        spool = new ReportSpool(dir,1024,1024 * 1024);
+        assertEquals(210 - 1,spool.pendingPoints());
+        for (int i = 1; i < 20; i++) {
+            ReportSpool.Record record = spool.peek();
+            assertEquals("[batch-" + i + "]",new String(record.getData(),"UTF-8"));
+            assertEquals(i + 1,record.getPoints());
+            spool.commit();
+        }
+        assertNull(spool.peek());
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void evictOldestSegment() throws IOException {
+        File dir = Files.createTempDirectory("spool").toFile();
+        ReportSpool spool = new ReportSpool(dir,256,1024);
+        byte[] data = new byte[100];
+        for (int i = 0; i < 50; i++) {
+            spool.append(data,1);
+        }
+        assertTrue(spool.diskBytes() <= 1024);
+        assertTrue(spool.getEvictedPoints() > 0);
+        assertEquals(50,spool.pendingPoints() + spool.getEvictedPoints());
+        spool.close();
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.jmx.TimeoutMBeanServerConnection;
+import org.junit.Test;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * JMX调用超时
+ */
+public class TimeoutMBeanServerConnectionTest {
+
+    @Test
+    public void call() throws Exception {
+        MBeanServerConnection connection = TimeoutMBeanServerConnection.wrap(ManagementFactory.getPlatformMBeanServer(),5000,3,() -> fail("不应挂起"));
+        assertEquals(ManagementFactory.getRuntimeMXBean().getName(),
+                connection.getAttribute(new ObjectName(ManagementFactory.RUNTIME_MXBEAN_NAME),"Name"));
+        try {
+            connection.getAttribute(new ObjectName("test:type=NotExist"),"Name");
+            fail();
+        } catch (InstanceNotFoundException ignored) {
+            //原始异常
+        }
+    }
+
+    @Test
+    public void hung() throws Exception {
+        MBeanServerConnection target = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class},(proxy, method, args) -> {
+                    Thread.sleep(10000);
+                    return null;
+                });
+        AtomicInteger hung = new AtomicInteger();
+        MBeanServerConnection connection = TimeoutMBeanServerConnection.wrap(target,100,2,hung::incrementAndGet);
+        long timeouts = TimeoutMBeanServerConnection.getTimeoutCount();
+        for (int i = 0; i < 3; i++) {
+            long start = System.currentTimeMillis();
+            try {
+                connection.getMBeanCount();
+                fail();
+            } catch (TimeoutMBeanServerConnection.CallTimeoutException e) {
+                assertTrue(System.currentTimeMillis() - start < 5000);
+            }
+        }
+        //第三次调用时连接已挂起,直接失败
+        assertEquals(timeouts + 2,TimeoutMBeanServerConnection.getTimeoutCount());
+        assertEquals(1,hung.get());
+    }
+}
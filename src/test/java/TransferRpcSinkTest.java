@@ -0,0 +1,138 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.yiji.falcon.agent.falcon.TransferRpcSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用本地模拟的transfer RPC服务测试 {@link TransferRpcSink}
+ */
+public class TransferRpcSinkTest {
+
+    private ServerSocket serverSocket;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * 处理完指定个数的请求后断开连接
+     */
+    private volatile int closeAfter = Integer.MAX_VALUE;
+
+    @Before
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()){
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    new Thread(() -> serve(socket)).start();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * 模拟transfer的Transfer.Update,响应顺序与请求顺序相反,验证按id匹配响应
+     * @param socket
+     */
+    private void serve(Socket socket){
+        try (Socket s = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new OutputStreamWriter(s.getOutputStream(),StandardCharsets.UTF_8)) {
+            String line;
+            int handled = 0;
+            List<JSONObject> batch = new ArrayList<>();
+            while ((line = reader.readLine()) != null){
+                JSONObject request = JSON.parseObject(line);
+                assertEquals("Transfer.Update",request.getString("method"));
+                batch.add(request);
+                if(reader.ready()){
+                    continue;
+                }
+                Collections.reverse(batch);
+                for (JSONObject r : batch) {
+                    JSONArray metrics = r.getJSONArray("params").getJSONArray(0);
+                    received.add(metrics.getJSONObject(0).getIntValue("value"));
+                    writer.write("{\"id\":" + r.getLongValue("id") + ",\"result\":{\"Message\":\"ok\",\"Total\":" + metrics.size() + ",\"Invalid\":0,\"Latency\":0},\"error\":null}\n");
+                }
+                writer.flush();
+                handled += batch.size();
+                batch.clear();
+                if(handled >= closeAfter){
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static byte[] payload(int value){
+        return ("[{\"endpoint\":\"host\",\"metric\":\"m\",\"timestamp\":1,\"step\":60,\"value\":\"" + value + "\",\"counterType\":\"GAUGE\",\"tags\":\"a=b\"}]")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void pipelining() throws Exception {
+        TransferRpcSink sink = new TransferRpcSink("127.0.0.1:" + serverSocket.getLocalPort(),1000,5000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] data = payload(i);
+            futures.add(executor.submit(() -> sink.push(data,data.length,1)));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+        sink.close();
+        assertEquals(200,received.size());
+        assertEquals(1,connections.get());
+    }
+
+    @Test
+    public void reconnect() throws Exception {
+        closeAfter = 1;
+        TransferRpcSink sink = new TransferRpcSink("127.0.0.1:" + serverSocket.getLocalPort(),1000,5000);
+        byte[] data = payload(1);
+        assertTrue(sink.push(data,data.length,1));
+        //服务端已断开连接,断开被发现前的发送可能失败,之后应重新连接
+        boolean success = false;
+        for (int i = 0; i < 10 && !success; i++) {
+            try {
+                success = sink.push(data,data.length,1);
+            } catch (IOException ignored) {
+                Thread.sleep(50);
+            }
+        }
+        assertTrue(success);
+        assertTrue(connections.get() >= 2);
+        sink.close();
+    }
+}
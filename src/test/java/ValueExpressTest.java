@@ -0,0 +1,69 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+
+import com.yiji.falcon.agent.plugins.metrics.ValueExpress;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ValueExpressTest {
+
+    private static Object eval(String express,Object value){
+        return ValueExpress.compile(express,false).evaluate(value);
+    }
+
+    @Test
+    public void confExpress(){
+        String health = "if(value == 'green'){newValue = 3}else if(value == 'yellow'){newValue = 2} else if(value == 'red'){newValue = 1} else {newValue = 0}";
+        assertEquals("3",String.valueOf(eval(health,"green")));
+        assertEquals("1",String.valueOf(eval(health,"red")));
+        assertEquals("0",String.valueOf(eval(health,"blue")));
+
+        String nan = "\"if(value == 'NaN'){newValue = 0}else{newValue = value}\"";
+        assertEquals("0",String.valueOf(eval(nan,"NaN")));
+        assertEquals("12.5",String.valueOf(eval(nan,"12.5")));
+
+        String zero = "if(value == 0){newValue = 1}else{newValue = ''}";
+        assertEquals("1",String.valueOf(eval(zero,"0")));
+        assertEquals("1",String.valueOf(eval(zero,0)));
+        assertEquals("",String.valueOf(eval(zero,"5")));
+    }
+
+    @Test
+    public void arithmetic(){
+        assertEquals("2",String.valueOf(eval("value / 1024","2048")));
+        assertEquals("0.5",String.valueOf(eval("newValue = value / 1024;","512")));
+        assertEquals("7",String.valueOf(eval("1 + 2 * 3",null)));
+        assertEquals("9",String.valueOf(eval("(1 + 2) * 3",null)));
+        assertEquals("-1",String.valueOf(eval("-value % 4","5")));
+        assertEquals("3",String.valueOf(eval("Math.round(value)","2.5")));
+        assertEquals("4",String.valueOf(eval("Math.max(1,value,Math.abs(-4))","3")));
+        assertEquals("high",String.valueOf(eval("value >= 90 && value != 100 ? 'high' : 'low'","95")));
+        assertEquals("low",String.valueOf(eval("value >= 90 && value != 100 ? 'high' : 'low'","100")));
+        assertEquals("20",String.valueOf(eval("var rate = value * 100; if(rate > 10) newValue = rate; else newValue = 0","0.2")));
+    }
+
+    @Test
+    public void jsSemantics(){
+        //+ 有字符串时为字符串拼接,其他运算转为数字
+        assertEquals("51",String.valueOf(eval("value + 1","5")));
+        assertEquals("6",String.valueOf(eval("value * 1 + 1","5")));
+        assertEquals(Boolean.TRUE,eval("value == 1","1.0"));
+        assertEquals(Boolean.FALSE,eval("value === 1","1"));
+        assertEquals(Boolean.FALSE,eval("value > 1","abc"));
+        assertEquals(Boolean.TRUE,eval("!value",""));
+        assertEquals("NaN",String.valueOf(eval("value * 2","2d")));
+    }
+
+    @Test
+    public void unsupported(){
+        //无法编译且不使用兼容模式时,返回原值
+        assertEquals("5",eval("java.lang.System.exit(0)","5"));
+        assertEquals("5",eval("while(true){}","5"));
+        assertEquals("5",eval("newValue = undefinedVar","5"));
+        assertEquals("5",eval("if(value == 0{newValue = 1}","5"));
+        assertEquals("5",ValueExpress.compile("",false).evaluate("5"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package benchmark;
+
+import com.yiji.falcon.agent.falcon.CounterType;
+import com.yiji.falcon.agent.falcon.FalconJsonWriter;
+import com.yiji.falcon.agent.falcon.FalconReportObject;
+import com.yiji.falcon.agent.falcon.RequestJson;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * push数据JSON序列化的基准测试
+ * 对比原有的org.json方式与流式序列化的吞吐量及内存分配(-prof gc)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FalconJsonWriterBenchmark {
+
+    @Param({"100", "2000"})
+    private int points;
+
+    private List<FalconReportObject> batch;
+    private FalconJsonWriter writer;
+
+    @Setup
+    public void setup(){
+        batch = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            FalconReportObject reportObject = new FalconReportObject();
+            reportObject.setEndpoint("192.168.1.100");
+            reportObject.setMetric("java.lang.Memory.HeapMemoryUsage.used." + i);
+            reportObject.setTimestamp(1474512000L + i);
+            reportObject.setStep(60);
+            reportObject.setValue(String.valueOf(i * 1024.5));
+            reportObject.setCounterType(i % 2 == 0 ? CounterType.GAUGE : CounterType.COUNTER);
+            reportObject.setTags("service=tomcat,service.type=jmx,agentSignName=catalina.base-" + i);
+            batch.add(reportObject);
+        }
+        writer = new FalconJsonWriter();
+    }
+
+    @Benchmark
+    public byte[] orgJson() throws UnsupportedEncodingException {
+        return RequestJson.getJsonString(batch).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int streamingWriter(){
+        return writer.reset().writeArray(batch).size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FalconJsonWriterBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
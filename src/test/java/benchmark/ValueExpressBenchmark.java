@@ -0,0 +1,70 @@
+/*
+ * www.yiji.com Inc.
+ * Copyright (c) 2016 All Rights Reserved
+ */
+package benchmark;
+
+import com.yiji.falcon.agent.plugins.metrics.ValueExpress;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监控值转换表达式的基准测试
+ * 对比原有的每个监控值创建js脚本引擎执行的方式与编译后执行的吞吐量及内存分配(-prof gc)
+ * nashorn 基准需在自带js脚本引擎的JDK(JDK 8 ~ 14)上运行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValueExpressBenchmark {
+
+    @Param({"if(value == 'green'){newValue = 3}else if(value == 'yellow'){newValue = 2} else if(value == 'red'){newValue = 1} else {newValue = 0}",
+            "value / 1024"})
+    private String express;
+
+    private String value;
+    private ValueExpress valueExpress;
+
+    @Setup
+    public void setup(){
+        valueExpress = ValueExpress.compile(express,false);
+        value = express.startsWith("if") ? "red" : "1048576";
+    }
+
+    /**
+     * 原有方式:每个监控值创建一次js脚本引擎
+     */
+    @Benchmark
+    public Object nashorn() throws ScriptException {
+        ScriptEngineManager manager = new ScriptEngineManager();
+        ScriptEngine engine = manager.getEngineByName("nashorn");
+        engine.put("value", value);
+        engine.put("newValue", "");
+        engine.eval(express);
+        return engine.get("newValue");
+    }
+
+    @Benchmark
+    public Object compiled(){
+        return valueExpress.evaluate(value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ValueExpressBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}